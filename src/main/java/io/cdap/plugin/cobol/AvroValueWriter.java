@@ -0,0 +1,158 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.cdap.plugin.cobol;
+
+import io.cdap.cdap.api.data.format.StructuredRecord;
+import io.cdap.cdap.api.data.format.UnexpectedFormatException;
+import io.cdap.cdap.api.data.schema.Schema;
+import org.apache.avro.io.Encoder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import javax.annotation.Nullable;
+
+/**
+ * Writes the values produced by the {@link FieldDecoder}s in the Avro binary encoding of their CDAP {@link Schema}.
+ */
+final class AvroValueWriter {
+
+  /**
+   * Writes a value.
+   *
+   * @param schema the schema of the value
+   * @param value the value, as produced by a {@link FieldDecoder}
+   * @param encoder the {@link Encoder} to write to
+   * @throws IOException if failed to write
+   * @throws UnexpectedFormatException if the value doesn't match the schema
+   */
+  static void write(Schema schema, @Nullable Object value, Encoder encoder) throws IOException {
+    if (schema.getType() == Schema.Type.UNION) {
+      int index = getUnionIndex(schema, value);
+      encoder.writeIndex(index);
+      schema = schema.getUnionSchemas().get(index);
+    }
+    if (value == null) {
+      if (schema.getType() != Schema.Type.NULL) {
+        throw new UnexpectedFormatException("Null value for non nullable schema " + schema);
+      }
+      encoder.writeNull();
+      return;
+    }
+
+    switch (schema.getType()) {
+      case BOOLEAN:
+        encoder.writeBoolean((Boolean) value);
+        break;
+      case INT:
+        encoder.writeInt(((Number) value).intValue());
+        break;
+      case LONG:
+        encoder.writeLong(((Number) value).longValue());
+        break;
+      case FLOAT:
+        encoder.writeFloat(((Number) value).floatValue());
+        break;
+      case DOUBLE:
+        encoder.writeDouble(((Number) value).doubleValue());
+        break;
+      case STRING:
+        encoder.writeString(value.toString());
+        break;
+      case BYTES:
+        if (value instanceof ByteBuffer) {
+          encoder.writeBytes(((ByteBuffer) value).duplicate());
+        } else {
+          encoder.writeBytes((byte[]) value);
+        }
+        break;
+      case RECORD:
+        StructuredRecord record = (StructuredRecord) value;
+        for (Schema.Field field : schema.getFields()) {
+          write(field.getSchema(), record.get(field.getName()), encoder);
+        }
+        break;
+      case ARRAY:
+        List<?> items = (List<?>) value;
+        encoder.writeArrayStart();
+        encoder.setItemCount(items.size());
+        for (Object item : items) {
+          encoder.startItem();
+          write(schema.getComponentSchema(), item, encoder);
+        }
+        encoder.writeArrayEnd();
+        break;
+      default:
+        throw new UnexpectedFormatException("Unsupported schema " + schema);
+    }
+  }
+
+  /**
+   * Returns the index of the branch of a union schema for the given value.
+   *
+   * @throws UnexpectedFormatException if no branch of the union matches the value
+   */
+  static int getUnionIndex(Schema unionSchema, @Nullable Object value) {
+    List<Schema> schemas = unionSchema.getUnionSchemas();
+    for (int i = 0; i < schemas.size(); i++) {
+      if (matches(schemas.get(i), value)) {
+        return i;
+      }
+    }
+    throw new UnexpectedFormatException("Value of type " + (value == null ? null : value.getClass().getName())
+                                          + " doesn't match any schema of union " + unionSchema);
+  }
+
+  /**
+   * Returns the index of the non null branch of a nullable schema.
+   */
+  static int getNonNullIndex(Schema nullableSchema) {
+    List<Schema> schemas = nullableSchema.getUnionSchemas();
+    return schemas.get(0).getType() == Schema.Type.NULL ? 1 : 0;
+  }
+
+  private static boolean matches(Schema schema, @Nullable Object value) {
+    switch (schema.getType()) {
+      case NULL:
+        return value == null;
+      case BOOLEAN:
+        return value instanceof Boolean;
+      case INT:
+        return value instanceof Integer || value instanceof Short;
+      case LONG:
+        return value instanceof Long;
+      case FLOAT:
+        return value instanceof Float;
+      case DOUBLE:
+        return value instanceof Double;
+      case STRING:
+        return value instanceof String;
+      case BYTES:
+        return value instanceof ByteBuffer || value instanceof byte[];
+      case RECORD:
+        return value instanceof StructuredRecord
+          && ((StructuredRecord) value).getSchema().getRecordName().equals(schema.getRecordName());
+      case ARRAY:
+        return value instanceof List;
+      default:
+        return false;
+    }
+  }
+
+  private AvroValueWriter() {
+    // no-op
+  }
+}
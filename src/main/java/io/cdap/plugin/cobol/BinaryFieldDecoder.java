@@ -0,0 +1,172 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.cdap.plugin.cobol;
+
+import com.legstar.base.type.primitive.CobolBinaryType;
+import com.legstar.base.visitor.FromCobolException;
+import io.cdap.cdap.api.data.schema.Schema;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import javax.annotation.Nullable;
+
+/**
+ * {@link FieldDecoder} for binary (COMP, COMP-4, COMP-5 and BINARY) items of at most
+ * {@value DecimalFieldDecoder#MAX_DIGITS} digits. The big endian integer is read straight from the record bytes into
+ * a {@code long}, and checked against the range of the picture clause like legstar does.
+ */
+final class BinaryFieldDecoder extends FieldDecoder {
+
+  private final String fieldName;
+  private final CobolBinaryType<?> cobolType;
+  private final boolean signed;
+  private final boolean odoObject;
+  private final long minValue;
+  private final long maxValue;
+  @Nullable
+  private final Schema.Type targetType;
+  private final int bytesLen;
+
+  /**
+   * Creates a decoder.
+   *
+   * @param fieldName the name of the field
+   * @param cobolType the COBOL type of the field, which must be supported according to {@link #isSupported}
+   * @param schema the schema of the field or {@code null} if the field is only skipped
+   * @param trusted {@code true} to skip the range check, for input known to be valid
+   */
+  BinaryFieldDecoder(String fieldName, CobolBinaryType<?> cobolType, @Nullable Schema schema, boolean trusted) {
+    this.fieldName = fieldName;
+    this.cobolType = cobolType;
+    this.signed = cobolType.isSigned();
+    this.odoObject = cobolType.isOdoObject();
+    this.minValue = trusted
+      ? Long.MIN_VALUE : toUnscaled(cobolType.getMinInclusive(), cobolType.getFractionDigits(), Long.MIN_VALUE);
+    this.maxValue = trusted
+      ? Long.MAX_VALUE : toUnscaled(cobolType.getMaxInclusive(), cobolType.getFractionDigits(), Long.MAX_VALUE);
+    this.targetType = schema == null ? null : schema.getType();
+    this.bytesLen = cobolType.getBytesLen();
+  }
+
+  /**
+   * Returns whether an item of the given COBOL type can be decoded by this class into the given schema.
+   */
+  static boolean isSupported(CobolBinaryType<?> cobolType, @Nullable Schema schema) {
+    if (cobolType.getTotalDigits() > DecimalFieldDecoder.MAX_DIGITS) {
+      return false;
+    }
+    if (schema == null) {
+      return true;
+    }
+    switch (schema.getType()) {
+      case INT:
+      case LONG:
+        return cobolType.getFractionDigits() == 0;
+      case BYTES:
+        return schema.getLogicalType() == Schema.LogicalType.DECIMAL
+          && schema.getScale() == cobolType.getFractionDigits();
+      default:
+        return false;
+    }
+  }
+
+  @Nullable
+  @Override
+  Object decode(DecodeState state) {
+    if (state.position >= state.limit) {
+      return null;
+    }
+    if (state.position + bytesLen > state.limit) {
+      throw new FromCobolException("Truncated value of " + bytesLen + " bytes at offset " + state.position,
+                                   cobolType.getCobolName(), cobolType);
+    }
+    long value = decodeBinary(state.data, state.position, bytesLen, signed);
+    if (value < minValue || value > maxValue) {
+      throw new FromCobolException("Value " + value + " at offset " + state.position
+                                     + " is outside the required range [" + minValue + ", " + maxValue + "]",
+                                   cobolType.getCobolName(), cobolType);
+    }
+    state.position += bytesLen;
+
+    if (odoObject) {
+      state.putVariable(fieldName, value);
+    }
+    if (targetType == null) {
+      return null;
+    }
+    switch (targetType) {
+      case INT:
+        return (int) value;
+      case LONG:
+        return value;
+      default:
+        return ByteBuffer.wrap(DecimalFieldDecoder.toUnscaledBytes(value));
+    }
+  }
+
+  @Override
+  void skip(DecodeState state) {
+    if (odoObject) {
+      decode(state);
+    } else {
+      advance(state, bytesLen);
+    }
+  }
+
+  @Override
+  int getFixedLength() {
+    return odoObject ? -1 : bytesLen;
+  }
+
+  /**
+   * Decodes a big endian binary integer of 2, 4 or 8 bytes. Unsigned 8 bytes integers with the high order bit set
+   * don't fit in a {@code long} and are returned as negative values, which are out of the range of any picture
+   * clause of at most {@value DecimalFieldDecoder#MAX_DIGITS} digits.
+   */
+  static long decodeBinary(byte[] data, int position, int length, boolean signed) {
+    switch (length) {
+      case 2:
+        int s = (data[position] << 8) | (data[position + 1] & 0xFF);
+        return signed ? s : s & 0xFFFF;
+      case 4:
+        int i = (data[position] << 24) | ((data[position + 1] & 0xFF) << 16)
+          | ((data[position + 2] & 0xFF) << 8) | (data[position + 3] & 0xFF);
+        return signed ? i : i & 0xFFFFFFFFL;
+      default:
+        long value = 0;
+        for (int j = position; j < position + length; j++) {
+          value = (value << 8) | (data[j] & 0xFF);
+        }
+        return value;
+    }
+  }
+
+  /**
+   * Returns the unscaled value of a range bound of the picture clause or the given default if there is no bound or
+   * if it doesn't fit in a {@code long}.
+   */
+  private static long toUnscaled(@Nullable Number bound, int fractionDigits, long defaultValue) {
+    if (bound == null) {
+      return defaultValue;
+    }
+    BigDecimal unscaled = new BigDecimal(bound.toString()).movePointRight(fractionDigits);
+    if (unscaled.compareTo(BigDecimal.valueOf(Long.MIN_VALUE)) < 0
+      || unscaled.compareTo(BigDecimal.valueOf(Long.MAX_VALUE)) > 0) {
+      return defaultValue;
+    }
+    return unscaled.longValue();
+  }
+}
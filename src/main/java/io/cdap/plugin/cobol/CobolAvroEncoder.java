@@ -0,0 +1,190 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.cdap.plugin.cobol;
+
+import com.google.common.base.Preconditions;
+import io.cdap.plugin.common.AvroConverter;
+import org.apache.avro.Schema;
+import org.apache.avro.file.CodecFactory;
+import org.apache.avro.file.DataFileWriter;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.EncoderFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import javax.annotation.Nullable;
+
+/**
+ * Encodes COBOL records in the Avro binary encoding of the schema of a {@link CobolRecordDecoder}, directly from the
+ * decoded values, without creating any {@link io.cdap.cdap.api.data.format.StructuredRecord}.
+ * <p>
+ * Instances are not thread safe.
+ * </p>
+ */
+public final class CobolAvroEncoder {
+
+  private final CobolRecordDecoder decoder;
+  private final boolean hasRecordDescriptorWord;
+  private final Schema schema;
+  private final ByteArrayOutputStream output;
+  private BinaryEncoder encoder;
+  // Copy of the records of a direct buffer, reused across calls
+  private byte[] directData = new byte[0];
+
+  /**
+   * Creates an encoder.
+   *
+   * @param decoder the {@link CobolRecordDecoder} for decoding the records
+   * @param hasRecordDescriptorWord {@code true} for data that has the record descriptor word prefix for each record
+   * @throws IllegalArgumentException if the fields of the schema of the decoder are not in the order of the copybook
+   */
+  public CobolAvroEncoder(CobolRecordDecoder decoder, boolean hasRecordDescriptorWord) {
+    Preconditions.checkArgument(decoder.canEncode(), "Fields of the schema must be in the order of the copybook to "
+      + "be encoded in Avro");
+    this.decoder = decoder;
+    this.hasRecordDescriptorWord = hasRecordDescriptorWord;
+    this.schema = AvroConverter.toAvroSchema(decoder.getSchema());
+    this.output = new ByteArrayOutputStream();
+  }
+
+  /**
+   * Returns the Avro {@link Schema} of the encoded records.
+   */
+  public Schema getSchema() {
+    return schema;
+  }
+
+  /**
+   * Encodes all the records in the given buffer. Records that don't match the filter of the decoder are skipped.
+   * The position of the buffer is not modified.
+   *
+   * @param buffer the buffer containing the records
+   * @return a {@link List} containing one buffer with the Avro binary encoding of each record
+   * @throws IOException if failed to decode the records
+   */
+  public List<ByteBuffer> encode(ByteBuffer buffer) throws IOException {
+    byte[] data = getData(buffer);
+    int offset = buffer.hasArray() ? buffer.arrayOffset() + buffer.position() : 0;
+    int limit = offset + buffer.remaining();
+
+    output.reset();
+    encoder = EncoderFactory.get().binaryEncoder(output, encoder);
+    // Records are encoded back to back in one array, which is then sliced
+    List<Integer> ends = new ArrayList<>();
+    int position = offset;
+    while (position < limit) {
+      boolean encoded;
+      if (hasRecordDescriptorWord) {
+        CobolRecordReader.checkAvailable(CobolRecordReader.RDW_LEN, limit - position);
+        int recordLength = CobolRecordReader.checkRecordLength(CobolRecordReader.getRecordLength(data, position),
+                                                               decoder.getMaxRecordLength());
+        CobolRecordReader.checkAvailable(CobolRecordReader.RDW_LEN + recordLength, limit - position);
+        encoded = decoder.encode(data, position + CobolRecordReader.RDW_LEN, recordLength, encoder);
+        position += CobolRecordReader.RDW_LEN + recordLength;
+      } else {
+        int remaining = Math.min(limit - position, decoder.getMaxRecordLength());
+        encoded = decoder.encode(data, position, remaining, encoder);
+        position += CobolRecordReader.checkConsumed(decoder.getLastRecordLength(), remaining);
+      }
+      if (encoded) {
+        encoder.flush();
+        ends.add(output.size());
+      }
+    }
+
+    byte[] encodedData = output.toByteArray();
+    List<ByteBuffer> records = new ArrayList<>(ends.size());
+    int start = 0;
+    for (int end : ends) {
+      records.add(ByteBuffer.wrap(encodedData, start, end - start).slice());
+      start = end;
+    }
+    return records;
+  }
+
+  /**
+   * Encodes the remaining bytes of the given buffer as exactly one record, without Record Descriptor Word.
+   * The position of the buffer is not modified.
+   *
+   * @param buffer the buffer containing the record
+   * @return a buffer with the Avro binary encoding of the record or {@code null} if the record doesn't match the
+   *         filter of the decoder
+   * @throws IOException if failed to decode the record, if the buffer is shorter than the minimum record length or
+   *                     if it has bytes left after the end of the record
+   */
+  @Nullable
+  public ByteBuffer encodeExactly(ByteBuffer buffer) throws IOException {
+    int length = buffer.remaining();
+    CobolRecordReader.checkMinLength(decoder.getMinRecordLength(), length);
+    if (!buffer.hasArray()) {
+      // Bytes beyond the maximum record length can't be part of the record
+      CobolRecordReader.checkExactLength(Math.min(length, decoder.getMaxRecordLength()), length);
+    }
+    byte[] data = getData(buffer);
+    int offset = buffer.hasArray() ? buffer.arrayOffset() + buffer.position() : 0;
+
+    output.reset();
+    encoder = EncoderFactory.get().binaryEncoder(output, encoder);
+    boolean encoded = decoder.encode(data, offset, length, encoder);
+    CobolRecordReader.checkExactLength(decoder.getLastRecordLength(), length);
+    if (!encoded) {
+      return null;
+    }
+    encoder.flush();
+    return ByteBuffer.wrap(output.toByteArray());
+  }
+
+  /**
+   * Encodes all the records in the given buffer into an Avro container file.
+   *
+   * @param buffer the buffer containing the records
+   * @param out the {@link OutputStream} to write the file to, which is closed when done
+   * @param codec the {@link CodecFactory} for compressing the blocks of the file
+   * @return the number of records written
+   * @throws IOException if failed to decode or write the records
+   */
+  public long writeDataFile(ByteBuffer buffer, OutputStream out, CodecFactory codec) throws IOException {
+    long count = 0;
+    try (DataFileWriter<Object> writer = new DataFileWriter<>(new GenericDatumWriter<>(schema))) {
+      writer.setCodec(codec);
+      writer.create(schema, out);
+      for (ByteBuffer record : encode(buffer)) {
+        writer.appendEncoded(record);
+        count++;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Returns the array holding the remaining bytes of the given buffer, which is a copy for direct buffers.
+   */
+  private byte[] getData(ByteBuffer buffer) {
+    if (buffer.hasArray()) {
+      return buffer.array();
+    }
+    if (directData.length < buffer.remaining()) {
+      directData = new byte[buffer.remaining()];
+    }
+    buffer.duplicate().get(directData, 0, buffer.remaining());
+    return directData;
+  }
+}
@@ -0,0 +1,354 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.cdap.plugin.cobol;
+
+import com.google.common.io.ByteStreams;
+import io.cdap.cdap.api.data.batch.InputFormatProvider;
+import io.cdap.plugin.common.PathByteSource;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.compress.CodecPool;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.hadoop.io.compress.Decompressor;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.Nullable;
+
+/**
+ * A {@link FileInputFormat} that reads COBOL data files into raw records. The key is the offset of the record in
+ * the file and the value is the record content, without the Record Descriptor Word.
+ * <p>
+ * Files of fixed length records are split at record boundaries, so that each split can be read independently.
+ * Files of records prefixed with a Record Descriptor Word are split at arbitrary offsets. The reader of each split
+ * resynchronizes to the first true Record Descriptor Word at or after the split start, by validating a chain of
+ * consecutive Record Descriptor Words, and reads every record that starts before the split end.
+ * </p>
+ * <p>
+ * Compressed files are decompressed with the {@link CompressionCodec} matching their extension and are not split,
+ * since record boundaries can't be found from offsets in the compressed data.
+ * </p>
+ */
+public class CobolInputFormat extends FileInputFormat<LongWritable, BytesWritable> {
+
+  static final String RECORD_LENGTH = "cobol.input.record.length";
+  static final String MAX_RECORD_LENGTH = "cobol.input.max.record.length";
+  static final String RDW_CHAIN_LENGTH = "cobol.input.rdw.chain.length";
+
+  private static final int DEFAULT_RDW_CHAIN_LENGTH = 8;
+
+  /**
+   * Creates the {@link InputFormatProvider} for reading the given path.
+   *
+   * @param path the path of the files to read
+   * @param maxSplitSize the maximum size in bytes of each split or {@code null} to use the block size
+   * @param recordLength the length of each record for fixed length records; {@code 0} for records prefixed with
+   *                     a Record Descriptor Word
+   * @param maxRecordLength the maximum length of each record, excluding the Record Descriptor Word
+   * @return a {@link InputFormatProvider} for this input format
+   */
+  public static InputFormatProvider createProvider(String path, @Nullable Long maxSplitSize,
+                                                   int recordLength, int maxRecordLength) {
+    final Map<String, String> conf = new HashMap<>();
+    conf.put(FileInputFormat.INPUT_DIR, path);
+    if (maxSplitSize != null) {
+      conf.put(FileInputFormat.SPLIT_MAXSIZE, String.valueOf(maxSplitSize));
+    }
+    conf.put(RECORD_LENGTH, String.valueOf(recordLength));
+    conf.put(MAX_RECORD_LENGTH, String.valueOf(maxRecordLength));
+
+    return new InputFormatProvider() {
+      @Override
+      public String getInputFormatClassName() {
+        return CobolInputFormat.class.getName();
+      }
+
+      @Override
+      public Map<String, String> getInputFormatConfiguration() {
+        return conf;
+      }
+    };
+  }
+
+  @Override
+  protected boolean isSplitable(JobContext context, Path file) {
+    // Split offsets of compressed files, even of splittable codecs, are not aligned with the decompressed records
+    return new CompressionCodecFactory(context.getConfiguration()).getCodec(file) == null;
+  }
+
+  @Override
+  public List<InputSplit> getSplits(JobContext job) throws IOException {
+    List<InputSplit> splits = super.getSplits(job);
+    int recordLength = getRecordLength(job.getConfiguration());
+    if (recordLength <= 0) {
+      return splits;
+    }
+
+    // Moves the boundaries of each split to the start of the next record. Since splits of the same file are
+    // contiguous, every record is still covered by exactly one split.
+    List<InputSplit> result = new ArrayList<>(splits.size());
+    CompressionCodecFactory codecFactory = new CompressionCodecFactory(job.getConfiguration());
+    for (InputSplit split : splits) {
+      FileSplit fileSplit = (FileSplit) split;
+      if (codecFactory.getCodec(fileSplit.getPath()) != null) {
+        // Compressed files are read as a whole
+        result.add(fileSplit);
+        continue;
+      }
+      long start = alignToRecord(fileSplit.getStart(), recordLength);
+      long end = alignToRecord(fileSplit.getStart() + fileSplit.getLength(), recordLength);
+      if (end > start) {
+        result.add(new FileSplit(fileSplit.getPath(), start, end - start, fileSplit.getLocations()));
+      }
+    }
+    return result;
+  }
+
+  @Override
+  public RecordReader<LongWritable, BytesWritable> createRecordReader(InputSplit split, TaskAttemptContext context) {
+    int recordLength = getRecordLength(context.getConfiguration());
+    if (recordLength > 0) {
+      return new FixedLengthRecordReader(recordLength);
+    }
+    Configuration conf = context.getConfiguration();
+    return new RdwRecordReader(conf.getInt(MAX_RECORD_LENGTH, CobolRecordReader.MAX_RDW_RECORD_LENGTH),
+                               conf.getInt(RDW_CHAIN_LENGTH, DEFAULT_RDW_CHAIN_LENGTH));
+  }
+
+  private static int getRecordLength(Configuration conf) {
+    return conf.getInt(RECORD_LENGTH, 0);
+  }
+
+  private static long alignToRecord(long offset, int recordLength) {
+    return (offset + recordLength - 1) / recordLength * recordLength;
+  }
+
+  /**
+   * Base class for {@link RecordReader} that reads records of a {@link FileSplit} from an {@link InputStream}.
+   */
+  private abstract static class AbstractCobolRecordReader extends RecordReader<LongWritable, BytesWritable> {
+
+    private final LongWritable key = new LongWritable();
+    protected final BytesWritable value = new BytesWritable();
+    protected InputStream is;
+    protected long start;
+    protected long end;
+    protected long position;
+    // Only set for compressed files, to report the progress on the compressed data
+    private FSDataInputStream compressedIn;
+    private long compressedLength;
+    private Decompressor decompressor;
+
+    @Override
+    public void initialize(InputSplit split, TaskAttemptContext context) throws IOException {
+      FileSplit fileSplit = (FileSplit) split;
+      Configuration conf = context.getConfiguration();
+      start = fileSplit.getStart();
+      end = start + fileSplit.getLength();
+      position = start;
+
+      CompressionCodec codec = new CompressionCodecFactory(conf).getCodec(fileSplit.getPath());
+      if (codec != null) {
+        // Compressed files are not split, the records are read until the end of the decompressed data
+        compressedIn = fileSplit.getPath().getFileSystem(conf).open(fileSplit.getPath());
+        compressedLength = fileSplit.getLength();
+        decompressor = CodecPool.getDecompressor(codec);
+        is = new BufferedInputStream(codec.createInputStream(compressedIn, decompressor));
+        end = Long.MAX_VALUE;
+        return;
+      }
+
+      PathByteSource source = new PathByteSource(fileSplit.getPath(), conf);
+      is = source.slice(start, Long.MAX_VALUE).openBufferedStream();
+      if (start > 0) {
+        synchronize(source.size());
+      }
+    }
+
+    /**
+     * Moves the {@link #position} and the stream to the first record at or after the split start.
+     *
+     * @param fileLength the length of the file
+     */
+    protected void synchronize(long fileLength) throws IOException {
+      // Splits start at record boundaries by default
+    }
+
+    @Override
+    public boolean nextKeyValue() throws IOException {
+      if (position >= end) {
+        return false;
+      }
+      long recordStart = position;
+      if (!readRecord()) {
+        return false;
+      }
+      key.set(recordStart);
+      return true;
+    }
+
+    /**
+     * Reads the next record into {@link #value} and advances the {@link #position}.
+     *
+     * @return {@code false} if the end of the file was reached
+     */
+    protected abstract boolean readRecord() throws IOException;
+
+    /**
+     * Reads exactly the given number of bytes into {@link #value}.
+     */
+    protected void readValue(int length) throws IOException {
+      value.setSize(length);
+      int read = ByteStreams.read(is, value.getBytes(), 0, length);
+      if (read < length) {
+        throw new IOException(String.format("Truncated record at offset %d: expected %d bytes but only %d available",
+                                            position, length, read));
+      }
+    }
+
+    @Override
+    public LongWritable getCurrentKey() {
+      return key;
+    }
+
+    @Override
+    public BytesWritable getCurrentValue() {
+      return value;
+    }
+
+    @Override
+    public float getProgress() throws IOException {
+      if (compressedIn != null) {
+        return compressedLength == 0 ? 1.0f : Math.min(1.0f, compressedIn.getPos() / (float) compressedLength);
+      }
+      return end == start ? 1.0f : Math.min(1.0f, (position - start) / (float) (end - start));
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        if (is != null) {
+          is.close();
+        }
+      } finally {
+        if (decompressor != null) {
+          CodecPool.returnDecompressor(decompressor);
+          decompressor = null;
+        }
+      }
+    }
+  }
+
+  /**
+   * {@link RecordReader} for fixed length records.
+   */
+  private static final class FixedLengthRecordReader extends AbstractCobolRecordReader {
+
+    private final int recordLength;
+
+    FixedLengthRecordReader(int recordLength) {
+      this.recordLength = recordLength;
+    }
+
+    @Override
+    protected boolean readRecord() throws IOException {
+      value.setSize(recordLength);
+      int read = ByteStreams.read(is, value.getBytes(), 0, recordLength);
+      if (read == 0) {
+        return false;
+      }
+      // The last record of a file can be shorter, its missing fields are decoded as null as by the converter
+      value.setSize(read);
+      position += read;
+      return true;
+    }
+  }
+
+  /**
+   * {@link RecordReader} for records prefixed with a Record Descriptor Word.
+   */
+  private static final class RdwRecordReader extends AbstractCobolRecordReader {
+
+    private final byte[] rdw = new byte[CobolRecordReader.RDW_LEN];
+    private final int maxRecordLength;
+    private final int chainLength;
+
+    RdwRecordReader(int maxRecordLength, int chainLength) {
+      this.maxRecordLength = Math.min(maxRecordLength, CobolRecordReader.MAX_RDW_RECORD_LENGTH);
+      this.chainLength = chainLength;
+    }
+
+    @Override
+    protected void synchronize(long fileLength) throws IOException {
+      // Reads enough data to find the first record start and validate the chain of records that follows it
+      int windowSize = (int) Math.min(fileLength - start,
+                                      (long) (chainLength + 1) * (maxRecordLength + CobolRecordReader.RDW_LEN));
+      byte[] window = new byte[windowSize];
+      int read = ByteStreams.read(is, window, 0, windowSize);
+      boolean endOfData = start + read >= fileLength;
+
+      int offset = CobolRecordReader.findRecordStart(window, 0, read, endOfData, maxRecordLength, chainLength);
+      if (offset < 0) {
+        if (!endOfData) {
+          throw new IOException("Failed to find a Record Descriptor Word within " + maxRecordLength
+                                  + " bytes from offset " + start);
+        }
+        // The split only contains the tail of the last record of the file
+        position = end;
+        return;
+      }
+
+      position = start + offset;
+      is = new SequenceInputStream(new ByteArrayInputStream(window, offset, read - offset), is);
+    }
+
+    @Override
+    protected boolean readRecord() throws IOException {
+      int read = ByteStreams.read(is, rdw, 0, rdw.length);
+      if (read == 0) {
+        return false;
+      }
+      if (read < rdw.length) {
+        throw new IOException("Truncated record descriptor word at offset " + position);
+      }
+      int length = CobolRecordReader.getRecordLength(rdw, 0);
+      if (length > maxRecordLength) {
+        throw new IOException("Record length " + length + " from the Record Descriptor Word at offset " + position
+                                + " exceeds the maximum " + maxRecordLength + " defined by the copybook");
+      }
+      readValue(length);
+      position += CobolRecordReader.RDW_LEN + length;
+      return true;
+    }
+  }
+}
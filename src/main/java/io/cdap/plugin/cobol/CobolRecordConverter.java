@@ -16,7 +16,8 @@
 
 package io.cdap.plugin.cobol;
 
-import com.legstar.avro.cob2avro.io.AbstractZosDatumReader;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Iterators;
 import io.cdap.cdap.api.annotation.Description;
 import io.cdap.cdap.api.annotation.Name;
 import io.cdap.cdap.api.annotation.Plugin;
@@ -25,16 +26,16 @@ import io.cdap.cdap.api.data.schema.Schema;
 import io.cdap.cdap.etl.api.Emitter;
 import io.cdap.cdap.etl.api.FailureCollector;
 import io.cdap.cdap.etl.api.PipelineConfigurer;
+import io.cdap.cdap.etl.api.StageSubmitterContext;
 import io.cdap.cdap.etl.api.Transform;
 import io.cdap.cdap.etl.api.TransformContext;
 import io.cdap.cdap.format.StructuredRecordStringConverter;
-import io.cdap.plugin.common.AvroConverter;
-import io.cdap.plugin.common.StreamByteSource;
-import org.apache.avro.generic.GenericRecord;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
 
 /**
  * {@link Transform} plugin to convert COBOL data file into StructuredRecords.
@@ -44,6 +45,7 @@ import java.io.ByteArrayInputStream;
 @Description("Convert COBOL records into StructuredRecord with schema.")
 public class CobolRecordConverter extends Transform<StructuredRecord, StructuredRecord> {
   private static final Logger LOG = LoggerFactory.getLogger(CobolRecordConverter.class);
+  private static final int MAX_LOGGED_FILE_IDS = 10;
 
   private final CobolRecordConverterConfig config;
 
@@ -51,14 +53,66 @@ public class CobolRecordConverter extends Transform<StructuredRecord, Structured
     this.config = config;
   }
 
-  private CopybookReader copybookReader;
-  private Schema schema;
+  private CobolRecordDecoder decoder;
+  private CobolRecordReader reader;
+  private ParallelRecordDecoder parallelDecoder;
+  private CobolAvroEncoder avroEncoder;
+  private RecordReassembler reassembler;
+  private Schema avroOutputSchema;
+  private String avroWriterSchema;
+
+  @Override
+  public void prepareRun(StageSubmitterContext context) throws Exception {
+    super.prepareRun(context);
+    // Parse the copybook once for the run, tasks load it from the copybook artifact directory
+    config.storeCopybookArtifact();
+  }
 
   @Override
   public void initialize(TransformContext context) throws Exception {
     super.initialize(context);
-    this.copybookReader = config.getCopybookReader();
-    this.schema = config.getOutputSchemaAndValidate(copybookReader);
+    CopybookReader copybookReader = config.getCopybookReader();
+    Schema schema = config.getOutputSchemaAndValidate(copybookReader);
+    this.decoder = config.createRecordDecoder(copybookReader, schema);
+    this.reader = new CobolRecordReader(decoder, config.hasRDW());
+
+    if (config.getFileIdFieldName() != null) {
+      this.reassembler = new RecordReassembler(decoder, config.hasRDW());
+    }
+
+    if (config.getOutputFormat() == CobolRecordConverterConfig.OutputFormat.AVRO) {
+      this.avroEncoder = new CobolAvroEncoder(decoder, config.hasRDW());
+      this.avroOutputSchema = config.getAvroOutputSchema();
+      this.avroWriterSchema = avroEncoder.getSchema().toString();
+      if (config.getParallelism() > 1 && !config.isSingleRecord()) {
+        LOG.warn("Records are encoded sequentially since the Avro output format doesn't support parallel decoding.");
+      }
+    } else if (config.getParallelism() > 1 && !config.isSingleRecord()) {
+      if (ParallelRecordDecoder.isSupported(decoder, config.hasRDW())) {
+        this.parallelDecoder = new ParallelRecordDecoder(copybookReader, config.getCharset(), schema,
+                                                         config.getRecordDecoderOptions(), config.hasRDW(),
+                                                         config.getParallelism(), config.getChunkSize());
+      } else {
+        LOG.warn("Records are decoded sequentially since variable length records without Record Descriptor Word "
+                   + "can't be decoded in parallel.");
+      }
+    }
+  }
+
+  @Override
+  public void destroy() {
+    if (reassembler != null && reassembler.getIncompleteFiles() > 0) {
+      // Records of these files were lost, either because their last chunk was never received or because their chunks
+      // were split across instances of the transform. Failures are not propagated from destroy, hence only logged.
+      LOG.error("The last chunk of {} files was not received and their incomplete records were dropped, such as for "
+                  + "files {}. All the chunks of a file must be received in order by a single instance of the "
+                  + "transform.", reassembler.getIncompleteFiles(),
+                Iterables.limit(reassembler.getIncompleteFileIds(), MAX_LOGGED_FILE_IDS));
+    }
+    if (parallelDecoder != null) {
+      parallelDecoder.close();
+    }
+    super.destroy();
   }
 
   @Override
@@ -75,14 +129,82 @@ public class CobolRecordConverter extends Transform<StructuredRecord, Structured
 
   @Override
   public void transform(StructuredRecord input, Emitter<StructuredRecord> emitter) throws Exception {
-    byte[] body = input.get(config.getContentFieldName());
-    StreamByteSource source = new StreamByteSource(new ByteArrayInputStream(body), body.length);
-    try (AbstractZosDatumReader<GenericRecord> reader = copybookReader.createRecordReader(source, config.getCharset(),
-                                                                                          config.hasRDW())) {
-      for (GenericRecord record : reader) {
-        LOG.info(StructuredRecordStringConverter.toJsonString(AvroConverter.fromAvroRecord(record, schema)));
-        emitter.emit(AvroConverter.fromAvroRecord(record, schema));
+    Object body = input.get(config.getContentFieldName());
+    // A chunk without content may still be the last chunk of a file
+    if (body == null && reassembler == null) {
+      return;
+    }
+    // The bytes field can either be a byte[] or a ByteBuffer, both are read directly without stream wrapping
+    ByteBuffer buffer = body == null ? ByteBuffer.allocate(0)
+      : body instanceof ByteBuffer ? (ByteBuffer) body : ByteBuffer.wrap((byte[]) body);
+    if (config.isSingleRecord()) {
+      emitSingleRecord(buffer, emitter);
+      return;
+    }
+    if (reassembler != null) {
+      Object fileId = input.get(config.getFileIdFieldName());
+      if (fileId == null) {
+        throw new IllegalArgumentException("Field '" + config.getFileIdFieldName() + "' identifying the file of "
+                                             + "the chunk must not be null.");
+      }
+      Boolean lastChunk = input.get(config.getLastChunkFieldName());
+      for (ByteBuffer records : reassembler.add(fileId, buffer, lastChunk != null && lastChunk)) {
+        emitRecords(records, emitter);
+      }
+      return;
+    }
+    emitRecords(buffer, emitter);
+  }
+
+  private void emitRecords(ByteBuffer buffer, Emitter<StructuredRecord> emitter) throws IOException {
+    if (avroEncoder != null) {
+      for (ByteBuffer record : avroEncoder.encode(buffer)) {
+        emitter.emit(toAvroRecord(record));
+      }
+      return;
+    }
+    if (parallelDecoder != null) {
+      emit(parallelDecoder.decode(buffer), emitter);
+      return;
+    }
+    // The same reader is reset for each payload, it only releases the reference to the payload when closed
+    try {
+      emit(reader.reset(buffer), emitter);
+    } finally {
+      reader.close();
+    }
+  }
+
+  private void emitSingleRecord(ByteBuffer buffer, Emitter<StructuredRecord> emitter) throws IOException {
+    if (avroEncoder != null) {
+      ByteBuffer record = avroEncoder.encodeExactly(buffer);
+      if (record != null) {
+        emitter.emit(toAvroRecord(record));
+      }
+      return;
+    }
+    StructuredRecord record = decoder.decodeExactly(buffer);
+    if (record != null) {
+      emit(Iterators.singletonIterator(record), emitter);
+    }
+  }
+
+  private StructuredRecord toAvroRecord(ByteBuffer record) {
+    StructuredRecord.Builder builder = StructuredRecord.builder(avroOutputSchema)
+      .set(config.getContentFieldName(), record);
+    if (config.getAvroSchemaFieldName() != null) {
+      builder.set(config.getAvroSchemaFieldName(), avroWriterSchema);
+    }
+    return builder.build();
+  }
+
+  private void emit(Iterator<StructuredRecord> records, Emitter<StructuredRecord> emitter) throws IOException {
+    while (records.hasNext()) {
+      StructuredRecord record = records.next();
+      if (LOG.isTraceEnabled()) {
+        LOG.trace(StructuredRecordStringConverter.toJsonString(record));
       }
+      emitter.emit(record);
     }
   }
 }
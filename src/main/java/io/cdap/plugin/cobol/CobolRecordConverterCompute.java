@@ -0,0 +1,96 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.cdap.plugin.cobol;
+
+import io.cdap.cdap.api.annotation.Description;
+import io.cdap.cdap.api.annotation.Name;
+import io.cdap.cdap.api.annotation.Plugin;
+import io.cdap.cdap.api.data.format.StructuredRecord;
+import io.cdap.cdap.api.data.schema.Schema;
+import io.cdap.cdap.etl.api.FailureCollector;
+import io.cdap.cdap.etl.api.PipelineConfigurer;
+import io.cdap.cdap.etl.api.batch.SparkCompute;
+import io.cdap.cdap.etl.api.batch.SparkExecutionPluginContext;
+import io.cdap.cdap.etl.api.batch.SparkPluginContext;
+import org.apache.spark.api.java.JavaRDD;
+import org.apache.spark.api.java.function.FlatMapFunction;
+
+import java.util.Iterator;
+
+/**
+ * {@link SparkCompute} plugin to convert COBOL data file into StructuredRecords. Unlike {@link CobolRecordConverter},
+ * which is invoked for each input record, the records of a whole partition are decoded with a single decoder.
+ */
+@Plugin(type = SparkCompute.PLUGIN_TYPE)
+@Name("CobolRecordConverter")
+@Description("Convert COBOL records into StructuredRecord with schema, decoding each partition with a single reader.")
+public class CobolRecordConverterCompute extends SparkCompute<StructuredRecord, StructuredRecord> {
+
+  private final CobolRecordConverterConfig config;
+
+  public CobolRecordConverterCompute(CobolRecordConverterConfig config) {
+    this.config = config;
+  }
+
+  @Override
+  public void configurePipeline(PipelineConfigurer pipelineConfigurer) {
+    super.configurePipeline(pipelineConfigurer);
+
+    FailureCollector failureCollector = pipelineConfigurer.getStageConfigurer().getFailureCollector();
+    Schema inputSchema = pipelineConfigurer.getStageConfigurer().getInputSchema();
+    Schema outputSchema = config.getOutputSchemaAndValidate(failureCollector, inputSchema);
+    if (config.getFileIdFieldName() != null) {
+      // Chunks of a file can be in different partitions, which are decoded independently
+      failureCollector.addFailure("Chunked files are not supported by the Spark converter.",
+                                  "Use the transform converter to reassemble records across chunks.")
+        .withConfigProperty(CobolRecordConverterConfig.PROPERTY_FILE_ID_FIELD_NAME);
+    }
+    failureCollector.getOrThrowException();
+
+    pipelineConfigurer.getStageConfigurer().setOutputSchema(outputSchema);
+  }
+
+  @Override
+  public void prepareRun(SparkPluginContext context) throws Exception {
+    super.prepareRun(context);
+    // Parse the copybook once for the run, executors load it from the copybook artifact directory
+    config.storeCopybookArtifact();
+  }
+
+  @Override
+  public JavaRDD<StructuredRecord> transform(SparkExecutionPluginContext context,
+                                             JavaRDD<StructuredRecord> input) throws Exception {
+    return input.mapPartitions(new DecodeFunction(config));
+  }
+
+  /**
+   * Function that decodes all the input records of a partition.
+   */
+  private static final class DecodeFunction implements FlatMapFunction<Iterator<StructuredRecord>, StructuredRecord> {
+
+    private final CobolRecordConverterConfig config;
+
+    DecodeFunction(CobolRecordConverterConfig config) {
+      this.config = config;
+    }
+
+    @Override
+    public Iterator<StructuredRecord> call(Iterator<StructuredRecord> input) throws Exception {
+      // The partition is iterated once, so the records are decoded lazily while Spark consumes them
+      return new PartitionRecordIterator(config, input);
+    }
+  }
+}
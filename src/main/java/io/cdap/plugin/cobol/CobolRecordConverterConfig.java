@@ -16,89 +16,159 @@
 
 package io.cdap.plugin.cobol;
 
-import com.legstar.cob2xsd.Cob2XsdConfig;
+import com.google.common.base.Strings;
 import io.cdap.cdap.api.annotation.Description;
-import io.cdap.cdap.api.annotation.Macro;
 import io.cdap.cdap.api.annotation.Name;
 import io.cdap.cdap.api.data.schema.Schema;
-import io.cdap.cdap.api.plugin.PluginConfig;
 import io.cdap.cdap.etl.api.FailureCollector;
-import io.cdap.plugin.common.AvroConverter;
-import io.cdap.plugin.common.StreamCharSource;
-
-import java.io.ByteArrayInputStream;
-import java.io.IOException;
-import java.nio.charset.Charset;
-import java.nio.charset.StandardCharsets;
-import java.util.Properties;
+
 import javax.annotation.Nullable;
 
-public class CobolRecordConverterConfig extends PluginConfig {
-  public static final String PROPERTY_COPYBOOK = "copybook";
+public class CobolRecordConverterConfig extends CopybookConfig {
   public static final String PROPERTY_CONTENT_FIELD_NAME = "contentFieldName";
-  public static final String PROPERTY_CHARSET = "charset";
+  public static final String PROPERTY_PARALLELISM = "parallelism";
+  public static final String PROPERTY_CHUNK_SIZE = "chunkSize";
+  public static final String PROPERTY_OUTPUT_FORMAT = "outputFormat";
+  public static final String PROPERTY_AVRO_SCHEMA_FIELD_NAME = "avroSchemaFieldName";
+  public static final String PROPERTY_SINGLE_RECORD = "singleRecord";
+  public static final String PROPERTY_FILE_ID_FIELD_NAME = "fileIdFieldName";
+  public static final String PROPERTY_LAST_CHUNK_FIELD_NAME = "lastChunkFieldName";
+
+  private static final int DEFAULT_CHUNK_SIZE = 1000;
 
-  @Name(PROPERTY_COPYBOOK)
-  @Description("COBOL Copybook")
-  @Macro
-  private final String copybook;
+  @Name(PROPERTY_CONTENT_FIELD_NAME)
+  @Description("Name of the field containing COBOL records")
+  private final String contentFieldName;
 
-  @Description("CodeFormat in the Copybook")
+  @Name(PROPERTY_PARALLELISM)
+  @Description("Number of threads used to decode the records of a single input record. Only records prefixed with "
+    + "a Record Descriptor Word or of fixed length can be decoded in parallel. Default is 1.")
   @Nullable
-  private final String codeFormat;
+  private final Integer parallelism;
 
-  @Name(PROPERTY_CHARSET)
-  @Description("Charset used to read the data. Default Charset is 'IBM01140'.")
+  @Name(PROPERTY_CHUNK_SIZE)
+  @Description("Number of records decoded together by one thread when decoding in parallel. Default is 1000.")
   @Nullable
-  private final String charset;
+  private final Integer chunkSize;
 
-  @Description("Records start with Record Descriptor Word")
+  @Name(PROPERTY_OUTPUT_FORMAT)
+  @Description("Format of the output records. 'record' emits one record per COBOL record with the fields of the "
+    + "copybook. 'avro' emits one record per COBOL record with a single bytes field, named as the content field, "
+    + "containing the Avro binary encoding of the record. The records are encoded with the Avro form of the schema "
+    + "emitted by the 'record' format. Default is 'record'.")
   @Nullable
-  private final Boolean rdw;
+  private final String outputFormat;
 
-  @Name(PROPERTY_CONTENT_FIELD_NAME)
-  @Description("Name of the field containing COBOL records")
-  private final String contentFieldName;
+  @Name(PROPERTY_AVRO_SCHEMA_FIELD_NAME)
+  @Description("Name of a string field added to the records emitted in the 'avro' format, holding the JSON of the "
+    + "Avro schema the records are encoded with, for readers that need the writer schema. Not added if empty.")
+  @Nullable
+  private final String avroSchemaFieldName;
+
+  @Name(PROPERTY_SINGLE_RECORD)
+  @Description("Whether the content field of each input record holds exactly one COBOL record, without Record "
+    + "Descriptor Word, as in streaming pipelines with one COBOL record per message. The Record Descriptor Word and "
+    + "parallelism settings are then ignored, and inputs shorter than the minimum record length or with bytes left "
+    + "after the record fail. Default is false.")
+  @Nullable
+  private final Boolean singleRecord;
+
+  @Name(PROPERTY_FILE_ID_FIELD_NAME)
+  @Description("Name of the field identifying the file of each input record, for files received as a sequence of "
+    + "chunks in order. Records spanning two chunks of the same file are reassembled across input records. All the "
+    + "chunks of a file must be received in order by a single instance of the transform, which requires the "
+    + "source to deliver them in order to a single task. Only records prefixed with a Record Descriptor Word or of "
+    + "fixed length can be reassembled.")
+  @Nullable
+  private final String fileIdFieldName;
+
+  @Name(PROPERTY_LAST_CHUNK_FIELD_NAME)
+  @Description("Name of the boolean field that is true for the last chunk of each file. Required with the file id "
+    + "field. The short last record of a file of fixed-length records is emitted with the last chunk, while a last "
+    + "chunk that ends within a record prefixed with a Record Descriptor Word fails.")
+  @Nullable
+  private final String lastChunkFieldName;
 
   public CobolRecordConverterConfig(String copybook, @Nullable String codeFormat, @Nullable String charset,
                                     @Nullable Boolean rdw, String contentFieldName) {
-    this.copybook = copybook;
-    this.codeFormat = codeFormat;
-    this.charset = charset;
-    this.rdw = rdw;
+    this(copybook, codeFormat, charset, rdw, null, null, null, null, null, null, null, contentFieldName, null, null,
+         null, null, null, null, null);
+  }
+
+  private CobolRecordConverterConfig(String copybook, @Nullable String codeFormat, @Nullable String charset,
+                                     @Nullable Boolean rdw, @Nullable String fieldsToEmit, @Nullable String filter,
+                                     @Nullable String stringDecoding, @Nullable Boolean blankStringsAsNull,
+                                     @Nullable Integer stringCacheSize, @Nullable Boolean trustedInput,
+                                     @Nullable String copybookArtifactDirectory, String contentFieldName,
+                                     @Nullable Integer parallelism, @Nullable Integer chunkSize,
+                                     @Nullable String outputFormat, @Nullable String avroSchemaFieldName,
+                                     @Nullable Boolean singleRecord, @Nullable String fileIdFieldName,
+                                     @Nullable String lastChunkFieldName) {
+    super(copybook, codeFormat, charset, rdw, fieldsToEmit, filter, stringDecoding, blankStringsAsNull,
+          stringCacheSize, trustedInput, copybookArtifactDirectory);
     this.contentFieldName = contentFieldName;
+    this.parallelism = parallelism;
+    this.chunkSize = chunkSize;
+    this.outputFormat = outputFormat;
+    this.avroSchemaFieldName = avroSchemaFieldName;
+    this.singleRecord = singleRecord;
+    this.fileIdFieldName = fileIdFieldName;
+    this.lastChunkFieldName = lastChunkFieldName;
   }
 
   private CobolRecordConverterConfig(Builder builder) {
-    this.copybook = builder.copybook;
-    this.codeFormat = builder.codeFormat;
-    this.charset = builder.charset;
-    this.rdw = builder.rdw;
-    this.contentFieldName = builder.contentFieldName;
+    this(builder.copybook, builder.codeFormat, builder.charset, builder.rdw, builder.fieldsToEmit, builder.filter,
+         builder.stringDecoding, builder.blankStringsAsNull, builder.stringCacheSize, builder.trustedInput,
+         builder.copybookArtifactDirectory, builder.contentFieldName, builder.parallelism, builder.chunkSize,
+         builder.outputFormat, builder.avroSchemaFieldName, builder.singleRecord, builder.fileIdFieldName,
+         builder.lastChunkFieldName);
   }
 
-  public String getCopybook() {
-    return copybook;
+  public String getContentFieldName() {
+    return contentFieldName;
   }
 
-  public String getCodeFormat() {
-    return codeFormat == null ? Cob2XsdConfig.CodeFormat.FIXED_FORMAT.name() : codeFormat;
+  public int getParallelism() {
+    return parallelism == null ? 1 : parallelism;
   }
 
-  public String getCharset() {
-    return charset == null ? "IBM01140" : charset;
+  public int getChunkSize() {
+    return chunkSize == null ? DEFAULT_CHUNK_SIZE : chunkSize;
   }
 
-  public boolean hasRDW() {
-    return rdw == null ? true : rdw;
+  public OutputFormat getOutputFormat() {
+    return outputFormat == null ? OutputFormat.RECORD : OutputFormat.valueOf(outputFormat.toUpperCase());
   }
 
-  public String getContentFieldName() {
-    return contentFieldName;
+  @Nullable
+  public String getAvroSchemaFieldName() {
+    return Strings.isNullOrEmpty(avroSchemaFieldName) ? null : avroSchemaFieldName;
   }
 
-  public byte[] getCopybookBytes() {
-    return copybook.getBytes(StandardCharsets.UTF_8);
+  public boolean isSingleRecord() {
+    return singleRecord != null && singleRecord;
+  }
+
+  @Nullable
+  public String getFileIdFieldName() {
+    return Strings.isNullOrEmpty(fileIdFieldName) ? null : fileIdFieldName;
+  }
+
+  @Nullable
+  public String getLastChunkFieldName() {
+    return Strings.isNullOrEmpty(lastChunkFieldName) ? null : lastChunkFieldName;
+  }
+
+  /**
+   * Returns the schema of the records emitted in the {@link OutputFormat#AVRO} format, with the field holding the
+   * writer schema if set.
+   */
+  public Schema getAvroOutputSchema() {
+    Schema.Field contentField = Schema.Field.of(contentFieldName, Schema.of(Schema.Type.BYTES));
+    if (getAvroSchemaFieldName() == null) {
+      return Schema.recordOf("avro", contentField);
+    }
+    return Schema.recordOf("avro", contentField, Schema.Field.of(avroSchemaFieldName, Schema.of(Schema.Type.STRING)));
   }
 
   public Schema getOutputSchemaAndValidate(FailureCollector failureCollector, Schema inputSchema) {
@@ -122,48 +192,82 @@ public class CobolRecordConverterConfig extends PluginConfig {
       }
     }
 
-    if (!Charset.isSupported(getCharset())) {
-      failureCollector.addFailure(String.format("The charset name '%s' is not supported by your java environment.",
-                                                getCharset()),
-                                  "Make sure you have lib/charsets.jar in your jre.")
-        .withConfigProperty(PROPERTY_CHARSET);
-      // if above failed, we cannot proceed to copybook parsing.
-      throw failureCollector.getOrThrowException();
+    if (getFileIdFieldName() != null) {
+      Schema.Field fileIdField = inputSchema.getField(fileIdFieldName);
+      if (fileIdField == null) {
+        failureCollector.addFailure(String.format("Field '%s' is not present in input schema.", fileIdFieldName),
+                                    null).withConfigProperty(PROPERTY_FILE_ID_FIELD_NAME);
+      } else {
+        Schema fileIdSchema = fileIdField.getSchema().isNullable()
+          ? fileIdField.getSchema().getNonNullable() : fileIdField.getSchema();
+        // Values are compared with equals, which excludes bytes
+        if (fileIdSchema.getType() != Schema.Type.STRING && fileIdSchema.getType() != Schema.Type.INT
+          && fileIdSchema.getType() != Schema.Type.LONG) {
+          failureCollector.addFailure(String.format("Field '%s' must be of type 'string', 'int' or 'long' but is of "
+                                                      + "type '%s'.", fileIdFieldName, fileIdSchema.getDisplayName()),
+                                      null).withConfigProperty(PROPERTY_FILE_ID_FIELD_NAME)
+            .withInputSchemaField(fileIdFieldName, null);
+        }
+      }
+      if (getLastChunkFieldName() == null) {
+        failureCollector.addFailure("The field identifying the last chunk of each file must be set with the file id "
+                                      + "field.", "Set the last chunk field.")
+          .withConfigProperty(PROPERTY_LAST_CHUNK_FIELD_NAME);
+      } else {
+        Schema.Field lastChunkField = inputSchema.getField(lastChunkFieldName);
+        if (lastChunkField == null) {
+          failureCollector.addFailure(String.format("Field '%s' is not present in input schema.", lastChunkFieldName),
+                                      null).withConfigProperty(PROPERTY_LAST_CHUNK_FIELD_NAME);
+        } else {
+          Schema lastChunkSchema = lastChunkField.getSchema().isNullable()
+            ? lastChunkField.getSchema().getNonNullable() : lastChunkField.getSchema();
+          if (lastChunkSchema.getType() != Schema.Type.BOOLEAN) {
+            failureCollector.addFailure(String.format("Field '%s' must be of type 'boolean' but is of type '%s'.",
+                                                      lastChunkFieldName, lastChunkSchema.getDisplayName()),
+                                        null).withConfigProperty(PROPERTY_LAST_CHUNK_FIELD_NAME)
+              .withInputSchemaField(lastChunkFieldName, null);
+          }
+        }
+      }
+      if (isSingleRecord()) {
+        failureCollector.addFailure("Chunked files can't be decoded one record per input.",
+                                    "Either unset the file id field or disable single record per input.")
+          .withConfigProperty(PROPERTY_FILE_ID_FIELD_NAME).withConfigProperty(PROPERTY_SINGLE_RECORD);
+      }
     }
 
-    CopybookReader copybookReader;
-    try {
-      copybookReader = getCopybookReader();
-    } catch(Exception ex) {
-      failureCollector.addFailure(String.format("Error while reading copybook: '%s'", ex.getMessage()),
-                                  "Please make sure it has correct format")
-        .withConfigProperty(PROPERTY_COPYBOOK)
-        .withStacktrace(ex.getStackTrace());
-      throw failureCollector.getOrThrowException();
+    if (getParallelism() <= 0) {
+      failureCollector.addFailure(String.format("Parallelism must be positive but is %d.", getParallelism()), null)
+        .withConfigProperty(PROPERTY_PARALLELISM);
+    }
+    if (getChunkSize() <= 0) {
+      failureCollector.addFailure(String.format("Chunk size must be positive but is %d.", getChunkSize()), null)
+        .withConfigProperty(PROPERTY_CHUNK_SIZE);
     }
 
+    OutputFormat format = OutputFormat.RECORD;
     try {
-      return getOutputSchemaAndValidate(copybookReader);
-    } catch(Exception ex) {
-      failureCollector.addFailure(String.format("Error while generating schema from the copybook: '%s'",
-                                                ex.getMessage()), null)
-        .withConfigProperty(PROPERTY_COPYBOOK)
-        .withStacktrace(ex.getStackTrace());
-      throw failureCollector.getOrThrowException();
+      format = getOutputFormat();
+    } catch (IllegalArgumentException e) {
+      failureCollector.addFailure(String.format("Unsupported output format '%s'.", outputFormat),
+                                  "Supported formats are 'record' and 'avro'.")
+        .withConfigProperty(PROPERTY_OUTPUT_FORMAT);
     }
-  }
 
-  public CopybookReader getCopybookReader() throws IOException {
-    Properties properties = new Properties();
-    properties.setProperty(Cob2XsdConfig.CODE_FORMAT, getCodeFormat());
-    StreamCharSource streamCharSource
-      = new StreamCharSource(new ByteArrayInputStream(getCopybookBytes()));
-    return new CopybookReader(streamCharSource, properties);
-  }
+    if (getAvroSchemaFieldName() != null) {
+      if (format != OutputFormat.AVRO) {
+        failureCollector.addFailure("The Avro schema field only applies to the 'avro' output format.",
+                                    "Either unset the Avro schema field or set the output format to 'avro'.")
+          .withConfigProperty(PROPERTY_AVRO_SCHEMA_FIELD_NAME).withConfigProperty(PROPERTY_OUTPUT_FORMAT);
+      } else if (avroSchemaFieldName.equals(contentFieldName)) {
+        failureCollector.addFailure(String.format("The Avro schema field '%s' must differ from the content field.",
+                                                  avroSchemaFieldName), null)
+          .withConfigProperty(PROPERTY_AVRO_SCHEMA_FIELD_NAME).withConfigProperty(PROPERTY_CONTENT_FIELD_NAME);
+      }
+    }
 
-  public Schema getOutputSchemaAndValidate(CopybookReader copybookReader) {
-    org.apache.avro.Schema avroSchema = copybookReader.getSchema();
-    return AvroConverter.fromAvroSchema(avroSchema);
+    Schema schema = getOutputSchemaAndValidate(failureCollector);
+    return format == OutputFormat.AVRO ? getAvroOutputSchema() : schema;
   }
 
   public static Builder builder() {
@@ -176,7 +280,29 @@ public class CobolRecordConverterConfig extends PluginConfig {
       .setCodeFormat(copy.getCodeFormat())
       .setCharset(copy.getCharset())
       .setRdw(copy.hasRDW())
-      .setContentFieldName(copy.getContentFieldName());
+      .setFieldsToEmit(copy.getFieldsToEmit())
+      .setFilter(copy.getFilter())
+      .setStringDecoding(copy.getStringDecoding().name())
+      .setBlankStringsAsNull(copy.isBlankStringsAsNull())
+      .setStringCacheSize(copy.getStringCacheSize())
+      .setTrustedInput(copy.isTrustedInput())
+      .setCopybookArtifactDirectory(copy.getCopybookArtifactDirectory())
+      .setContentFieldName(copy.getContentFieldName())
+      .setParallelism(copy.getParallelism())
+      .setChunkSize(copy.getChunkSize())
+      .setOutputFormat(copy.getOutputFormat().name())
+      .setAvroSchemaFieldName(copy.getAvroSchemaFieldName())
+      .setSingleRecord(copy.isSingleRecord())
+      .setFileIdFieldName(copy.getFileIdFieldName())
+      .setLastChunkFieldName(copy.getLastChunkFieldName());
+  }
+
+  /**
+   * Format of the records emitted by the converter.
+   */
+  public enum OutputFormat {
+    RECORD,
+    AVRO
   }
 
   public static final class Builder {
@@ -184,7 +310,21 @@ public class CobolRecordConverterConfig extends PluginConfig {
     private String codeFormat;
     private String charset;
     private Boolean rdw;
+    private String fieldsToEmit;
+    private String filter;
+    private String stringDecoding;
+    private Boolean blankStringsAsNull;
+    private Integer stringCacheSize;
+    private Boolean trustedInput;
+    private String copybookArtifactDirectory;
     private String contentFieldName;
+    private Integer parallelism;
+    private Integer chunkSize;
+    private String outputFormat;
+    private String avroSchemaFieldName;
+    private Boolean singleRecord;
+    private String fileIdFieldName;
+    private String lastChunkFieldName;
 
     public Builder setCopybook(String copybook) {
       this.copybook = copybook;
@@ -206,11 +346,81 @@ public class CobolRecordConverterConfig extends PluginConfig {
       return this;
     }
 
+    public Builder setFieldsToEmit(String fieldsToEmit) {
+      this.fieldsToEmit = fieldsToEmit;
+      return this;
+    }
+
+    public Builder setFilter(String filter) {
+      this.filter = filter;
+      return this;
+    }
+
+    public Builder setStringDecoding(String stringDecoding) {
+      this.stringDecoding = stringDecoding;
+      return this;
+    }
+
+    public Builder setBlankStringsAsNull(Boolean blankStringsAsNull) {
+      this.blankStringsAsNull = blankStringsAsNull;
+      return this;
+    }
+
+    public Builder setStringCacheSize(Integer stringCacheSize) {
+      this.stringCacheSize = stringCacheSize;
+      return this;
+    }
+
+    public Builder setTrustedInput(Boolean trustedInput) {
+      this.trustedInput = trustedInput;
+      return this;
+    }
+
+    public Builder setCopybookArtifactDirectory(String copybookArtifactDirectory) {
+      this.copybookArtifactDirectory = copybookArtifactDirectory;
+      return this;
+    }
+
     public Builder setContentFieldName(String contentFieldName) {
       this.contentFieldName = contentFieldName;
       return this;
     }
 
+    public Builder setParallelism(Integer parallelism) {
+      this.parallelism = parallelism;
+      return this;
+    }
+
+    public Builder setChunkSize(Integer chunkSize) {
+      this.chunkSize = chunkSize;
+      return this;
+    }
+
+    public Builder setOutputFormat(String outputFormat) {
+      this.outputFormat = outputFormat;
+      return this;
+    }
+
+    public Builder setAvroSchemaFieldName(String avroSchemaFieldName) {
+      this.avroSchemaFieldName = avroSchemaFieldName;
+      return this;
+    }
+
+    public Builder setSingleRecord(Boolean singleRecord) {
+      this.singleRecord = singleRecord;
+      return this;
+    }
+
+    public Builder setFileIdFieldName(String fileIdFieldName) {
+      this.fileIdFieldName = fileIdFieldName;
+      return this;
+    }
+
+    public Builder setLastChunkFieldName(String lastChunkFieldName) {
+      this.lastChunkFieldName = lastChunkFieldName;
+      return this;
+    }
+
     private Builder() {
     }
 
@@ -0,0 +1,519 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.cobol;
+
+import com.google.common.base.Strings;
+import com.legstar.base.context.CobolContext;
+import com.legstar.base.type.CobolOptionalType;
+import com.legstar.base.type.CobolType;
+import com.legstar.base.type.composite.CobolArrayType;
+import com.legstar.base.type.composite.CobolChoiceType;
+import com.legstar.base.type.composite.CobolComplexType;
+import com.legstar.base.visitor.CobolChoiceStrategyException;
+import io.cdap.cdap.api.data.format.StructuredRecord;
+import io.cdap.cdap.api.data.format.UnexpectedFormatException;
+import io.cdap.cdap.api.data.schema.Schema;
+import org.apache.avro.io.Encoder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.Nullable;
+
+/**
+ * Decodes EBCDIC encoded COBOL records directly into {@link StructuredRecord}.
+ * <p>
+ * The decoding plan is compiled once from the {@link CobolComplexType} generated for the copybook and the
+ * output {@link Schema}, so that decoding a record is a single walk over its bytes without any intermediate
+ * Avro representation. Fields of the copybook that are not part of the output schema are skipped by their byte
+ * length without being decoded, except for the ODO counters needed to find the position of the following fields.
+ * Records that don't match the optional {@link RecordFilter} are skipped the same way, without decoding any field.
+ * Instances of this class are not thread safe.
+ * </p>
+ */
+public final class CobolRecordDecoder {
+
+  // Same limit as used by legstar to size the record buffer
+  private static final int MAX_COBOL_RECORD_LEN = 0x7FFFFFF;
+
+  private final Schema schema;
+  private final RecordFieldDecoder rootDecoder;
+  @Nullable
+  private final RecordFilter filter;
+  private final DecodeState state;
+  private final int minRecordLength;
+  private final int maxRecordLength;
+  private int lastRecordLength;
+  // Copy of the record of a direct buffer, see decodeExactly(ByteBuffer)
+  private byte[] directBuffer;
+
+  public CobolRecordDecoder(CobolComplexType cobolType, CobolContext cobolContext, Schema schema) {
+    this(cobolType, cobolContext, schema, RecordDecoderOptions.defaults());
+  }
+
+  /**
+   * Creates a decoder with the given options.
+   *
+   * @param cobolType the COBOL type of the records
+   * @param cobolContext the {@link CobolContext} to interpret the bytes of the records
+   * @param schema the {@link Schema} of the records to produce
+   * @param options the {@link RecordDecoderOptions}
+   * @throws IllegalArgumentException if the filter expression of the options is invalid
+   */
+  public CobolRecordDecoder(CobolComplexType cobolType, CobolContext cobolContext, Schema schema,
+                            RecordDecoderOptions options) {
+    this.schema = schema;
+    this.rootDecoder = new RecordFieldDecoder(cobolType, new FieldDecoderFactory(cobolContext, options), schema);
+    this.filter = Strings.isNullOrEmpty(options.getFilter())
+      ? null : RecordFilter.parse(options.getFilter(), cobolType, cobolContext);
+    this.state = new DecodeState(cobolContext);
+    this.minRecordLength = (int) Math.min(cobolType.getMinBytesLen(), MAX_COBOL_RECORD_LEN);
+    this.maxRecordLength = (int) Math.min(cobolType.getMaxBytesLen(), MAX_COBOL_RECORD_LEN);
+  }
+
+  /**
+   * Returns the {@link Schema} of the records produced by this decoder.
+   */
+  public Schema getSchema() {
+    return schema;
+  }
+
+  /**
+   * Returns the minimum number of bytes a single record can occupy.
+   */
+  public int getMinRecordLength() {
+    return minRecordLength;
+  }
+
+  /**
+   * Returns the maximum number of bytes a single record can occupy.
+   */
+  public int getMaxRecordLength() {
+    return maxRecordLength;
+  }
+
+  /**
+   * Decodes one record.
+   *
+   * @param data the buffer containing the record
+   * @param offset offset of the first byte of the record in the buffer
+   * @param length maximum number of bytes the record can span
+   * @return the decoded {@link StructuredRecord} or {@code null} if the record doesn't match the filter
+   */
+  @Nullable
+  public StructuredRecord decode(byte[] data, int offset, int length) {
+    state.reset(data, offset, offset + length);
+    if (filter != null && !filter.matches(data, offset, offset + length)) {
+      rootDecoder.skip(state);
+      lastRecordLength = state.position - offset;
+      return null;
+    }
+    StructuredRecord record = rootDecoder.decode(state);
+    lastRecordLength = state.position - offset;
+    return record;
+  }
+
+  /**
+   * Decodes the remaining bytes of the given buffer as exactly one record, without Record Descriptor Word.
+   * The position of the buffer is not modified.
+   *
+   * @param buffer the buffer containing the record
+   * @return the decoded {@link StructuredRecord} or {@code null} if the record doesn't match the filter
+   * @throws IOException if the buffer is shorter than the minimum record length or has bytes left after the end of
+   *                     the record
+   */
+  @Nullable
+  public StructuredRecord decodeExactly(ByteBuffer buffer) throws IOException {
+    int length = buffer.remaining();
+    CobolRecordReader.checkMinLength(minRecordLength, length);
+    if (buffer.hasArray()) {
+      StructuredRecord record = decode(buffer.array(), buffer.arrayOffset() + buffer.position(), length);
+      CobolRecordReader.checkExactLength(lastRecordLength, length);
+      return record;
+    }
+    // Bytes beyond the maximum record length can't be part of the record
+    CobolRecordReader.checkExactLength(Math.min(length, maxRecordLength), length);
+    if (directBuffer == null) {
+      directBuffer = new byte[maxRecordLength];
+    }
+    buffer.duplicate().get(directBuffer, 0, length);
+    StructuredRecord record = decode(directBuffer, 0, length);
+    CobolRecordReader.checkExactLength(lastRecordLength, length);
+    return record;
+  }
+
+  /**
+   * Returns whether records can be written by {@link #encode(byte[], int, int, Encoder)}, which requires the fields
+   * of every record of the schema to be in the order of the copybook.
+   */
+  public boolean canEncode() {
+    return rootDecoder.canEncode();
+  }
+
+  /**
+   * Decodes one record and writes it in the Avro binary encoding of the schema of this decoder, without creating
+   * any {@link StructuredRecord} for it. Only valid if {@link #canEncode()} returns {@code true}.
+   *
+   * @param data the buffer containing the record
+   * @param offset offset of the first byte of the record in the buffer
+   * @param length maximum number of bytes the record can span
+   * @param encoder the {@link Encoder} to write to
+   * @return {@code true} if the record was written or {@code false} if it doesn't match the filter
+   * @throws IOException if failed to write
+   */
+  public boolean encode(byte[] data, int offset, int length, Encoder encoder) throws IOException {
+    state.reset(data, offset, offset + length);
+    if (filter != null && !filter.matches(data, offset, offset + length)) {
+      rootDecoder.skip(state);
+      lastRecordLength = state.position - offset;
+      return false;
+    }
+    rootDecoder.encode(state, schema, encoder);
+    lastRecordLength = state.position - offset;
+    return true;
+  }
+
+  /**
+   * Returns the number of bytes consumed by the last call to {@link #decode(byte[], int, int)} or
+   * {@link #encode(byte[], int, int, Encoder)}.
+   */
+  public int getLastRecordLength() {
+    return lastRecordLength;
+  }
+
+  /**
+   * {@link FieldDecoder} for COBOL group items, producing a {@link StructuredRecord}.
+   */
+  static final class RecordFieldDecoder extends FieldDecoder {
+
+    @Nullable
+    private final Schema schema;
+    // Name of each field, null for fields that are not part of the schema
+    private final String[] names;
+    // Index of each field of the schema, such that lookups don't depend on the width of the group
+    private final Map<String, Integer> indexes;
+    // Schema of each field, null for fields that are not part of the schema
+    private final Schema[] schemas;
+    private final String[] dependingOn;
+    private final FieldDecoder[] decoders;
+    private final int fixedLength;
+    // Whether the fields of the schema are in the order of the COBOL group, as required by the Avro encoding
+    private final boolean ordered;
+
+    RecordFieldDecoder(CobolComplexType cobolType, FieldDecoderFactory factory, @Nullable Schema schema) {
+      Map<String, CobolType> fields = cobolType.getFields();
+
+      this.schema = schema;
+      this.names = new String[fields.size()];
+      this.indexes = new HashMap<>();
+      this.schemas = new Schema[fields.size()];
+      this.dependingOn = new String[fields.size()];
+      this.decoders = new FieldDecoder[fields.size()];
+
+      int i = 0;
+      long length = 0;
+      for (Map.Entry<String, CobolType> entry : fields.entrySet()) {
+        String name = entry.getKey();
+        CobolType childType = entry.getValue();
+        Schema.Field field = schema == null ? null : schema.getField(name);
+
+        names[i] = field == null ? null : name;
+        if (field != null) {
+          indexes.put(name, i);
+        }
+        schemas[i] = field == null ? null : field.getSchema();
+        dependingOn[i] = childType instanceof CobolOptionalType
+          ? ((CobolOptionalType) childType).getDependingOn() : null;
+        decoders[i] = factory.create(name, childType, field == null ? null : field.getSchema());
+
+        int childLength = decoders[i].getFixedLength();
+        length = length < 0 || childLength < 0 || dependingOn[i] != null ? -1 : length + childLength;
+        i++;
+      }
+      this.fixedLength = length > Integer.MAX_VALUE ? -1 : (int) length;
+
+      boolean ordered = true;
+      if (schema != null) {
+        int last = -1;
+        for (Schema.Field field : schema.getFields()) {
+          if (!fields.containsKey(field.getName())) {
+            throw new IllegalArgumentException("Field '" + field.getName() + "' is not present in COBOL type "
+                                                 + cobolType.getName());
+          }
+          int index = indexOf(field.getName());
+          ordered &= index > last;
+          last = index;
+        }
+      }
+      this.ordered = ordered;
+    }
+
+    @Override
+    StructuredRecord decode(DecodeState state) {
+      StructuredRecord.Builder builder = StructuredRecord.builder(schema);
+      for (int i = 0; i < decoders.length; i++) {
+        if (dependingOn[i] != null && state.getOdoValue(dependingOn[i]) <= 0) {
+          continue;
+        }
+        if (names[i] == null) {
+          decoders[i].skip(state);
+          continue;
+        }
+        Object value = decoders[i].decode(state);
+        if (value != null) {
+          builder.set(names[i], value);
+        }
+      }
+      return builder.build();
+    }
+
+    @Override
+    void encode(DecodeState state, Schema schema, Encoder encoder) throws IOException {
+      if (schema.isNullable()) {
+        encoder.writeIndex(AvroValueWriter.getNonNullIndex(schema));
+        schema = schema.getNonNullable();
+      }
+      for (int i = 0; i < decoders.length; i++) {
+        if (dependingOn[i] != null && state.getOdoValue(dependingOn[i]) <= 0) {
+          if (names[i] != null) {
+            writeAbsent(names[i], schemas[i], encoder);
+          }
+          continue;
+        }
+        if (names[i] == null) {
+          decoders[i].skip(state);
+          continue;
+        }
+        decoders[i].encode(state, schemas[i], encoder);
+      }
+    }
+
+    @Override
+    boolean canEncode() {
+      // The Avro encoding writes the fields in the order of the schema, while they are decoded in copybook order
+      if (!ordered) {
+        return false;
+      }
+      for (int i = 0; i < decoders.length; i++) {
+        if (names[i] != null && !decoders[i].canEncode()) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private static void writeAbsent(String name, Schema schema, Encoder encoder) throws IOException {
+      if (!schema.isNullable()) {
+        throw new UnexpectedFormatException("Field " + name + " must contain a value.");
+      }
+      AvroValueWriter.write(schema, null, encoder);
+    }
+
+    /**
+     * Returns the index of the given schema field or {@code -1} if there is no such field.
+     */
+    int indexOf(String name) {
+      Integer index = indexes.get(name);
+      return index == null ? -1 : index;
+    }
+
+    @Override
+    void skip(DecodeState state) {
+      if (fixedLength >= 0) {
+        advance(state, fixedLength);
+        return;
+      }
+      for (int i = 0; i < decoders.length; i++) {
+        if (dependingOn[i] != null && state.getOdoValue(dependingOn[i]) <= 0) {
+          continue;
+        }
+        decoders[i].skip(state);
+      }
+    }
+
+    @Override
+    int getFixedLength() {
+      return fixedLength;
+    }
+  }
+
+  /**
+   * {@link FieldDecoder} for COBOL items with an OCCURS clause, producing a {@link List}.
+   */
+  static final class ArrayFieldDecoder extends FieldDecoder {
+
+    private final FieldDecoder itemDecoder;
+    private final int maxOccurs;
+    private final String dependingOn;
+    private final int fixedLength;
+
+    ArrayFieldDecoder(CobolArrayType arrayType, FieldDecoder itemDecoder) {
+      this.itemDecoder = itemDecoder;
+      this.maxOccurs = arrayType.getMaxOccurs();
+      this.dependingOn = arrayType.isVariableSize() ? arrayType.getDependingOn() : null;
+
+      long length = (long) itemDecoder.getFixedLength() * maxOccurs;
+      this.fixedLength = dependingOn != null || itemDecoder.getFixedLength() < 0 || length > Integer.MAX_VALUE
+        ? -1 : (int) length;
+    }
+
+    @Override
+    List<Object> decode(DecodeState state) {
+      int occurs = dependingOn == null ? maxOccurs : state.getOdoValue(dependingOn);
+      List<Object> items = new ArrayList<>(occurs);
+      for (int i = 0; i < occurs; i++) {
+        items.add(itemDecoder.decode(state));
+      }
+      return items;
+    }
+
+    @Override
+    void encode(DecodeState state, Schema schema, Encoder encoder) throws IOException {
+      if (schema.isNullable()) {
+        encoder.writeIndex(AvroValueWriter.getNonNullIndex(schema));
+        schema = schema.getNonNullable();
+      }
+      int occurs = dependingOn == null ? maxOccurs : state.getOdoValue(dependingOn);
+      encoder.writeArrayStart();
+      encoder.setItemCount(occurs);
+      for (int i = 0; i < occurs; i++) {
+        encoder.startItem();
+        itemDecoder.encode(state, schema.getComponentSchema(), encoder);
+      }
+      encoder.writeArrayEnd();
+    }
+
+    @Override
+    boolean canEncode() {
+      return itemDecoder.canEncode();
+    }
+
+    @Override
+    void skip(DecodeState state) {
+      int occurs = dependingOn == null ? maxOccurs : state.getOdoValue(dependingOn);
+      int itemLength = itemDecoder.getFixedLength();
+      if (itemLength >= 0) {
+        advance(state, (long) itemLength * occurs);
+        return;
+      }
+      for (int i = 0; i < occurs; i++) {
+        itemDecoder.skip(state);
+      }
+    }
+
+    @Override
+    int getFixedLength() {
+      return fixedLength;
+    }
+  }
+
+  /**
+   * {@link FieldDecoder} for COBOL items with REDEFINES, producing the value of the selected alternative.
+   */
+  static final class ChoiceFieldDecoder extends FieldDecoder {
+
+    private final String fieldName;
+    private final CobolChoiceType choiceType;
+    private final CobolType[] alternatives;
+    private final FieldDecoder[] decoders;
+    private final int[] paddings;
+    private final int fixedLength;
+
+    ChoiceFieldDecoder(String fieldName, CobolChoiceType choiceType, FieldDecoderFactory factory,
+                       @Nullable Schema unionSchema) {
+      Map<String, CobolType> alternativeTypes = choiceType.getAlternatives();
+      List<Schema> unionSchemas = unionSchema == null ? null : unionSchema.getUnionSchemas();
+
+      this.fieldName = fieldName;
+      this.choiceType = choiceType;
+      this.alternatives = new CobolType[alternativeTypes.size()];
+      this.decoders = new FieldDecoder[alternativeTypes.size()];
+      this.paddings = new int[alternativeTypes.size()];
+
+      int i = 0;
+      for (Map.Entry<String, CobolType> entry : alternativeTypes.entrySet()) {
+        alternatives[i] = entry.getValue();
+        decoders[i] = factory.create(entry.getKey(), entry.getValue(),
+                                     unionSchemas == null ? null : unionSchemas.get(i));
+        // A shorter alternative leaves the remaining bytes of the redefined area unread
+        paddings[i] = (int) (choiceType.getMaxBytesLen() - entry.getValue().getMaxBytesLen());
+        i++;
+      }
+
+      boolean fixed = true;
+      for (FieldDecoder decoder : decoders) {
+        fixed &= decoder.getFixedLength() >= 0;
+      }
+      this.fixedLength = fixed ? (int) Math.min(choiceType.getMaxBytesLen(), Integer.MAX_VALUE) : -1;
+    }
+
+    @Nullable
+    @Override
+    Object decode(DecodeState state) {
+      if (state.position >= state.limit) {
+        return null;
+      }
+      int i = chooseAlternative(state);
+      Object value = decoders[i].decode(state);
+      state.position += paddings[i];
+      return value;
+    }
+
+    @Override
+    void skip(DecodeState state) {
+      if (fixedLength >= 0) {
+        advance(state, fixedLength);
+        return;
+      }
+      if (state.position >= state.limit) {
+        return;
+      }
+      int i = chooseAlternative(state);
+      decoders[i].skip(state);
+      advance(state, paddings[i]);
+    }
+
+    @Override
+    int getFixedLength() {
+      return fixedLength;
+    }
+
+    @Override
+    boolean canEncode() {
+      for (FieldDecoder decoder : decoders) {
+        if (!decoder.canEncode()) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private int chooseAlternative(DecodeState state) {
+      CobolType alternative = state.getChoiceStrategy().choose(fieldName, choiceType, state.getVariables(),
+                                                               state.data, state.position, state.limit);
+      for (int i = 0; i < alternatives.length; i++) {
+        if (alternatives[i] == alternative) {
+          return i;
+        }
+      }
+      throw new CobolChoiceStrategyException("Unable to select an alternative for choice " + fieldName);
+    }
+  }
+}
@@ -0,0 +1,501 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.cobol;
+
+import com.google.common.base.Throwables;
+import com.google.common.io.ByteStreams;
+import io.cdap.cdap.api.data.format.StructuredRecord;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import javax.annotation.Nullable;
+
+/**
+ * Reads COBOL records from an {@link InputStream} or a {@link ByteBuffer} and decodes them with a
+ * {@link CobolRecordDecoder}. Records are either prefixed with a Record Descriptor Word or laid out back to back.
+ * <p>
+ * Records of a {@link ByteBuffer} backed by an array are decoded in place, without copying. Records of a direct
+ * {@link ByteBuffer} are copied one at a time into a buffer of the maximum record length.
+ * </p>
+ * <p>
+ * A reader can be reset to read from another buffer or array, reusing the buffers allocated for the previous one.
+ * This avoids allocating a reader per payload when decoding many small payloads with the same decoder.
+ * </p>
+ */
+public class CobolRecordReader implements Iterator<StructuredRecord>, Iterable<StructuredRecord>, Closeable {
+
+  static final int RDW_LEN = 4;
+  // The Record Descriptor Word length is a two bytes unsigned integer that includes the Record Descriptor Word itself
+  static final int MAX_RDW_RECORD_LENGTH = 0xFFFF - RDW_LEN;
+
+  private final CobolRecordDecoder decoder;
+  private final boolean hasRecordDescriptorWord;
+  private RecordSource source;
+  private ArrayRecordSource arraySource;
+  private DirectRecordSource directSource;
+  private StructuredRecord nextRecord;
+
+  /**
+   * Creates a new reader without data. Data is provided by calling {@link #reset(ByteBuffer)} or
+   * {@link #reset(byte[], int, int)} for each payload.
+   *
+   * @param decoder the {@link CobolRecordDecoder} for decoding each record
+   * @param hasRecordDescriptorWord {@code true} for data that has the record descriptor word prefix for each record;
+   *                                {@code false} otherwise
+   */
+  public CobolRecordReader(CobolRecordDecoder decoder, boolean hasRecordDescriptorWord) {
+    this.decoder = decoder;
+    this.hasRecordDescriptorWord = hasRecordDescriptorWord;
+    this.source = EmptyRecordSource.INSTANCE;
+  }
+
+  /**
+   * Creates a new reader.
+   *
+   * @param is the stream to read from
+   * @param length the number of bytes to read from the stream
+   * @param decoder the {@link CobolRecordDecoder} for decoding each record
+   * @param hasRecordDescriptorWord {@code true} for data that has the record descriptor word prefix for each record;
+   *                                {@code false} otherwise
+   */
+  public CobolRecordReader(InputStream is, long length, CobolRecordDecoder decoder, boolean hasRecordDescriptorWord) {
+    this(decoder, hasRecordDescriptorWord);
+    this.source = new StreamRecordSource(is, length, decoder, hasRecordDescriptorWord);
+  }
+
+  /**
+   * Creates a new reader that reads the remaining bytes of the given buffer. The position of the buffer is not
+   * modified.
+   *
+   * @param buffer the buffer to read from
+   * @param decoder the {@link CobolRecordDecoder} for decoding each record
+   * @param hasRecordDescriptorWord {@code true} for data that has the record descriptor word prefix for each record;
+   *                                {@code false} otherwise
+   */
+  public CobolRecordReader(ByteBuffer buffer, CobolRecordDecoder decoder, boolean hasRecordDescriptorWord) {
+    this(decoder, hasRecordDescriptorWord);
+    reset(buffer);
+  }
+
+  /**
+   * Creates a new reader that reads the given slice of an array. Records are decoded in place.
+   *
+   * @param data the array to read from
+   * @param offset the offset of the first byte to read
+   * @param length the number of bytes to read
+   * @param decoder the {@link CobolRecordDecoder} for decoding each record
+   * @param hasRecordDescriptorWord {@code true} for data that has the record descriptor word prefix for each record;
+   *                                {@code false} otherwise
+   */
+  public CobolRecordReader(byte[] data, int offset, int length,
+                           CobolRecordDecoder decoder, boolean hasRecordDescriptorWord) {
+    this(decoder, hasRecordDescriptorWord);
+    reset(data, offset, length);
+  }
+
+  /**
+   * Resets this reader to read the remaining bytes of the given buffer, discarding the records not read yet from
+   * the previous data. The position of the buffer is not modified.
+   *
+   * @param buffer the buffer to read from
+   * @return this reader
+   */
+  public CobolRecordReader reset(ByteBuffer buffer) {
+    if (buffer.hasArray()) {
+      return reset(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+    }
+    closeSource();
+    if (directSource == null) {
+      directSource = new DirectRecordSource(decoder, hasRecordDescriptorWord);
+    }
+    source = directSource.reset(buffer.duplicate());
+    return this;
+  }
+
+  /**
+   * Resets this reader to read the given slice of an array, discarding the records not read yet from the previous
+   * data. Records are decoded in place.
+   *
+   * @param data the array to read from
+   * @param offset the offset of the first byte to read
+   * @param length the number of bytes to read
+   * @return this reader
+   */
+  public CobolRecordReader reset(byte[] data, int offset, int length) {
+    closeSource();
+    if (arraySource == null) {
+      arraySource = new ArrayRecordSource(decoder, hasRecordDescriptorWord);
+    }
+    source = arraySource.reset(data, offset, offset + length);
+    return this;
+  }
+
+  @Override
+  public Iterator<StructuredRecord> iterator() {
+    return this;
+  }
+
+  @Override
+  public boolean hasNext() {
+    // Records that don't match the filter of the decoder are decoded as null and skipped
+    try {
+      while (nextRecord == null && source.hasNext()) {
+        nextRecord = source.next();
+      }
+    } catch (IOException e) {
+      throw Throwables.propagate(e);
+    }
+    return nextRecord != null;
+  }
+
+  @Override
+  public StructuredRecord next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    StructuredRecord record = nextRecord;
+    nextRecord = null;
+    return record;
+  }
+
+  @Override
+  public void remove() {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void close() throws IOException {
+    source.close();
+  }
+
+  private void closeSource() {
+    nextRecord = null;
+    try {
+      source.close();
+    } catch (IOException e) {
+      // Only stream sources can fail to close, they are not reused
+      throw Throwables.propagate(e);
+    }
+    source = EmptyRecordSource.INSTANCE;
+  }
+
+  /**
+   * Source of records for the reader.
+   */
+  private interface RecordSource extends Closeable {
+
+    boolean hasNext();
+
+    /**
+     * Returns the next record or {@code null} if the record doesn't match the filter of the decoder.
+     */
+    @Nullable
+    StructuredRecord next() throws IOException;
+  }
+
+  /**
+   * {@link RecordSource} without any record.
+   */
+  private static final class EmptyRecordSource implements RecordSource {
+
+    static final EmptyRecordSource INSTANCE = new EmptyRecordSource();
+
+    @Override
+    public boolean hasNext() {
+      return false;
+    }
+
+    @Override
+    public StructuredRecord next() {
+      throw new NoSuchElementException();
+    }
+
+    @Override
+    public void close() {
+      // no-op
+    }
+  }
+
+  /**
+   * {@link RecordSource} that reads records from an {@link InputStream}.
+   */
+  private static final class StreamRecordSource implements RecordSource {
+
+    private final InputStream is;
+    private final CobolRecordDecoder decoder;
+    private final boolean hasRecordDescriptorWord;
+    private final byte[] buffer;
+    private final byte[] rdw;
+    private long available;
+    private int buffered;
+
+    StreamRecordSource(InputStream is, long length, CobolRecordDecoder decoder, boolean hasRecordDescriptorWord) {
+      this.is = is;
+      this.decoder = decoder;
+      this.hasRecordDescriptorWord = hasRecordDescriptorWord;
+      this.buffer = new byte[decoder.getMaxRecordLength()];
+      this.rdw = new byte[RDW_LEN];
+      this.available = length;
+    }
+
+    @Override
+    public boolean hasNext() {
+      return available > 0;
+    }
+
+    @Override
+    public StructuredRecord next() throws IOException {
+      return hasRecordDescriptorWord ? nextRdwRecord() : nextRecord();
+    }
+
+    @Override
+    public void close() throws IOException {
+      is.close();
+    }
+
+    private StructuredRecord nextRdwRecord() throws IOException {
+      ByteStreams.readFully(is, rdw);
+      int recordLength = checkRecordLength(getRecordLength(rdw, 0), buffer.length);
+      ByteStreams.readFully(is, buffer, 0, recordLength);
+      available -= RDW_LEN + recordLength;
+      return decoder.decode(buffer, 0, recordLength);
+    }
+
+    private StructuredRecord nextRecord() throws IOException {
+      // Records are of variable length, hence keep the buffer filled and carry over what was not consumed
+      int toRead = (int) Math.min(buffer.length - buffered, available - buffered);
+      buffered += ByteStreams.read(is, buffer, buffered, toRead);
+
+      StructuredRecord record = decoder.decode(buffer, 0, buffered);
+      int consumed = checkConsumed(decoder.getLastRecordLength(), buffered);
+      buffered -= consumed;
+      available -= consumed;
+      System.arraycopy(buffer, consumed, buffer, 0, buffered);
+      return record;
+    }
+  }
+
+  /**
+   * {@link RecordSource} that decodes records in place from a slice of an array.
+   */
+  private static final class ArrayRecordSource implements RecordSource {
+
+    private final CobolRecordDecoder decoder;
+    private final boolean hasRecordDescriptorWord;
+    private byte[] data;
+    private int limit;
+    private int position;
+
+    ArrayRecordSource(CobolRecordDecoder decoder, boolean hasRecordDescriptorWord) {
+      this.decoder = decoder;
+      this.hasRecordDescriptorWord = hasRecordDescriptorWord;
+    }
+
+    ArrayRecordSource reset(byte[] data, int offset, int limit) {
+      this.data = data;
+      this.position = offset;
+      this.limit = limit;
+      return this;
+    }
+
+    @Override
+    public boolean hasNext() {
+      return position < limit;
+    }
+
+    @Override
+    public StructuredRecord next() throws IOException {
+      if (hasRecordDescriptorWord) {
+        checkAvailable(RDW_LEN, limit - position);
+        int recordLength = checkRecordLength(getRecordLength(data, position), decoder.getMaxRecordLength());
+        checkAvailable(RDW_LEN + recordLength, limit - position);
+        StructuredRecord record = decoder.decode(data, position + RDW_LEN, recordLength);
+        position += RDW_LEN + recordLength;
+        return record;
+      }
+
+      int remaining = Math.min(limit - position, decoder.getMaxRecordLength());
+      StructuredRecord record = decoder.decode(data, position, remaining);
+      position += checkConsumed(decoder.getLastRecordLength(), remaining);
+      return record;
+    }
+
+    @Override
+    public void close() {
+      // Don't keep the data referenced once read
+      data = null;
+      position = limit = 0;
+    }
+  }
+
+  /**
+   * {@link RecordSource} that reads records from a direct {@link ByteBuffer}, copying one record at a time.
+   */
+  private static final class DirectRecordSource implements RecordSource {
+
+    private final CobolRecordDecoder decoder;
+    private final boolean hasRecordDescriptorWord;
+    private final byte[] buffer;
+    private final byte[] rdw;
+    private ByteBuffer data;
+
+    DirectRecordSource(CobolRecordDecoder decoder, boolean hasRecordDescriptorWord) {
+      this.decoder = decoder;
+      this.hasRecordDescriptorWord = hasRecordDescriptorWord;
+      this.buffer = new byte[decoder.getMaxRecordLength()];
+      this.rdw = new byte[RDW_LEN];
+    }
+
+    DirectRecordSource reset(ByteBuffer data) {
+      this.data = data;
+      return this;
+    }
+
+    @Override
+    public boolean hasNext() {
+      return data != null && data.hasRemaining();
+    }
+
+    @Override
+    public StructuredRecord next() throws IOException {
+      if (hasRecordDescriptorWord) {
+        checkAvailable(RDW_LEN, data.remaining());
+        data.get(rdw);
+        int recordLength = checkRecordLength(getRecordLength(rdw, 0), buffer.length);
+        checkAvailable(recordLength, data.remaining());
+        data.get(buffer, 0, recordLength);
+        return decoder.decode(buffer, 0, recordLength);
+      }
+
+      int position = data.position();
+      int remaining = Math.min(data.remaining(), buffer.length);
+      data.get(buffer, 0, remaining);
+      StructuredRecord record = decoder.decode(buffer, 0, remaining);
+      data.position(position + checkConsumed(decoder.getLastRecordLength(), remaining));
+      return record;
+    }
+
+    @Override
+    public void close() {
+      data = null;
+    }
+  }
+
+  static int checkRecordLength(int recordLength, int maxRecordLength) throws IOException {
+    if (recordLength > maxRecordLength) {
+      throw new IOException("Record length " + recordLength + " from the Record Descriptor Word exceeds the maximum "
+                              + maxRecordLength + " defined by the copybook");
+    }
+    return recordLength;
+  }
+
+  static void checkAvailable(int required, int available) throws IOException {
+    if (required > available) {
+      throw new IOException("Truncated record: expected " + required + " bytes but only " + available
+                              + " bytes available");
+    }
+  }
+
+  static void checkMinLength(int minRecordLength, int length) throws IOException {
+    if (length < minRecordLength) {
+      throw new IOException("Input of " + length + " bytes doesn't match the copybook layout: records are at least "
+                              + minRecordLength + " bytes long");
+    }
+  }
+
+  static void checkExactLength(int recordLength, int length) throws IOException {
+    if (recordLength != length) {
+      throw new IOException("Input of " + length + " bytes doesn't match the copybook layout: the record ends after "
+                              + recordLength + " bytes, leaving " + (length - recordLength) + " trailing bytes");
+    }
+  }
+
+  static int checkConsumed(int consumed, int available) throws IOException {
+    if (consumed <= 0) {
+      throw new IOException("Failed to decode record from the remaining " + available + " bytes");
+    }
+    return consumed;
+  }
+
+  /**
+   * Returns the length of the record data following the Record Descriptor Word at the given offset.
+   */
+  static int getRecordLength(byte[] data, int offset) throws IOException {
+    int length = ((data[offset] & 0xFF) << 8) | (data[offset + 1] & 0xFF);
+    if (length < RDW_LEN) {
+      throw new IOException("Record does not start with a Record Descriptor Word");
+    }
+    return length - RDW_LEN;
+  }
+
+  /**
+   * Finds the offset of the first Record Descriptor Word in the given data, when the data starts at an arbitrary
+   * position in a file of records prefixed with a Record Descriptor Word. An offset is accepted if it starts a chain
+   * of valid Record Descriptor Words, each pointing to the next, of the given length or up to the end of the file.
+   *
+   * @param data the buffer containing the data
+   * @param offset offset in the buffer to start searching from
+   * @param limit offset in the buffer after the last byte of data
+   * @param endOfData {@code true} if the data ends at the end of the file
+   * @param maxRecordLength the maximum length of a record, excluding the Record Descriptor Word
+   * @param chainLength the number of consecutive Record Descriptor Words to validate
+   * @return the offset of the first Record Descriptor Word or {@code -1} if there is none
+   */
+  static int findRecordStart(byte[] data, int offset, int limit, boolean endOfData,
+                             int maxRecordLength, int chainLength) {
+    // A record can't span more than the maximum record length, hence there must be a record start within that range
+    int searchLimit = (int) Math.min(limit, (long) offset + maxRecordLength + RDW_LEN);
+    for (int i = offset; i < searchLimit; i++) {
+      if (isValidChain(data, i, limit, endOfData, maxRecordLength, chainLength)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private static boolean isValidChain(byte[] data, int offset, int limit, boolean endOfData,
+                                      int maxRecordLength, int chainLength) {
+    int position = offset;
+    for (int i = 0; i < chainLength; i++) {
+      if (position == limit) {
+        // Either the chain ends exactly at the end of the file, or there is no more data to validate with
+        return i > 0 || !endOfData;
+      }
+      if (position + RDW_LEN > limit) {
+        return !endOfData;
+      }
+      if (!isValidRecordDescriptorWord(data, position, maxRecordLength)) {
+        return false;
+      }
+      position += ((data[position] & 0xFF) << 8 | (data[position + 1] & 0xFF));
+      if (position > limit && endOfData) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean isValidRecordDescriptorWord(byte[] data, int offset, int maxRecordLength) {
+    int length = ((data[offset] & 0xFF) << 8) | (data[offset + 1] & 0xFF);
+    // The last two bytes of the Record Descriptor Word are reserved and always zero for unspanned records
+    return length > RDW_LEN && length - RDW_LEN <= maxRecordLength && data[offset + 2] == 0 && data[offset + 3] == 0;
+  }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.cdap.plugin.cobol;
+
+import io.cdap.cdap.api.annotation.Description;
+import io.cdap.cdap.api.annotation.Name;
+import io.cdap.cdap.api.annotation.Plugin;
+import io.cdap.cdap.api.data.batch.Input;
+import io.cdap.cdap.api.data.format.StructuredRecord;
+import io.cdap.cdap.api.data.schema.Schema;
+import io.cdap.cdap.api.dataset.lib.KeyValue;
+import io.cdap.cdap.etl.api.Emitter;
+import io.cdap.cdap.etl.api.FailureCollector;
+import io.cdap.cdap.etl.api.PipelineConfigurer;
+import io.cdap.cdap.etl.api.batch.BatchRuntimeContext;
+import io.cdap.cdap.etl.api.batch.BatchSource;
+import io.cdap.cdap.etl.api.batch.BatchSourceContext;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.LongWritable;
+
+/**
+ * {@link BatchSource} plugin that reads COBOL data files and decodes the records into StructuredRecords.
+ * Large files are split at record boundaries so that they are decoded in parallel.
+ */
+@Plugin(type = BatchSource.PLUGIN_TYPE)
+@Name("CobolSource")
+@Description("Reads COBOL data files and decodes the records into StructuredRecord with schema.")
+public class CobolSource extends BatchSource<LongWritable, BytesWritable, StructuredRecord> {
+
+  private final CobolSourceConfig config;
+  private CobolRecordDecoder decoder;
+
+  public CobolSource(CobolSourceConfig config) {
+    this.config = config;
+  }
+
+  @Override
+  public void configurePipeline(PipelineConfigurer pipelineConfigurer) {
+    super.configurePipeline(pipelineConfigurer);
+
+    FailureCollector failureCollector = pipelineConfigurer.getStageConfigurer().getFailureCollector();
+    Schema outputSchema = config.getOutputSchemaAndValidate(failureCollector);
+    failureCollector.getOrThrowException();
+
+    pipelineConfigurer.getStageConfigurer().setOutputSchema(outputSchema);
+  }
+
+  @Override
+  public void prepareRun(BatchSourceContext context) throws Exception {
+    FailureCollector failureCollector = context.getFailureCollector();
+    Schema schema = config.getOutputSchemaAndValidate(failureCollector);
+    failureCollector.getOrThrowException();
+
+    // Parse the copybook once for the run, tasks load it from the copybook artifact directory
+    config.storeCopybookArtifact();
+    CobolRecordDecoder decoder = config.createRecordDecoder(config.getCopybookReader(), schema);
+    int recordLength;
+    try {
+      recordLength = config.getRecordLength(decoder);
+    } catch (IllegalArgumentException e) {
+      failureCollector.addFailure(e.getMessage(), "Set 'rdw' to true if records are prefixed with a "
+        + "Record Descriptor Word.").withConfigProperty(CopybookConfig.PROPERTY_COPYBOOK);
+      throw failureCollector.getOrThrowException();
+    }
+
+    context.setInput(Input.of(config.getReferenceName(),
+                              CobolInputFormat.createProvider(config.getPath(), config.getMaxSplitSize(),
+                                                              recordLength, decoder.getMaxRecordLength())));
+  }
+
+  @Override
+  public void initialize(BatchRuntimeContext context) throws Exception {
+    super.initialize(context);
+    CopybookReader copybookReader = config.getCopybookReader();
+    Schema schema = config.getOutputSchemaAndValidate(copybookReader);
+    this.decoder = config.createRecordDecoder(copybookReader, schema);
+  }
+
+  @Override
+  public void transform(KeyValue<LongWritable, BytesWritable> input, Emitter<StructuredRecord> emitter) {
+    BytesWritable value = input.getValue();
+    StructuredRecord record = decoder.decode(value.getBytes(), 0, value.getLength());
+    // Records that don't match the filter are not decoded
+    if (record != null) {
+      emitter.emit(record);
+    }
+  }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.cdap.plugin.cobol;
+
+import io.cdap.cdap.api.annotation.Description;
+import io.cdap.cdap.api.annotation.Macro;
+import io.cdap.cdap.api.annotation.Name;
+import io.cdap.cdap.api.data.schema.Schema;
+import io.cdap.cdap.etl.api.FailureCollector;
+
+import javax.annotation.Nullable;
+
+/**
+ * Config for the {@link CobolSource}.
+ */
+public class CobolSourceConfig extends CopybookConfig {
+  public static final String PROPERTY_REFERENCE_NAME = "referenceName";
+  public static final String PROPERTY_PATH = "path";
+  public static final String PROPERTY_MAX_SPLIT_SIZE = "maxSplitSize";
+
+  @Name(PROPERTY_REFERENCE_NAME)
+  @Description("Name used to uniquely identify this source for lineage, annotating metadata, etc.")
+  private final String referenceName;
+
+  @Name(PROPERTY_PATH)
+  @Description("Path to the file or directory of COBOL data files to read.")
+  @Macro
+  private final String path;
+
+  @Name(PROPERTY_MAX_SPLIT_SIZE)
+  @Description("Maximum size in bytes of each input split. Splits are always aligned to record boundaries. "
+    + "Defaults to the file system block size.")
+  @Nullable
+  @Macro
+  private final Long maxSplitSize;
+
+  public CobolSourceConfig(String referenceName, String path, String copybook, @Nullable String codeFormat,
+                           @Nullable String charset, @Nullable Boolean rdw, @Nullable String fieldsToEmit,
+                           @Nullable String filter, @Nullable Long maxSplitSize) {
+    super(copybook, codeFormat, charset, rdw, fieldsToEmit, filter);
+    this.referenceName = referenceName;
+    this.path = path;
+    this.maxSplitSize = maxSplitSize;
+  }
+
+  public String getReferenceName() {
+    return referenceName;
+  }
+
+  public String getPath() {
+    return path;
+  }
+
+  @Nullable
+  public Long getMaxSplitSize() {
+    return maxSplitSize;
+  }
+
+  /**
+   * Validates the config and returns the schema of the decoded records.
+   *
+   * @param failureCollector the {@link FailureCollector} to collect validation failures
+   * @return the output {@link Schema} or {@code null} if the copybook is a macro
+   */
+  @Nullable
+  public Schema getOutputSchemaAndValidate(FailureCollector failureCollector) {
+    if (!containsMacro(PROPERTY_MAX_SPLIT_SIZE) && maxSplitSize != null && maxSplitSize <= 0) {
+      failureCollector.addFailure(String.format("Maximum split size must be positive but is %d.", maxSplitSize),
+                                  null).withConfigProperty(PROPERTY_MAX_SPLIT_SIZE);
+    }
+    if (containsMacro(PROPERTY_COPYBOOK)) {
+      return null;
+    }
+    return super.getOutputSchemaAndValidate(failureCollector);
+  }
+
+  /**
+   * Returns the length of each record for fixed length records, or {@code 0} for records prefixed with a
+   * Record Descriptor Word.
+   *
+   * @param decoder the {@link CobolRecordDecoder} for the copybook
+   * @throws IllegalArgumentException if the records are not prefixed with a Record Descriptor Word and the copybook
+   *                                  describes variable length records
+   */
+  public int getRecordLength(CobolRecordDecoder decoder) {
+    if (hasRDW()) {
+      return 0;
+    }
+    if (decoder.getMinRecordLength() != decoder.getMaxRecordLength()) {
+      throw new IllegalArgumentException(
+        String.format("The copybook describes variable length records of %d to %d bytes, which requires "
+                        + "records to be prefixed with a Record Descriptor Word.",
+                      decoder.getMinRecordLength(), decoder.getMaxRecordLength()));
+    }
+    return decoder.getMaxRecordLength();
+  }
+}
@@ -0,0 +1,257 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.cdap.plugin.cobol;
+
+import com.legstar.base.generator.Xsd2CobolTypesModelBuilder;
+import com.legstar.base.type.CobolType;
+import com.legstar.base.type.composite.CobolArrayType;
+import com.legstar.base.type.composite.CobolChoiceType;
+import com.legstar.base.type.composite.CobolComplexType;
+import com.legstar.base.type.primitive.CobolBinaryType;
+import com.legstar.base.type.primitive.CobolDecimalType;
+import com.legstar.base.type.primitive.CobolDoubleType;
+import com.legstar.base.type.primitive.CobolFloatType;
+import com.legstar.base.type.primitive.CobolPackedDecimalType;
+import com.legstar.base.type.primitive.CobolPrimitiveType;
+import com.legstar.base.type.primitive.CobolStringType;
+import com.legstar.base.type.primitive.CobolZonedDecimalType;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.annotation.Nullable;
+
+/**
+ * Builds the {@link CobolType} tree of a copybook directly from the model produced by
+ * {@link Xsd2CobolTypesModelBuilder}, instead of generating and compiling the Java source of a {@link CobolComplexType}
+ * subclass. Fields are built the same way as by the legstar code generation templates.
+ */
+final class CobolTypeBuilder {
+
+  private final Xsd2CobolTypesModelBuilder.RootCompositeType root;
+  // The fields of each complex and choice type, which are shared by all the fields of the same type
+  private final Map<String, Map<String, CobolType>> typeFields;
+
+  /**
+   * Builds the {@link CobolComplexType} of a root type of the model.
+   *
+   * @param name the name of the root type
+   * @param root the {@link Xsd2CobolTypesModelBuilder.RootCompositeType} of the root type
+   * @return the {@link CobolComplexType} of the root type
+   * @throws IllegalArgumentException if the model contains an unsupported type
+   */
+  static CobolComplexType build(String name, Xsd2CobolTypesModelBuilder.RootCompositeType root) {
+    return new CobolComplexType.Builder()
+      .name(name)
+      .cobolName(root.cobolName)
+      .fields(new CobolTypeBuilder(root).getFields(name, root.complexTypes))
+      .build();
+  }
+
+  private CobolTypeBuilder(Xsd2CobolTypesModelBuilder.RootCompositeType root) {
+    this.root = root;
+    this.typeFields = new HashMap<>();
+  }
+
+  private Map<String, CobolType> getFields(String typeName, Map<String, Object> types) {
+    // Complex and choice types are in different namespaces
+    String key = (types == root.choiceTypes ? "choice:" : "complex:") + typeName;
+    Map<String, CobolType> fields = typeFields.get(key);
+    if (fields != null) {
+      return fields;
+    }
+    Map<String, Object> fieldProps = getMap(types, typeName);
+    fields = new LinkedHashMap<>();
+    for (String fieldName : fieldProps.keySet()) {
+      fields.put(fieldName, createField(getMap(fieldProps, fieldName)));
+    }
+    typeFields.put(key, fields);
+    return fields;
+  }
+
+  private CobolType createField(Map<String, Object> props) {
+    CobolType type;
+    if (isSet(props.get("complexType"))) {
+      String complexTypeName = getString(props, "complexTypeName");
+      CobolComplexType.Builder builder = new CobolComplexType.Builder()
+        .name(complexTypeName)
+        .cobolName(getString(props, "cobolName"))
+        .fields(getFields(complexTypeName, root.complexTypes));
+      String dependingOn = getOptionalDependingOn(props);
+      if (dependingOn != null) {
+        builder.dependingOn(dependingOn);
+      }
+      type = builder.build();
+    } else if (isSet(props.get("choiceType"))) {
+      String choiceTypeName = getString(props, "choiceTypeName");
+      type = new CobolChoiceType.Builder()
+        .name(choiceTypeName)
+        .alternatives(getFields(choiceTypeName, root.choiceTypes))
+        .build();
+    } else {
+      type = createPrimitive(props);
+    }
+
+    if (!isSet(props.get("maxOccurs"))) {
+      return type;
+    }
+    CobolArrayType.Builder builder = new CobolArrayType.Builder()
+      .itemType(type)
+      .minOccurs(getInt(props, "minOccurs"))
+      .maxOccurs(getInt(props, "maxOccurs"));
+    if (isSet(props.get("dependingOn"))) {
+      builder.dependingOn(getString(props, "dependingOn"));
+    }
+    return builder.build();
+  }
+
+  private static CobolType createPrimitive(Map<String, Object> props) {
+    String cobolTypeName = getString(props, "cobolTypeName");
+    Class<?> javaClass = getJavaClass(getString(props, "javaTypeName"));
+    switch (cobolTypeName) {
+      case "CobolStringType":
+        return createString(javaClass, props);
+      case "CobolFloatType":
+        return primitive(new CobolFloatType.Builder<>(javaClass.asSubclass(Number.class)), props).build();
+      case "CobolDoubleType":
+        return primitive(new CobolDoubleType.Builder<>(javaClass.asSubclass(Number.class)), props).build();
+      default:
+        return createDecimal(cobolTypeName, javaClass.asSubclass(Number.class), props);
+    }
+  }
+
+  private static <T> CobolType createString(Class<T> javaClass, Map<String, Object> props) {
+    CobolStringType.Builder<T> builder = primitive(new CobolStringType.Builder<>(javaClass), props);
+    if (isSet(props.get("charNum"))) {
+      builder.charNum(getInt(props, "charNum"));
+    }
+    return builder.build();
+  }
+
+  private static <T extends Number> CobolType createDecimal(String cobolTypeName, Class<T> javaClass,
+                                                            Map<String, Object> props) {
+    switch (cobolTypeName) {
+      case "CobolZonedDecimalType":
+        CobolZonedDecimalType.Builder<T> zonedBuilder = decimal(new CobolZonedDecimalType.Builder<>(javaClass),
+                                                                javaClass, props);
+        if (isSet(props.get("signLeading"))) {
+          zonedBuilder.signLeading(true);
+        }
+        if (isSet(props.get("signSeparate"))) {
+          zonedBuilder.signSeparate(true);
+        }
+        return zonedBuilder.build();
+      case "CobolPackedDecimalType":
+        return decimal(new CobolPackedDecimalType.Builder<>(javaClass), javaClass, props).build();
+      case "CobolBinaryType":
+        return decimal(new CobolBinaryType.Builder<>(javaClass), javaClass, props).build();
+      default:
+        throw new IllegalArgumentException("Unsupported COBOL type " + cobolTypeName + " for field "
+                                             + props.get("cobolName"));
+    }
+  }
+
+  private static <T, B extends CobolPrimitiveType.Builder<T, B>> B primitive(B builder, Map<String, Object> props) {
+    builder.cobolName(getString(props, "cobolName"));
+    if (isSet(props.get("odoObject"))) {
+      builder.odoObject(true);
+    }
+    String dependingOn = getOptionalDependingOn(props);
+    if (dependingOn != null) {
+      builder.dependingOn(dependingOn);
+    }
+    return builder;
+  }
+
+  private static <T extends Number, B extends CobolDecimalType.Builder<T, B>> B decimal(B builder, Class<T> javaClass,
+                                                                                       Map<String, Object> props) {
+    primitive(builder, props);
+    if (isSet(props.get("signed"))) {
+      builder.signed(true);
+    }
+    if (isSet(props.get("totalDigits"))) {
+      builder.totalDigits(getInt(props, "totalDigits"));
+    }
+    if (isSet(props.get("fractionDigits"))) {
+      builder.fractionDigits(getInt(props, "fractionDigits"));
+    }
+    if (isSet(props.get("minInclusive"))) {
+      builder.minInclusive(CobolDecimalType.valueOf(javaClass, getString(props, "minInclusive")));
+    }
+    if (isSet(props.get("maxInclusive"))) {
+      builder.maxInclusive(CobolDecimalType.valueOf(javaClass, getString(props, "maxInclusive")));
+    }
+    return builder;
+  }
+
+  /**
+   * Returns the field a type depends on if it is optional, that is if it only has zero or one occurrence.
+   */
+  @Nullable
+  private static String getOptionalDependingOn(Map<String, Object> props) {
+    if (isSet(props.get("isOptional")) && isSet(props.get("dependingOn"))) {
+      return getString(props, "dependingOn");
+    }
+    return null;
+  }
+
+  /**
+   * Returns the class of a java type name of the model, where classes of the {@code java.lang} package are given
+   * without package.
+   */
+  private static Class<?> getJavaClass(String javaTypeName) {
+    String className = javaTypeName.indexOf('.') < 0 ? "java.lang." + javaTypeName : javaTypeName;
+    try {
+      return Class.forName(className);
+    } catch (ClassNotFoundException e) {
+      throw new IllegalArgumentException("Unsupported java type " + javaTypeName, e);
+    }
+  }
+
+  /**
+   * Returns whether a property is set, with the same semantic as the conditions of the code generation templates,
+   * for which {@code false}, zero and empty values are not set.
+   */
+  private static boolean isSet(@Nullable Object value) {
+    if (value == null) {
+      return false;
+    }
+    if (value instanceof Boolean) {
+      return (Boolean) value;
+    }
+    if (value instanceof Number) {
+      return ((Number) value).doubleValue() != 0;
+    }
+    return !(value instanceof CharSequence) || ((CharSequence) value).length() > 0;
+  }
+
+  private static String getString(Map<String, Object> props, String name) {
+    return String.valueOf(props.get(name));
+  }
+
+  private static int getInt(Map<String, Object> props, String name) {
+    return ((Number) props.get(name)).intValue();
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Map<String, Object> getMap(Map<String, Object> props, String name) {
+    Object value = props.get(name);
+    if (!(value instanceof Map)) {
+      throw new IllegalArgumentException("Missing definition of " + name + " in the COBOL types model");
+    }
+    return (Map<String, Object>) value;
+  }
+}
@@ -0,0 +1,258 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.cdap.plugin.cobol;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Closeables;
+import com.legstar.avro.translator.Xsd2AvroTranslator;
+import com.legstar.base.generator.Xsd2CobolTypesModelBuilder;
+import com.legstar.cob2xsd.Cob2XsdConfig;
+import io.cdap.plugin.common.StreamCharSource;
+import org.apache.avro.Schema;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.codehaus.jackson.map.DeserializationConfig;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.type.TypeReference;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.UUID;
+import javax.annotation.Nullable;
+
+/**
+ * Stores the result of parsing copybooks in a directory, so that a copybook is parsed once and then loaded with a
+ * single read by every process that uses it, such as the executors of a pipeline. The directory is on any Hadoop
+ * {@link FileSystem}, such that it can be shared by all the tasks of a pipeline.
+ * <p>
+ * An artifact is a JSON document holding the Avro schema and the model of the
+ * {@link com.legstar.base.type.CobolType} tree of a copybook, which only contains nested maps of strings, numbers
+ * and booleans.
+ * Artifacts are keyed by a hash of the copybook content, of the parsing configuration and of the version of the
+ * libraries producing them, so that artifacts of other library versions are never loaded.
+ * </p>
+ */
+public final class CopybookArtifactStore {
+
+  private static final Logger LOG = LoggerFactory.getLogger(CopybookArtifactStore.class);
+
+  // Version of the artifact format, to be incremented on any change to the content of the artifacts
+  private static final int FORMAT_VERSION = 2;
+  private static final String LIBRARY_VERSION = FORMAT_VERSION + "/"
+    + getVersion(Xsd2CobolTypesModelBuilder.class, "legstar-base-generator") + "/"
+    + getVersion(Xsd2AvroTranslator.class, "legstar.avro.translator");
+  private static final String ARTIFACT_SUFFIX = ".copybook";
+  // Decimal numbers of the model are read as BigDecimal to keep their exact value
+  private static final ObjectMapper MAPPER = new ObjectMapper()
+    .configure(DeserializationConfig.Feature.USE_BIG_DECIMAL_FOR_FLOATS, true);
+  private static final TypeReference<Map<String, Object>> MAP_TYPE = new TypeReference<Map<String, Object>>() { };
+
+  private final Path directory;
+  private final Configuration conf;
+
+  /**
+   * Creates a store.
+   *
+   * @param directory the {@link Path} of the directory containing the artifacts, created if it doesn't exist
+   * @param conf the {@link Configuration} of the {@link FileSystem} of the directory
+   */
+  public CopybookArtifactStore(Path directory, Configuration conf) {
+    this.directory = directory;
+    this.conf = conf;
+  }
+
+  /**
+   * Returns the {@link CopybookReader} for the given copybook, loading it from its artifact if there is one, or
+   * parsing the copybook and storing its artifact otherwise.
+   *
+   * @param copybook the copybook source code
+   * @param cobolConfig the {@link Cob2XsdConfig} properties used to parse the copybook
+   * @return the {@link CopybookReader}
+   * @throws IOException if failed to parse the copybook
+   */
+  public CopybookReader get(String copybook, Properties cobolConfig) throws IOException {
+    Path path = getPath(copybook, cobolConfig);
+    CopybookReader reader = read(path);
+    if (reader != null) {
+      return reader;
+    }
+
+    reader = new CopybookReader(new StreamCharSource(new ByteArrayInputStream(copybook.getBytes(Charsets.UTF_8))),
+                                cobolConfig);
+    tryWrite(reader, path);
+    return reader;
+  }
+
+  /**
+   * Stores the artifact of a {@link CopybookReader} parsed from the given copybook, unless there is one already.
+   *
+   * @param copybook the copybook source code
+   * @param cobolConfig the {@link Cob2XsdConfig} properties used to parse the copybook
+   * @param reader the {@link CopybookReader} parsed from the copybook
+   */
+  public void put(String copybook, Properties cobolConfig, CopybookReader reader) throws IOException {
+    Path path = getPath(copybook, cobolConfig);
+    if (!exists(path)) {
+      tryWrite(reader, path);
+    }
+  }
+
+  /**
+   * Returns the {@link Path} of the artifact of a copybook.
+   */
+  Path getPath(String copybook, Properties cobolConfig) throws IOException {
+    String key = Hashing.sha256().newHasher()
+      .putString(CopybookReaderCache.getKey(copybook, cobolConfig), Charsets.UTF_8)
+      .putString(LIBRARY_VERSION, Charsets.UTF_8)
+      .hash().toString();
+    return new Path(directory, key + ARTIFACT_SUFFIX);
+  }
+
+  private boolean exists(Path path) {
+    try {
+      return path.getFileSystem(conf).exists(path);
+    } catch (IOException e) {
+      LOG.warn("Failed to check copybook artifact at {}", path, e);
+      // Don't attempt to write to a file system that can't be read
+      return true;
+    }
+  }
+
+  /**
+   * Reads the {@link CopybookReader} from an artifact. An invalid artifact is deleted, such that it gets replaced.
+   *
+   * @return the {@link CopybookReader} or {@code null} if there is no valid artifact at the given path
+   */
+  @Nullable
+  private CopybookReader read(Path path) {
+    byte[] content;
+    try {
+      FileSystem fs = path.getFileSystem(conf);
+      if (!fs.exists(path)) {
+        return null;
+      }
+      try (InputStream is = fs.open(path)) {
+        content = ByteStreams.toByteArray(is);
+      }
+    } catch (IOException e) {
+      // The artifact is only an optimization, the copybook is parsed instead
+      LOG.warn("Failed to read copybook artifact at {}", path, e);
+      return null;
+    }
+
+    try {
+      Map<String, Object> artifact = MAPPER.readValue(content, 0, content.length, MAP_TYPE);
+      if (!LIBRARY_VERSION.equals(artifact.get("libraryVersion"))) {
+        LOG.debug("Ignoring copybook artifact {} of a different version", path);
+        return null;
+      }
+      Schema avroSchema = new Schema.Parser().parse((String) artifact.get("avroSchema"));
+      Xsd2CobolTypesModelBuilder.RootCompositeType model
+        = new Xsd2CobolTypesModelBuilder.RootCompositeType((String) artifact.get("cobolName"));
+      model.complexTypes.putAll(getMap(artifact, "complexTypes"));
+      model.choiceTypes.putAll(getMap(artifact, "choiceTypes"));
+      return new CopybookReader(avroSchema, model);
+    } catch (IOException | RuntimeException e) {
+      // A corrupted artifact is replaced
+      LOG.warn("Ignoring invalid copybook artifact {}", path, e);
+      delete(path);
+      return null;
+    }
+  }
+
+  /**
+   * Writes the artifact of a {@link CopybookReader}, only logging failures since the reader can still be used.
+   */
+  private void tryWrite(CopybookReader reader, Path path) {
+    try {
+      write(reader, path);
+    } catch (IOException e) {
+      LOG.warn("Failed to store copybook artifact at {}", path, e);
+    }
+  }
+
+  /**
+   * Writes the artifact of a {@link CopybookReader}. The artifact is written to a temporary file first, such that
+   * concurrent readers never see a partial artifact.
+   */
+  private void write(CopybookReader reader, Path path) throws IOException {
+    Xsd2CobolTypesModelBuilder.RootCompositeType model = reader.getCobolTypeModel();
+    FileSystem fs = directory.getFileSystem(conf);
+    fs.mkdirs(directory);
+    Path tmpPath = new Path(directory, path.getName() + "." + UUID.randomUUID() + ".tmp");
+    Map<String, Object> artifact = new LinkedHashMap<>();
+    artifact.put("libraryVersion", LIBRARY_VERSION);
+    artifact.put("avroSchema", reader.getSchema().toString());
+    artifact.put("cobolName", model.cobolName);
+    artifact.put("complexTypes", model.complexTypes);
+    artifact.put("choiceTypes", model.choiceTypes);
+    OutputStream os = fs.create(tmpPath, false);
+    try {
+      // Closes the stream once written
+      MAPPER.writeValue(os, artifact);
+      // Another process may have stored the same artifact in the meantime, in which case it is kept
+      if (!fs.rename(tmpPath, path)) {
+        delete(tmpPath);
+      }
+    } catch (IOException e) {
+      Closeables.close(os, true);
+      delete(tmpPath);
+      throw e;
+    }
+  }
+
+  private void delete(Path path) {
+    try {
+      path.getFileSystem(conf).delete(path, false);
+    } catch (IOException e) {
+      LOG.debug("Failed to delete {}", path, e);
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Map<String, Object> getMap(Map<String, Object> artifact, String name) throws IOException {
+    Object value = artifact.get(name);
+    if (!(value instanceof Map)) {
+      throw new IOException("Missing " + name + " in copybook artifact");
+    }
+    return (Map<String, Object>) value;
+  }
+
+  private static String getVersion(Class<?> cls, String artifactId) {
+    String resource = "META-INF/maven/com.legsem.legstar/" + artifactId + "/pom.properties";
+    ClassLoader classLoader = cls.getClassLoader();
+    try (InputStream is = classLoader == null ? null : classLoader.getResourceAsStream(resource)) {
+      if (is != null) {
+        Properties properties = new Properties();
+        properties.load(is);
+        return properties.getProperty("version", "unknown");
+      }
+    } catch (IOException e) {
+      LOG.debug("Failed to read the version of {}", artifactId, e);
+    }
+    return "unknown";
+  }
+}
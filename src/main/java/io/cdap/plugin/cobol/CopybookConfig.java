@@ -0,0 +1,469 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.cobol;
+
+import com.google.common.base.Splitter;
+import com.google.common.base.Strings;
+import com.legstar.cob2xsd.Cob2XsdConfig;
+import io.cdap.cdap.api.annotation.Description;
+import io.cdap.cdap.api.annotation.Macro;
+import io.cdap.cdap.api.annotation.Name;
+import io.cdap.cdap.api.data.schema.Schema;
+import io.cdap.cdap.api.plugin.PluginConfig;
+import io.cdap.cdap.etl.api.FailureCollector;
+import io.cdap.plugin.common.AvroConverter;
+import io.cdap.plugin.common.StreamCharSource;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import javax.annotation.Nullable;
+
+/**
+ * Base {@link PluginConfig} for plugins that decode COBOL records described by a copybook.
+ */
+public class CopybookConfig extends PluginConfig {
+  public static final String PROPERTY_COPYBOOK = "copybook";
+  public static final String PROPERTY_CHARSET = "charset";
+  public static final String PROPERTY_FIELDS_TO_EMIT = "fieldsToEmit";
+  public static final String PROPERTY_FILTER = "filter";
+  public static final String PROPERTY_STRING_DECODING = "stringDecoding";
+  public static final String PROPERTY_STRING_CACHE_SIZE = "stringCacheSize";
+  public static final String PROPERTY_TRUSTED_INPUT = "trustedInput";
+  public static final String PROPERTY_COPYBOOK_ARTIFACT_DIRECTORY = "copybookArtifactDirectory";
+
+  @Name(PROPERTY_COPYBOOK)
+  @Description("COBOL Copybook")
+  @Macro
+  private final String copybook;
+
+  @Description("CodeFormat in the Copybook")
+  @Nullable
+  private final String codeFormat;
+
+  @Name(PROPERTY_CHARSET)
+  @Description("Charset used to read the data. Default Charset is 'IBM01140'.")
+  @Nullable
+  private final String charset;
+
+  @Description("Records start with Record Descriptor Word")
+  @Nullable
+  private final Boolean rdw;
+
+  @Name(PROPERTY_FIELDS_TO_EMIT)
+  @Description("Comma separated list of the fields to emit. Fields of nested records are selected with their path, "
+    + "such as 'personalData.customerName'. Other fields are skipped without being decoded. "
+    + "All fields are emitted if empty.")
+  @Nullable
+  @Macro
+  private final String fieldsToEmit;
+
+  @Name(PROPERTY_FILTER)
+  @Description("Filter expression evaluated on the raw bytes of each record, such as \"RECORD-TYPE = 'D' AND "
+    + "REGION-CODE IN (10, 20)\". Records that don't match are skipped without being decoded. Only fields at a "
+    + "fixed offset in the record can be filtered on. All records are emitted if empty.")
+  @Nullable
+  @Macro
+  private final String filter;
+
+  @Name(PROPERTY_STRING_DECODING)
+  @Description("How alphanumeric fields are decoded. 'TABLE' maps each byte through a lookup table of the charset, "
+    + "which is faster but only applies to single byte charsets. 'CHARSET' uses the charset decoder. "
+    + "Default is 'TABLE'.")
+  @Nullable
+  private final String stringDecoding;
+
+  @Description("Emit alphanumeric fields that only contain spaces or LOW-VALUES as null instead of an empty string. "
+    + "Alphanumeric fields are nullable in the output schema when enabled. Default is false.")
+  @Nullable
+  private final Boolean blankStringsAsNull;
+
+  @Name(PROPERTY_STRING_CACHE_SIZE)
+  @Description("Maximum number of distinct values cached per alphanumeric field, such that repeated values share "
+    + "the same string. Caching stops for fields with more distinct values. Only applies to the 'TABLE' string "
+    + "decoding. 0 disables caching. At most 4096. Default is 256.")
+  @Nullable
+  private final Integer stringCacheSize;
+
+  @Name(PROPERTY_TRUSTED_INPUT)
+  @Description("Whether the data is trusted to be valid, such as feeds already checksummed at the source. Numeric "
+    + "fields are then decoded without validating their digits, sign and range, and invalid data produces "
+    + "unspecified values instead of failing. Default is false.")
+  @Nullable
+  private final Boolean trustedInput;
+
+  @Name(PROPERTY_COPYBOOK_ARTIFACT_DIRECTORY)
+  @Description("Directory on the file system of the pipeline, such as an HDFS path, where the parsed copybook is "
+    + "stored when the pipeline starts. Tasks then load the parsed copybook with a single read instead of parsing "
+    + "the copybook. The copybook is parsed by every task if empty.")
+  @Nullable
+  @Macro
+  private final String copybookArtifactDirectory;
+
+  public CopybookConfig(String copybook, @Nullable String codeFormat, @Nullable String charset, @Nullable Boolean rdw,
+                        @Nullable String fieldsToEmit, @Nullable String filter) {
+    this(copybook, codeFormat, charset, rdw, fieldsToEmit, filter, null, null, null, null);
+  }
+
+  public CopybookConfig(String copybook, @Nullable String codeFormat, @Nullable String charset, @Nullable Boolean rdw,
+                        @Nullable String fieldsToEmit, @Nullable String filter, @Nullable String stringDecoding,
+                        @Nullable Boolean blankStringsAsNull, @Nullable Integer stringCacheSize,
+                        @Nullable Boolean trustedInput) {
+    this(copybook, codeFormat, charset, rdw, fieldsToEmit, filter, stringDecoding, blankStringsAsNull,
+         stringCacheSize, trustedInput, null);
+  }
+
+  public CopybookConfig(String copybook, @Nullable String codeFormat, @Nullable String charset, @Nullable Boolean rdw,
+                        @Nullable String fieldsToEmit, @Nullable String filter, @Nullable String stringDecoding,
+                        @Nullable Boolean blankStringsAsNull, @Nullable Integer stringCacheSize,
+                        @Nullable Boolean trustedInput, @Nullable String copybookArtifactDirectory) {
+    this.copybook = copybook;
+    this.codeFormat = codeFormat;
+    this.charset = charset;
+    this.rdw = rdw;
+    this.fieldsToEmit = fieldsToEmit;
+    this.filter = filter;
+    this.stringDecoding = stringDecoding;
+    this.blankStringsAsNull = blankStringsAsNull;
+    this.stringCacheSize = stringCacheSize;
+    this.trustedInput = trustedInput;
+    this.copybookArtifactDirectory = copybookArtifactDirectory;
+  }
+
+  public String getCopybook() {
+    return copybook;
+  }
+
+  public String getCodeFormat() {
+    return codeFormat == null ? Cob2XsdConfig.CodeFormat.FIXED_FORMAT.name() : codeFormat;
+  }
+
+  public String getCharset() {
+    return charset == null ? "IBM01140" : charset;
+  }
+
+  public boolean hasRDW() {
+    return rdw == null ? true : rdw;
+  }
+
+  @Nullable
+  public String getFieldsToEmit() {
+    return fieldsToEmit;
+  }
+
+  @Nullable
+  public String getFilter() {
+    return filter;
+  }
+
+  /**
+   * Returns the {@link RecordDecoderOptions.StringDecoding} to decode alphanumeric fields with.
+   *
+   * @throws IllegalArgumentException if the string decoding is not supported
+   */
+  public RecordDecoderOptions.StringDecoding getStringDecoding() {
+    return Strings.isNullOrEmpty(stringDecoding)
+      ? RecordDecoderOptions.StringDecoding.TABLE
+      : RecordDecoderOptions.StringDecoding.valueOf(stringDecoding.toUpperCase());
+  }
+
+  public boolean isBlankStringsAsNull() {
+    return blankStringsAsNull == null ? false : blankStringsAsNull;
+  }
+
+  public int getStringCacheSize() {
+    return stringCacheSize == null ? RecordDecoderOptions.DEFAULT_STRING_CACHE_SIZE : stringCacheSize;
+  }
+
+  public boolean isTrustedInput() {
+    return trustedInput == null ? false : trustedInput;
+  }
+
+  /**
+   * Returns the directory of the {@link CopybookArtifactStore}, or {@code null} if copybooks are not stored.
+   */
+  @Nullable
+  public String getCopybookArtifactDirectory() {
+    // The directory is not known before macros are evaluated, hence not used to validate the config
+    return Strings.isNullOrEmpty(copybookArtifactDirectory) || containsMacro(PROPERTY_COPYBOOK_ARTIFACT_DIRECTORY)
+      ? null : copybookArtifactDirectory;
+  }
+
+  public byte[] getCopybookBytes() {
+    return copybook.getBytes(StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Validates the charset and the copybook, and returns the schema of the decoded records.
+   */
+  public Schema getOutputSchemaAndValidate(FailureCollector failureCollector) {
+    if (!Charset.isSupported(getCharset())) {
+      failureCollector.addFailure(String.format("The charset name '%s' is not supported by your java environment.",
+                                                getCharset()),
+                                  "Make sure you have lib/charsets.jar in your jre.")
+        .withConfigProperty(PROPERTY_CHARSET);
+      // if above failed, we cannot proceed to copybook parsing.
+      throw failureCollector.getOrThrowException();
+    }
+
+    try {
+      getStringDecoding();
+    } catch (IllegalArgumentException ex) {
+      failureCollector.addFailure(String.format("String decoding '%s' is not supported.", stringDecoding),
+                                  String.format("Supported values are %s.",
+                                                Arrays.toString(RecordDecoderOptions.StringDecoding.values())))
+        .withConfigProperty(PROPERTY_STRING_DECODING);
+      throw failureCollector.getOrThrowException();
+    }
+
+    if (getStringCacheSize() < 0 || getStringCacheSize() > StringCache.MAX_ENTRIES) {
+      failureCollector.addFailure(String.format("String cache size must be between 0 and %d but is %d.",
+                                                StringCache.MAX_ENTRIES, getStringCacheSize()), null)
+        .withConfigProperty(PROPERTY_STRING_CACHE_SIZE);
+      throw failureCollector.getOrThrowException();
+    }
+
+    CopybookReader copybookReader;
+    try {
+      copybookReader = getCopybookReader();
+    } catch(Exception ex) {
+      failureCollector.addFailure(String.format("Error while reading copybook: '%s'", ex.getMessage()),
+                                  "Please make sure it has correct format")
+        .withConfigProperty(PROPERTY_COPYBOOK)
+        .withStacktrace(ex.getStackTrace());
+      throw failureCollector.getOrThrowException();
+    }
+
+    Schema schema;
+    try {
+      schema = toOutputSchema(AvroConverter.fromAvroSchema(copybookReader.getSchema()));
+    } catch(Exception ex) {
+      failureCollector.addFailure(String.format("Error while generating schema from the copybook: '%s'",
+                                                ex.getMessage()), null)
+        .withConfigProperty(PROPERTY_COPYBOOK)
+        .withStacktrace(ex.getStackTrace());
+      throw failureCollector.getOrThrowException();
+    }
+
+    if (!containsMacro(PROPERTY_FIELDS_TO_EMIT)) {
+      try {
+        schema = project(schema);
+      } catch (IllegalArgumentException ex) {
+        failureCollector.addFailure(ex.getMessage(), "Make sure the fields to emit are present in the copybook.")
+          .withConfigProperty(PROPERTY_FIELDS_TO_EMIT);
+        throw failureCollector.getOrThrowException();
+      }
+    }
+
+    // Validating the filter requires the decoder, which is only created when there is a filter, such that
+    // configuring a pipeline doesn't build the CobolType tree of the copybook
+    if (!containsMacro(PROPERTY_FILTER) && !Strings.isNullOrEmpty(filter)) {
+      try {
+        createRecordDecoder(copybookReader, schema);
+      } catch (Exception ex) {
+        failureCollector.addFailure(String.format("Invalid filter: '%s'", ex.getMessage()),
+                                    "Make sure the filter only references fields at a fixed offset in the record.")
+          .withConfigProperty(PROPERTY_FILTER);
+        throw failureCollector.getOrThrowException();
+      }
+    }
+    return schema;
+  }
+
+  /**
+   * Returns the {@link CopybookReader} for the copybook. Readers are shared through the {@link CopybookReaderCache},
+   * hence the same copybook is only parsed and compiled once per JVM. On cache miss, the reader is loaded from the
+   * {@link CopybookArtifactStore} in the copybook artifact directory if there is one, such that the copybook is only
+   * parsed once across processes.
+   */
+  public CopybookReader getCopybookReader() throws IOException {
+    final Properties properties = getCobolConfig();
+    return CopybookReaderCache.get(copybook, properties, new Callable<CopybookReader>() {
+      @Override
+      public CopybookReader call() throws Exception {
+        CopybookArtifactStore artifactStore = getCopybookArtifactStore();
+        if (artifactStore != null) {
+          return artifactStore.get(copybook, properties);
+        }
+        StreamCharSource streamCharSource
+          = new StreamCharSource(new ByteArrayInputStream(getCopybookBytes()));
+        return new CopybookReader(streamCharSource, properties);
+      }
+    });
+  }
+
+  /**
+   * Stores the parsed copybook in the copybook artifact directory, unless it is stored already, such that the tasks
+   * of a pipeline run load it with a single read. Does nothing if there is no copybook artifact directory.
+   */
+  public void storeCopybookArtifact() throws IOException {
+    CopybookArtifactStore artifactStore = getCopybookArtifactStore();
+    if (artifactStore != null) {
+      artifactStore.put(copybook, getCobolConfig(), getCopybookReader());
+    }
+  }
+
+  @Nullable
+  private CopybookArtifactStore getCopybookArtifactStore() {
+    String directory = getCopybookArtifactDirectory();
+    return directory == null ? null : new CopybookArtifactStore(new Path(directory), new Configuration());
+  }
+
+  private Properties getCobolConfig() {
+    Properties properties = new Properties();
+    properties.setProperty(Cob2XsdConfig.CODE_FORMAT, getCodeFormat());
+    return properties;
+  }
+
+  /**
+   * Creates a {@link CobolRecordDecoder} that decodes the records matching the filter into the given schema.
+   */
+  public CobolRecordDecoder createRecordDecoder(CopybookReader copybookReader, Schema schema) throws IOException {
+    return copybookReader.createRecordDecoder(getCharset(), schema, getRecordDecoderOptions());
+  }
+
+  /**
+   * Returns the {@link RecordDecoderOptions} for this configuration.
+   */
+  public RecordDecoderOptions getRecordDecoderOptions() {
+    return RecordDecoderOptions.builder()
+      .setFilter(filter)
+      .setStringDecoding(getStringDecoding())
+      .setBlankStringsAsNull(isBlankStringsAsNull())
+      .setStringCacheSize(getStringCacheSize())
+      .setTrustedInput(isTrustedInput())
+      .build();
+  }
+
+  public Schema getOutputSchemaAndValidate(CopybookReader copybookReader) {
+    org.apache.avro.Schema avroSchema = copybookReader.getSchema();
+    return project(toOutputSchema(AvroConverter.fromAvroSchema(avroSchema)));
+  }
+
+  /**
+   * Makes the string fields of the schema nullable if blank strings are emitted as null.
+   */
+  private Schema toOutputSchema(Schema schema) {
+    return isBlankStringsAsNull() ? nullableStrings(schema) : schema;
+  }
+
+  private static Schema nullableStrings(Schema schema) {
+    switch (schema.getType()) {
+      case STRING:
+        return Schema.nullableOf(schema);
+      case RECORD:
+        List<Schema.Field> fields = new ArrayList<>();
+        for (Schema.Field field : schema.getFields()) {
+          fields.add(Schema.Field.of(field.getName(), nullableStrings(field.getSchema())));
+        }
+        return Schema.recordOf(schema.getRecordName(), fields);
+      case ARRAY:
+        return Schema.arrayOf(nullableStrings(schema.getComponentSchema()));
+      case UNION:
+        if (schema.isNullable()) {
+          return Schema.nullableOf(nullableStrings(schema.getNonNullable()));
+        }
+        List<Schema> schemas = new ArrayList<>();
+        boolean hasString = false;
+        for (Schema unionSchema : schema.getUnionSchemas()) {
+          hasString |= unionSchema.getType() == Schema.Type.STRING;
+          schemas.add(unionSchema.getType() == Schema.Type.STRING ? unionSchema : nullableStrings(unionSchema));
+        }
+        if (hasString) {
+          schemas.add(Schema.of(Schema.Type.NULL));
+        }
+        return Schema.unionOf(schemas);
+      default:
+        return schema;
+    }
+  }
+
+  /**
+   * Narrows the given schema to the fields to emit.
+   *
+   * @throws IllegalArgumentException if any of the fields to emit is not present in the schema
+   */
+  private Schema project(Schema schema) {
+    if (Strings.isNullOrEmpty(fieldsToEmit)) {
+      return schema;
+    }
+    return project(schema, Splitter.on(',').trimResults().omitEmptyStrings().splitToList(fieldsToEmit));
+  }
+
+  /**
+   * Narrows a record schema to the given field paths. Fields keep the order of the copybook.
+   */
+  private static Schema project(Schema schema, List<String> paths) {
+    // From field name to the paths within that field, or to null if the whole field is selected
+    Map<String, List<String>> selection = new HashMap<>();
+    for (String path : paths) {
+      int idx = path.indexOf('.');
+      String name = idx < 0 ? path : path.substring(0, idx);
+      if (schema.getField(name) == null) {
+        throw new IllegalArgumentException(String.format("Field '%s' is not present in record '%s'.",
+                                                         name, schema.getRecordName()));
+      }
+      if (idx < 0) {
+        selection.put(name, null);
+      } else if (!selection.containsKey(name) || selection.get(name) != null) {
+        List<String> nested = selection.get(name);
+        if (nested == null) {
+          nested = new ArrayList<>();
+          selection.put(name, nested);
+        }
+        nested.add(path.substring(idx + 1));
+      }
+    }
+
+    List<Schema.Field> fields = new ArrayList<>();
+    for (Schema.Field field : schema.getFields()) {
+      if (!selection.containsKey(field.getName())) {
+        continue;
+      }
+      List<String> nested = selection.get(field.getName());
+      fields.add(nested == null ? field
+                   : Schema.Field.of(field.getName(), projectField(field.getName(), field.getSchema(), nested)));
+    }
+    return Schema.recordOf(schema.getRecordName(), fields);
+  }
+
+  private static Schema projectField(String name, Schema schema, List<String> paths) {
+    switch (schema.getType()) {
+      case RECORD:
+        return project(schema, paths);
+      case ARRAY:
+        return Schema.arrayOf(projectField(name, schema.getComponentSchema(), paths));
+      case UNION:
+        if (schema.isNullable()) {
+          return Schema.nullableOf(projectField(name, schema.getNonNullable(), paths));
+        }
+        break;
+    }
+    throw new IllegalArgumentException(String.format("Field '%s' is not a record, hence fields can't be selected "
+                                                       + "within it.", name));
+  }
+}
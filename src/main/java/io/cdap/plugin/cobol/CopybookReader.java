@@ -16,13 +16,10 @@
 
 package io.cdap.plugin.cobol;
 
-import com.github.jknack.handlebars.Handlebars;
-import com.github.jknack.handlebars.Template;
 import com.google.common.base.Joiner;
 import com.google.common.io.ByteSource;
 import com.google.common.io.CharSource;
 import com.google.common.io.Closeables;
-import com.google.common.io.Resources;
 import com.legstar.avro.cob2avro.io.AbstractZosDatumReader;
 import com.legstar.avro.cob2avro.io.ZosVarDatumReader;
 import com.legstar.avro.cob2avro.io.ZosVarRdwDatumReader;
@@ -30,6 +27,7 @@ import com.legstar.avro.translator.Xsd2AvroTranslator;
 import com.legstar.avro.translator.Xsd2AvroTranslatorException;
 import com.legstar.base.context.EbcdicCobolContext;
 import com.legstar.base.generator.Xsd2CobolTypesModelBuilder;
+import com.legstar.base.generator.Xsd2ConverterException;
 import com.legstar.base.type.CobolType;
 import com.legstar.base.type.composite.CobolComplexType;
 import com.legstar.cob2xsd.Cob2Xsd;
@@ -41,30 +39,33 @@ import org.apache.avro.generic.GenericRecord;
 import org.apache.ws.commons.schema.XmlSchema;
 import org.apache.ws.commons.schema.XmlSchemaCollection;
 import org.apache.ws.commons.schema.XmlSchemaSerializer;
-import org.codehaus.janino.JavaSourceClassLoader;
-import org.codehaus.janino.util.resource.Resource;
-import org.codehaus.janino.util.resource.ResourceFinder;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.Reader;
-import java.net.URL;
-import java.nio.charset.StandardCharsets;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import javax.annotation.Nullable;
 
 /**
- * This class helps parsing Cobol Copybook and decoding Ebcdic encoded dataset
+ * This class helps parsing Cobol Copybook and decoding Ebcdic encoded dataset.
+ * Instances are thread safe and can be shared across threads, see {@link CopybookReaderCache}.
+ * <p>
+ * Only the schema is computed on construction, which is all that is needed to validate and configure a pipeline.
+ * The {@link CobolType} tree for decoding is built on the first call that needs it and shared by all readers and
+ * decoders, since {@link CobolType}s are immutable.
+ * </p>
  */
 public class CopybookReader {
 
   private final Schema avroSchema;
-  private final ClassLoader cobolTypeClassLoader;
+  // The XML schema is only kept until the CobolType model is built from it
+  private XmlSchema xmlSchema;
+  private Xsd2CobolTypesModelBuilder.RootCompositeType cobolTypeModel;
+  private volatile CobolComplexType cobolType;
 
   public CopybookReader(CharSource copybookSource, Properties cobolConfig) throws IOException {
     Cob2Xsd cob2xsd = new Cob2Xsd(new Cob2XsdConfig(cobolConfig));
@@ -77,12 +78,9 @@ public class CopybookReader {
       XmlSchema xmlSchema = new XmlSchemaCollection().read(
         cob2xsd.emitXsd(cobolDataItems, "io.cdap.plugin.cobol").getSchemaDocument());
 
-      // Convert XML schema to Avro schema
-      Schema avroSchema = translate(xmlSchema);
-
-      // Generate the CobolType classes ClassLoader
-      this.cobolTypeClassLoader = createCobolTypesClassLoader(xmlSchema, "io.cdap.plugin.cobol");
-      this.avroSchema = avroSchema;
+      // Convert XML schema to Avro schema. The CobolType tree is built lazily from the XML schema.
+      this.avroSchema = translate(xmlSchema);
+      this.xmlSchema = xmlSchema;
     } catch (RecognizerException e) {
       throw new IOException("Failed to parse cobol copybook: " + System.lineSeparator()
                               + Joiner.on(System.lineSeparator()).join(cob2xsd.getErrorHistory()), e);
@@ -91,6 +89,17 @@ public class CopybookReader {
     }
   }
 
+  /**
+   * Creates a reader from the result of a previous parsing of a copybook, see {@link CopybookArtifactStore}.
+   *
+   * @param avroSchema the Avro schema of the copybook
+   * @param cobolTypeModel the model of the {@link CobolType} tree of the top level record
+   */
+  CopybookReader(Schema avroSchema, Xsd2CobolTypesModelBuilder.RootCompositeType cobolTypeModel) {
+    this.avroSchema = avroSchema;
+    this.cobolTypeModel = cobolTypeModel;
+  }
+
   /**
    * Returns all Avro schema created from the Cobol copybook
    *
@@ -112,15 +121,7 @@ public class CopybookReader {
    */
   public AbstractZosDatumReader<GenericRecord> createRecordReader(ByteSource source, String charset,
                                                                   boolean hasRecordDescriptorWord) throws IOException {
-    String cobolTypeClassName = avroSchema.getNamespace() + "." + avroSchema.getName();
-    CobolComplexType cobolType;
-    try {
-      cobolType = (CobolComplexType) cobolTypeClassLoader.loadClass(cobolTypeClassName).newInstance();
-    } catch (InstantiationException | IllegalAccessException | ClassNotFoundException e) {
-      // This shouldn't happen since we generated the class
-      throw new IOException("Failed to instantiate instance of class " + cobolTypeClassName, e);
-    }
-
+    CobolComplexType cobolType = createCobolType();
     long size = source.size();
     InputStream is = source.openBufferedStream();
     try {
@@ -134,6 +135,107 @@ public class CopybookReader {
     }
   }
 
+  /**
+   * Creates a {@link CobolRecordDecoder} for decoding Ebcdic encoded records directly into
+   * {@link io.cdap.cdap.api.data.format.StructuredRecord}.
+   *
+   * @param charset The charset used to create EBCDIC COBOL context
+   * @param schema The CDAP schema of the records, as converted from {@link #getSchema()}
+   * @return A {@link CobolRecordDecoder} for decoding
+   * @throws IOException If failed to create the decoder
+   */
+  public CobolRecordDecoder createRecordDecoder(String charset,
+                                                io.cdap.cdap.api.data.schema.Schema schema) throws IOException {
+    return createRecordDecoder(charset, schema, RecordDecoderOptions.defaults());
+  }
+
+  /**
+   * Creates a {@link CobolRecordDecoder} that only decodes the records matching the given filter expression.
+   *
+   * @param charset The charset used to create EBCDIC COBOL context
+   * @param schema The CDAP schema of the records, as converted from {@link #getSchema()}
+   * @param filter The {@link RecordFilter} expression or {@code null} to decode all records
+   * @return A {@link CobolRecordDecoder} for decoding
+   * @throws IOException If failed to create the decoder
+   * @throws IllegalArgumentException If the filter expression is invalid
+   */
+  public CobolRecordDecoder createRecordDecoder(String charset, io.cdap.cdap.api.data.schema.Schema schema,
+                                                @Nullable String filter) throws IOException {
+    return createRecordDecoder(charset, schema, RecordDecoderOptions.builder().setFilter(filter).build());
+  }
+
+  /**
+   * Creates a {@link CobolRecordDecoder} with the given options.
+   *
+   * @param charset The charset used to create EBCDIC COBOL context
+   * @param schema The CDAP schema of the records, as converted from {@link #getSchema()}
+   * @param options The {@link RecordDecoderOptions}
+   * @return A {@link CobolRecordDecoder} for decoding
+   * @throws IOException If failed to create the decoder
+   * @throws IllegalArgumentException If the filter expression is invalid
+   */
+  public CobolRecordDecoder createRecordDecoder(String charset, io.cdap.cdap.api.data.schema.Schema schema,
+                                                RecordDecoderOptions options) throws IOException {
+    return new CobolRecordDecoder(createCobolType(), new EbcdicCobolContext(charset), schema, options);
+  }
+
+  /**
+   * Creates a {@link CobolRecordReader} without data, that is reset with {@link CobolRecordReader#reset(ByteBuffer)}
+   * for each payload to decode. The decoder, its context and the buffers of the reader are reused across payloads.
+   *
+   * @param charset The charset used to create EBCDIC COBOL context
+   * @param schema The CDAP schema of the records, as converted from {@link #getSchema()}
+   * @param options The {@link RecordDecoderOptions}
+   * @param hasRecordDescriptorWord {@code true} for data that has the record descriptor word prefix for each record;
+   *                                {@code false} other
+   * @return A {@link CobolRecordReader} for decoding payloads
+   * @throws IOException If failed to create the decoder
+   * @throws IllegalArgumentException If the filter expression is invalid
+   */
+  public CobolRecordReader createRecordReader(String charset, io.cdap.cdap.api.data.schema.Schema schema,
+                                              RecordDecoderOptions options,
+                                              boolean hasRecordDescriptorWord) throws IOException {
+    return new CobolRecordReader(createRecordDecoder(charset, schema, options), hasRecordDescriptorWord);
+  }
+
+  /**
+   * Returns whether the {@link CobolType} tree has been built, which only happens once records are read or decoded.
+   */
+  boolean isCobolTypesCreated() {
+    return cobolType != null;
+  }
+
+  /**
+   * Returns the {@link CobolComplexType} of the top level record, building it on the first call.
+   */
+  CobolComplexType createCobolType() throws IOException {
+    CobolComplexType type = cobolType;
+    if (type != null) {
+      return type;
+    }
+    synchronized (this) {
+      if (cobolType == null) {
+        try {
+          cobolType = CobolTypeBuilder.build(avroSchema.getName(), getCobolTypeModel());
+        } catch (IllegalArgumentException e) {
+          throw new IOException("Failed to build COBOL types from cobol copybook", e);
+        }
+      }
+      return cobolType;
+    }
+  }
+
+  /**
+   * Returns the model of the {@link CobolType} tree of the top level record, building it on the first call.
+   */
+  synchronized Xsd2CobolTypesModelBuilder.RootCompositeType getCobolTypeModel() throws IOException {
+    if (cobolTypeModel == null) {
+      cobolTypeModel = buildCobolTypeModel(xmlSchema);
+      xmlSchema = null;
+    }
+    return cobolTypeModel;
+  }
+
   private List<CobolDataItem> parseCopybook(Cob2Xsd cob2xsd, Reader reader) throws RecognizerException {
     Cob2XsdConfig config = cob2xsd.getConfig();
 
@@ -174,79 +276,24 @@ public class CopybookReader {
   }
 
   /**
-   * Creates a {@link ClassLoader} for loading {@link CobolType} classes that can be used for reading data encoded using
-   * Cobol copybook.
+   * Builds the model of the {@link CobolType} tree of the top level record from a {@link XmlSchema}.
    *
    * @param xmlSchema The {@link XmlSchema} representation of the Cobol copybook.
-   * @param classPackage Name of the java package for the generated classes to locates in.
-   * @return a {@link ClassLoader} for loading {@link CobolType} classes
-   * @throws IOException if failed to create the ClassLoader
+   * @return the model of the top level record
+   * @throws IOException if failed to build the model
    */
-  private ClassLoader createCobolTypesClassLoader(XmlSchema xmlSchema, String classPackage) throws IOException {
-    final Map<String, String> sources = generateCobolTypes(xmlSchema, classPackage);
-    final long lastModified = System.currentTimeMillis();
-    return new JavaSourceClassLoader(getClass().getClassLoader(), new ResourceFinder() {
-
-      @Nullable
-      @Override
-      public Resource findResource(final String resourceName) {
-        String className = resourceName.replace('/', '.').substring(0, resourceName.length() - ".java".length());
-        final String sourceCode = sources.get(className);
-        if (sourceCode == null) {
-          return null;
-        }
-        return new Resource() {
-          @Override
-          public InputStream open() throws IOException {
-            return new ByteArrayInputStream(sourceCode.getBytes("UTF-8"));
-          }
-
-          @Override
-          public String getFileName() {
-            return resourceName;
-          }
-
-          @Override
-          public long lastModified() {
-            return lastModified;
-          }
-        };
-      }
-    }, null);
-  }
-
-  /**
-   * Generates the source code of different {@link CobolType} that can be used for reading data encoded using
-   * Cobol copybook.
-   *
-   * @param xmlSchema The {@link XmlSchema} representation of the Cobol copybook.
-   * @param classPackage Name of the java package for the generated classes to locates in.
-   * @return A {@link Map} from class name to class source code
-   * @throws IOException if failed to generate the classes
-   */
-  private Map<String, String> generateCobolTypes(XmlSchema xmlSchema, String classPackage) throws IOException {
-    URL resource = getClass().getClassLoader().getResource("java.class.hbs");
-    if (resource == null) {
-      // This shouldn't happen
-      throw new IllegalStateException("Resource not found: java.class.hbs");
+  private Xsd2CobolTypesModelBuilder.RootCompositeType buildCobolTypeModel(XmlSchema xmlSchema) throws IOException {
+    Map<String, Xsd2CobolTypesModelBuilder.RootCompositeType> model;
+    try {
+      model = new Xsd2CobolTypesModelBuilder().build(xmlSchema);
+    } catch (Xsd2ConverterException e) {
+      throw new IOException("Failed to build COBOL types from cobol copybook", e);
     }
-
-    Handlebars handlebars = new Handlebars();
-    Template template = handlebars.compileInline(Resources.toString(resource, StandardCharsets.UTF_8));
-    Map<String, Xsd2CobolTypesModelBuilder.RootCompositeType> model = new Xsd2CobolTypesModelBuilder().build(xmlSchema);
-
-    Map<String, String> sources = new HashMap<>();
-    for (Map.Entry<String, Xsd2CobolTypesModelBuilder.RootCompositeType> entry : model.entrySet()) {
-      String className = entry.getKey();
-      Map<String, Object> config = new HashMap<>();
-      config.put("target_package_name", classPackage);
-      config.put("class_name", className);
-      config.put("root_type_name", entry.getKey());
-      config.put("root_cobol_name", entry.getValue().cobolName);
-      config.put("complex_types", entry.getValue().complexTypes);
-      config.put("choice_types", entry.getValue().choiceTypes);
-      sources.put(classPackage + "." + className, template.apply(config));
+    Xsd2CobolTypesModelBuilder.RootCompositeType root = model.get(avroSchema.getName());
+    if (root == null) {
+      // This shouldn't happen since the Avro schema is translated from the same XML schema
+      throw new IOException("COBOL type " + avroSchema.getName() + " not found in the cobol copybook");
     }
-    return sources;
+    return root;
   }
 }
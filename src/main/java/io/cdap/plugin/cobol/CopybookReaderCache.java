@@ -0,0 +1,114 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.cobol;
+
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.Maps;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.legstar.cob2xsd.Cob2XsdConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Process wide cache of {@link CopybookReader}, so that identical copybooks are parsed and compiled once per JVM,
+ * no matter how many tasks or pipeline stages use them.
+ * <p>
+ * Entries are keyed by a hash of the copybook content and of the parsing configuration. The number of entries is
+ * bounded and the least recently used entries are evicted first. The maximum number of entries can be set with
+ * the {@value #CACHE_SIZE_PROPERTY} system property.
+ * </p>
+ */
+public final class CopybookReaderCache {
+
+  public static final String CACHE_SIZE_PROPERTY = "cdap.cobol.copybook.cache.size";
+  private static final int DEFAULT_CACHE_SIZE = 32;
+
+  private static final Logger LOG = LoggerFactory.getLogger(CopybookReaderCache.class);
+  private static final Cache<String, CopybookReader> CACHE = CacheBuilder.newBuilder()
+    .maximumSize(Integer.getInteger(CACHE_SIZE_PROPERTY, DEFAULT_CACHE_SIZE))
+    .recordStats()
+    .build();
+
+  /**
+   * Returns the {@link CopybookReader} for the given copybook, creating it if it is not in the cache.
+   *
+   * @param copybook the copybook source code
+   * @param cobolConfig the {@link Cob2XsdConfig} properties used to parse the copybook
+   * @param loader the {@link Callable} to create the {@link CopybookReader} on cache miss
+   * @return the cached or newly created {@link CopybookReader}
+   * @throws IOException if failed to create the {@link CopybookReader}
+   */
+  public static CopybookReader get(String copybook, Properties cobolConfig,
+                                   Callable<CopybookReader> loader) throws IOException {
+    String key = getKey(copybook, cobolConfig);
+    try {
+      CopybookReader reader = CACHE.get(key, loader);
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("Copybook reader cache stats: {}", CACHE.stats());
+      }
+      return reader;
+    } catch (ExecutionException | UncheckedExecutionException e) {
+      Throwables.propagateIfInstanceOf(e.getCause(), IOException.class);
+      throw Throwables.propagate(e.getCause());
+    }
+  }
+
+  /**
+   * Returns the hit and miss statistics of the cache.
+   */
+  public static CacheStats getStats() {
+    return CACHE.stats();
+  }
+
+  /**
+   * Removes all entries from the cache.
+   */
+  public static void invalidateAll() {
+    CACHE.invalidateAll();
+  }
+
+  /**
+   * Returns the key of a copybook, which is a hash of the copybook content and of the parsing configuration.
+   */
+  static String getKey(String copybook, Properties cobolConfig) {
+    Hasher hasher = Hashing.sha256().newHasher();
+    hasher.putString(copybook, StandardCharsets.UTF_8);
+    // Sort the properties so that the key does not depend on the iteration order
+    for (Map.Entry<String, String> entry : new TreeMap<>(Maps.fromProperties(cobolConfig)).entrySet()) {
+      hasher.putInt(0).putString(entry.getKey(), StandardCharsets.UTF_8);
+      hasher.putInt(1).putString(entry.getValue(), StandardCharsets.UTF_8);
+    }
+    return hasher.hash().toString();
+  }
+
+  private CopybookReaderCache() {
+    // no-op
+  }
+}
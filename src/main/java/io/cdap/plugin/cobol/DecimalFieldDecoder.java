@@ -0,0 +1,291 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.cdap.plugin.cobol;
+
+import com.legstar.base.type.primitive.CobolDecimalType;
+import com.legstar.base.type.primitive.CobolPackedDecimalType;
+import com.legstar.base.type.primitive.CobolZonedDecimalType;
+import com.legstar.base.visitor.FromCobolException;
+import io.cdap.cdap.api.data.schema.Schema;
+
+import java.nio.ByteBuffer;
+import javax.annotation.Nullable;
+
+/**
+ * {@link FieldDecoder} for packed (COMP-3) and zoned decimal items of at most {@value #MAX_DIGITS} digits. The
+ * digits are decoded nibble by nibble into the unscaled {@code long} value, without going through
+ * {@link java.math.BigDecimal}. Decimals with fraction digits are produced as the unscaled bytes expected by the
+ * CDAP {@code decimal} logical type.
+ */
+final class DecimalFieldDecoder extends FieldDecoder {
+
+  /**
+   * Maximum number of digits that always fits in a {@code long}.
+   */
+  static final int MAX_DIGITS = 18;
+
+  private final String fieldName;
+  private final CobolDecimalType<?> cobolType;
+  private final boolean packed;
+  private final boolean odoObject;
+  private final boolean trusted;
+  private final int plusSign;
+  private final int minusSign;
+  @Nullable
+  private final Schema.Type targetType;
+  private final int bytesLen;
+
+  /**
+   * Creates a decoder.
+   *
+   * @param fieldName the name of the field
+   * @param cobolType the COBOL type of the field, which must be supported according to {@link #isSupported}
+   * @param plusSign the host character of the plus sign, used by zoned decimals with a separate sign
+   * @param minusSign the host character of the minus sign, used by zoned decimals with a separate sign
+   * @param schema the schema of the field or {@code null} if the field is only skipped
+   * @param trusted {@code true} to skip the validation of the digits and sign, for input known to be valid
+   */
+  DecimalFieldDecoder(String fieldName, CobolDecimalType<?> cobolType, int plusSign, int minusSign,
+                      @Nullable Schema schema, boolean trusted) {
+    this.fieldName = fieldName;
+    this.cobolType = cobolType;
+    this.packed = cobolType instanceof CobolPackedDecimalType;
+    this.odoObject = cobolType.isOdoObject();
+    this.trusted = trusted;
+    this.plusSign = plusSign & 0xFF;
+    this.minusSign = minusSign & 0xFF;
+    this.targetType = schema == null ? null : schema.getType();
+    this.bytesLen = cobolType.getBytesLen();
+  }
+
+  /**
+   * Returns whether an item of the given COBOL type can be decoded by this class into the given schema.
+   */
+  static boolean isSupported(CobolDecimalType<?> cobolType, @Nullable Schema schema) {
+    if (!(cobolType instanceof CobolPackedDecimalType || cobolType instanceof CobolZonedDecimalType)
+      || cobolType.getTotalDigits() > MAX_DIGITS) {
+      return false;
+    }
+    if (schema == null) {
+      return true;
+    }
+    switch (schema.getType()) {
+      case INT:
+      case LONG:
+        return cobolType.getFractionDigits() == 0;
+      case BYTES:
+        return schema.getLogicalType() == Schema.LogicalType.DECIMAL
+          && schema.getScale() == cobolType.getFractionDigits();
+      default:
+        return false;
+    }
+  }
+
+  @Nullable
+  @Override
+  Object decode(DecodeState state) {
+    if (state.position >= state.limit) {
+      return null;
+    }
+    if (state.position + bytesLen > state.limit) {
+      throw new FromCobolException("Truncated value of " + bytesLen + " bytes at offset " + state.position,
+                                   cobolType.getCobolName(), cobolType);
+    }
+    long value;
+    if (trusted) {
+      value = packed
+        ? decodePackedTrusted(state.data, state.position, bytesLen)
+        : decodeZonedTrusted((CobolZonedDecimalType<?>) cobolType, minusSign, state.data, state.position);
+    } else {
+      value = packed
+        ? decodePacked(cobolType, state.data, state.position)
+        : decodeZoned((CobolZonedDecimalType<?>) cobolType, plusSign, minusSign, state.data, state.position);
+    }
+    state.position += bytesLen;
+
+    if (odoObject) {
+      state.putVariable(fieldName, value);
+    }
+    if (targetType == null) {
+      return null;
+    }
+    switch (targetType) {
+      case INT:
+        return (int) value;
+      case LONG:
+        return value;
+      default:
+        return ByteBuffer.wrap(toUnscaledBytes(value));
+    }
+  }
+
+  @Override
+  void skip(DecodeState state) {
+    if (odoObject) {
+      decode(state);
+    } else {
+      advance(state, bytesLen);
+    }
+  }
+
+  @Override
+  int getFixedLength() {
+    return odoObject ? -1 : bytesLen;
+  }
+
+  /**
+   * Decodes the unscaled value of a packed decimal of at most {@value #MAX_DIGITS} digits.
+   *
+   * @throws FromCobolException if the bytes are not a valid packed decimal
+   */
+  static long decodePacked(CobolDecimalType<?> cobolType, byte[] data, int position) {
+    int length = cobolType.getBytesLen();
+    // With an even number of digits, the first nibble is a padding zero
+    if (cobolType.getTotalDigits() % 2 == 0 && (data[position] & 0xF0) != 0) {
+      throw invalid(cobolType, data, position);
+    }
+    long value = 0;
+    int last = position + length - 1;
+    for (int i = position; i < last; i++) {
+      value = value * 100 + digit(cobolType, data, position, data[i] >> 4) * 10
+        + digit(cobolType, data, position, data[i]);
+    }
+    value = value * 10 + digit(cobolType, data, position, data[last] >> 4);
+
+    // The last nibble is the sign
+    int sign = data[last] & 0x0F;
+    if (sign < 0x0A) {
+      throw invalid(cobolType, data, position);
+    }
+    return sign == 0x0B || sign == 0x0D ? -value : value;
+  }
+
+  /**
+   * Decodes the unscaled value of a zoned decimal of at most {@value #MAX_DIGITS} digits. Digits must have the
+   * unsigned zone {@code 0xF}, except the digit holding an overpunched sign, whose zone must be {@code 0xC},
+   * {@code 0xD} or {@code 0xF}. A separate sign must be either the plus or the minus sign.
+   *
+   * @param plusSign the host character of the plus sign, used when the sign is separate
+   * @param minusSign the host character of the minus sign, used when the sign is separate
+   * @throws FromCobolException if the bytes are not a valid zoned decimal
+   */
+  static long decodeZoned(CobolZonedDecimalType<?> cobolType, int plusSign, int minusSign,
+                          byte[] data, int position) {
+    boolean signLeading = cobolType.isSignLeading();
+    boolean signSeparate = cobolType.isSignSeparate();
+    int digits = cobolType.getTotalDigits();
+    int start = signSeparate && signLeading ? position + 1 : position;
+    // The digit that may hold an overpunched sign. The last digit of unsigned items may have a sign zone too.
+    int signDigit = signSeparate ? -1 : (cobolType.isSigned() && signLeading ? start : start + digits - 1);
+
+    long value = 0;
+    for (int i = start; i < start + digits; i++) {
+      int zone = (data[i] >> 4) & 0x0F;
+      if (zone != 0x0F && (i != signDigit || (zone != 0x0C && zone != 0x0D))) {
+        throw invalid(cobolType, data, position);
+      }
+      value = value * 10 + digit(cobolType, data, position, data[i]);
+    }
+    if (!cobolType.isSigned()) {
+      return value;
+    }
+    boolean negative;
+    if (signSeparate) {
+      int sign = data[signLeading ? position : start + digits] & 0xFF;
+      if (sign != plusSign && sign != minusSign) {
+        throw invalid(cobolType, data, position);
+      }
+      negative = sign == minusSign;
+    } else {
+      negative = ((data[signDigit] >> 4) & 0x0F) == 0x0D;
+    }
+    return negative ? -value : value;
+  }
+
+  /**
+   * Decodes the unscaled value of a packed decimal of at most {@value #MAX_DIGITS} digits, without validating the
+   * digits and the sign. Invalid bytes decode to an unspecified value.
+   */
+  static long decodePackedTrusted(byte[] data, int position, int length) {
+    long value = 0;
+    int last = position + length - 1;
+    for (int i = position; i < last; i++) {
+      value = value * 100 + ((data[i] >> 4) & 0x0F) * 10 + (data[i] & 0x0F);
+    }
+    value = value * 10 + ((data[last] >> 4) & 0x0F);
+    int sign = data[last] & 0x0F;
+    return sign == 0x0B || sign == 0x0D ? -value : value;
+  }
+
+  /**
+   * Decodes the unscaled value of a zoned decimal of at most {@value #MAX_DIGITS} digits, without validating the
+   * digits. Invalid bytes decode to an unspecified value.
+   *
+   * @param minusSign the host character of the minus sign, used when the sign is separate
+   */
+  static long decodeZonedTrusted(CobolZonedDecimalType<?> cobolType, int minusSign, byte[] data, int position) {
+    boolean signLeading = cobolType.isSignLeading();
+    boolean signSeparate = cobolType.isSignSeparate();
+    int digits = cobolType.getTotalDigits();
+    int start = signSeparate && signLeading ? position + 1 : position;
+
+    long value = 0;
+    for (int i = start; i < start + digits; i++) {
+      value = value * 10 + (data[i] & 0x0F);
+    }
+    if (!cobolType.isSigned()) {
+      return value;
+    }
+    boolean negative;
+    if (signSeparate) {
+      negative = (data[signLeading ? position : start + digits] & 0xFF) == minusSign;
+    } else {
+      negative = ((data[signLeading ? start : start + digits - 1] >> 4) & 0x0F) == 0x0D;
+    }
+    return negative ? -value : value;
+  }
+
+  /**
+   * Returns the minimal two's complement big endian representation of the given value, which is the same as
+   * {@link java.math.BigInteger#toByteArray()}.
+   */
+  static byte[] toUnscaledBytes(long value) {
+    int bits = 64 - Long.numberOfLeadingZeros(value < 0 ? ~value : value);
+    byte[] bytes = new byte[bits / 8 + 1];
+    for (int i = bytes.length - 1; i >= 0; i--) {
+      bytes[i] = (byte) value;
+      value >>= 8;
+    }
+    return bytes;
+  }
+
+  private static int digit(CobolDecimalType<?> cobolType, byte[] data, int position, int nibble) {
+    int digit = nibble & 0x0F;
+    if (digit > 9) {
+      throw invalid(cobolType, data, position);
+    }
+    return digit;
+  }
+
+  private static FromCobolException invalid(CobolDecimalType<?> cobolType, byte[] data, int position) {
+    StringBuilder hex = new StringBuilder();
+    for (int i = 0; i < cobolType.getBytesLen(); i++) {
+      hex.append(String.format("%02X", data[position + i] & 0xFF));
+    }
+    return new FromCobolException("Invalid decimal value 0x" + hex + " at offset " + position,
+                                  cobolType.getCobolName(), cobolType);
+  }
+}
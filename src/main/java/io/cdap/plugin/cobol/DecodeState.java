@@ -0,0 +1,89 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.cobol;
+
+import com.legstar.base.context.CobolContext;
+import com.legstar.base.visitor.CobolODOResolutionException;
+import com.legstar.base.visitor.DefaultFromCobolChoiceStrategy;
+import com.legstar.base.visitor.FromCobolChoiceStrategy;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Mutable cursor over the bytes of the record being decoded by a {@link CobolRecordDecoder}.
+ */
+final class DecodeState {
+
+  private final CobolContext cobolContext;
+  private final FromCobolChoiceStrategy choiceStrategy;
+  private final Map<String, Object> variables;
+
+  byte[] data;
+  int position;
+  int limit;
+
+  DecodeState(CobolContext cobolContext) {
+    this.cobolContext = cobolContext;
+    this.choiceStrategy = new DefaultFromCobolChoiceStrategy(cobolContext);
+    this.variables = new HashMap<>();
+  }
+
+  /**
+   * Resets this state for decoding a new record.
+   *
+   * @param data the buffer containing the record
+   * @param offset offset of the first byte of the record
+   * @param limit offset one past the last byte of the record
+   */
+  void reset(byte[] data, int offset, int limit) {
+    this.data = data;
+    this.position = offset;
+    this.limit = limit;
+    this.variables.clear();
+  }
+
+  CobolContext getCobolContext() {
+    return cobolContext;
+  }
+
+  FromCobolChoiceStrategy getChoiceStrategy() {
+    return choiceStrategy;
+  }
+
+  Map<String, Object> getVariables() {
+    return variables;
+  }
+
+  void putVariable(String name, Object value) {
+    variables.put(name, value);
+  }
+
+  /**
+   * Returns the current value of an OCCURS DEPENDING ON object, or {@code 0} if it was not decoded yet.
+   */
+  int getOdoValue(String name) {
+    Object value = variables.get(name);
+    if (value == null) {
+      return 0;
+    }
+    if (value instanceof Number) {
+      return ((Number) value).intValue();
+    }
+    throw new CobolODOResolutionException("The value " + value + " for ODOObject " + name + " is not numeric");
+  }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.cobol;
+
+import io.cdap.cdap.api.data.schema.Schema;
+import org.apache.avro.io.Encoder;
+
+import java.io.IOException;
+import javax.annotation.Nullable;
+
+/**
+ * A node in the decoding plan compiled by {@link CobolRecordDecoder}. Each node decodes one COBOL item
+ * into the value expected by the corresponding field of the output {@link io.cdap.cdap.api.data.schema.Schema}.
+ */
+abstract class FieldDecoder {
+
+  /**
+   * Decodes the item at the current position of the given state and advances the position past it.
+   *
+   * @return the decoded value or {@code null} if the item lies past the end of the record
+   */
+  @Nullable
+  abstract Object decode(DecodeState state);
+
+  /**
+   * Decodes the item at the current position of the given state and writes it in the Avro binary encoding, advancing
+   * the position past it. Unless overridden, the decoded value is written as is.
+   *
+   * @param schema the schema of the item
+   * @param encoder the {@link Encoder} to write to
+   * @throws IOException if failed to write
+   */
+  void encode(DecodeState state, Schema schema, Encoder encoder) throws IOException {
+    AvroValueWriter.write(schema, decode(state), encoder);
+  }
+
+  /**
+   * Returns whether the item can be written by {@link #encode(DecodeState, Schema, Encoder)}. Unless overridden,
+   * all items can be encoded.
+   */
+  boolean canEncode() {
+    return true;
+  }
+
+  /**
+   * Advances the position of the given state past the item without decoding it. Only the ODO counters contained in
+   * the item are decoded, since they are needed to find the position of the items that follow.
+   */
+  abstract void skip(DecodeState state);
+
+  /**
+   * Returns the number of bytes occupied by the item if it can be skipped without looking at its content, which is
+   * the case when it is of fixed size and contains no ODO counter; otherwise returns {@code -1}.
+   */
+  abstract int getFixedLength();
+
+  /**
+   * Advances the position of the given state by the given number of bytes, without going past the record end.
+   */
+  static void advance(DecodeState state, long length) {
+    state.position = (int) Math.min(state.limit, state.position + length);
+  }
+}
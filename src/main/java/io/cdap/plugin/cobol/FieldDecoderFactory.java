@@ -0,0 +1,113 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.cdap.plugin.cobol;
+
+import com.legstar.base.context.CobolContext;
+import com.legstar.base.type.CobolType;
+import com.legstar.base.type.composite.CobolArrayType;
+import com.legstar.base.type.composite.CobolChoiceType;
+import com.legstar.base.type.composite.CobolComplexType;
+import com.legstar.base.type.primitive.CobolBinaryType;
+import com.legstar.base.type.primitive.CobolDecimalType;
+import com.legstar.base.type.primitive.CobolPrimitiveType;
+import com.legstar.base.type.primitive.CobolStringType;
+import io.cdap.cdap.api.data.schema.Schema;
+
+import java.nio.charset.Charset;
+import javax.annotation.Nullable;
+
+/**
+ * Creates the tree of {@link FieldDecoder} for a {@link CobolRecordDecoder}, picking the fastest decoder that
+ * supports each COBOL type and output schema.
+ */
+final class FieldDecoderFactory {
+
+  private final CobolContext cobolContext;
+  private final RecordDecoderOptions options;
+  // Characters of the host charset, null if strings are decoded with the charset decoder
+  @Nullable
+  private final char[] stringTable;
+
+  FieldDecoderFactory(CobolContext cobolContext, RecordDecoderOptions options) {
+    this.cobolContext = cobolContext;
+    this.options = options;
+    this.stringTable = options.getStringDecoding() == RecordDecoderOptions.StringDecoding.TABLE
+      && cobolContext.isTruncateHostStringsTrailingSpaces()
+      ? StringFieldDecoder.createTable(Charset.forName(cobolContext.getHostCharsetName()),
+                                       cobolContext.getHostSpaceCharCode())
+      : null;
+  }
+
+  CobolContext getCobolContext() {
+    return cobolContext;
+  }
+
+  RecordDecoderOptions getOptions() {
+    return options;
+  }
+
+  /**
+   * Creates the {@link FieldDecoder} for the given {@link CobolType}.
+   *
+   * @param fieldName the name of the field
+   * @param cobolType the COBOL type of the field
+   * @param schema the schema of the field or {@code null} if the field is not part of the output and only skipped
+   */
+  FieldDecoder create(String fieldName, CobolType cobolType, @Nullable Schema schema) {
+    Schema nonNullable = schema != null && schema.isNullable() ? schema.getNonNullable() : schema;
+
+    if (cobolType instanceof CobolComplexType) {
+      return new CobolRecordDecoder.RecordFieldDecoder((CobolComplexType) cobolType, this, nonNullable);
+    }
+    if (cobolType instanceof CobolArrayType) {
+      CobolArrayType arrayType = (CobolArrayType) cobolType;
+      return new CobolRecordDecoder.ArrayFieldDecoder(arrayType, create(fieldName, arrayType.getItemType(),
+                                                                        nonNullable == null
+                                                                          ? null : nonNullable.getComponentSchema()));
+    }
+    if (cobolType instanceof CobolChoiceType) {
+      return new CobolRecordDecoder.ChoiceFieldDecoder(fieldName, (CobolChoiceType) cobolType, this, nonNullable);
+    }
+    if (cobolType instanceof CobolDecimalType
+      && DecimalFieldDecoder.isSupported((CobolDecimalType<?>) cobolType, nonNullable)) {
+      return new DecimalFieldDecoder(fieldName, (CobolDecimalType<?>) cobolType, cobolContext.getHostPlusSign(),
+                                     cobolContext.getHostMinusSign(), nonNullable, options.isTrustedInput());
+    }
+    if (cobolType instanceof CobolBinaryType
+      && BinaryFieldDecoder.isSupported((CobolBinaryType<?>) cobolType, nonNullable)) {
+      return new BinaryFieldDecoder(fieldName, (CobolBinaryType<?>) cobolType, nonNullable,
+                                    options.isTrustedInput());
+    }
+    if (cobolType instanceof CobolPrimitiveType
+      && FloatFieldDecoder.isSupported((CobolPrimitiveType<?>) cobolType, nonNullable)) {
+      return new FloatFieldDecoder((CobolPrimitiveType<?>) cobolType, nonNullable);
+    }
+    if (cobolType instanceof CobolStringType && stringTable != null
+      && (nonNullable == null || nonNullable.getType() == Schema.Type.STRING)) {
+      // Each field has its own cache, such that a high cardinality field doesn't prevent caching other fields
+      StringCache cache = nonNullable != null && options.getStringCacheSize() > 0
+        ? new StringCache(options.getStringCacheSize()) : null;
+      return new StringFieldDecoder((CobolStringType<?>) cobolType, stringTable, cobolContext,
+                                    options.isBlankStringsAsNull(), nonNullable != null, cache);
+    }
+    if (cobolType instanceof CobolPrimitiveType) {
+      return new PrimitiveFieldDecoder(fieldName, (CobolPrimitiveType<?>) cobolType, nonNullable,
+                                       options.isBlankStringsAsNull());
+    }
+    throw new IllegalArgumentException("Unsupported COBOL type " + cobolType.getClass().getName()
+                                         + " for field " + fieldName);
+  }
+}
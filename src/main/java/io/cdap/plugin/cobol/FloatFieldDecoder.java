@@ -0,0 +1,131 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.cdap.plugin.cobol;
+
+import com.legstar.base.type.primitive.CobolDoubleType;
+import com.legstar.base.type.primitive.CobolFloatType;
+import com.legstar.base.type.primitive.CobolPrimitiveType;
+import com.legstar.base.visitor.FromCobolException;
+import io.cdap.cdap.api.data.schema.Schema;
+
+import javax.annotation.Nullable;
+
+/**
+ * {@link FieldDecoder} for IBM hexadecimal floating point items, single precision (COMP-1) or double precision
+ * (COMP-2). The value is converted from the base 16 exponent and fraction straight into a {@code float} or
+ * {@code double}.
+ * <p>
+ * Values are the same as the ones decoded by legstar, which keeps the 24 bits of a single precision fraction and the
+ * 53 high order bits of a double precision fraction. Values beyond the range of the Java type decode as infinity or
+ * zero, and a zero fraction decodes as zero whatever the exponent.
+ * </p>
+ */
+final class FloatFieldDecoder extends FieldDecoder {
+
+  private final CobolPrimitiveType<?> cobolType;
+  private final boolean doublePrecision;
+  @Nullable
+  private final Schema.Type targetType;
+  private final int bytesLen;
+
+  /**
+   * Creates a decoder.
+   *
+   * @param cobolType the COBOL type of the field, which must be supported according to {@link #isSupported}
+   * @param schema the schema of the field or {@code null} if the field is only skipped
+   */
+  FloatFieldDecoder(CobolPrimitiveType<?> cobolType, @Nullable Schema schema) {
+    this.cobolType = cobolType;
+    this.doublePrecision = cobolType instanceof CobolDoubleType;
+    this.targetType = schema == null ? null : schema.getType();
+    this.bytesLen = cobolType.getBytesLen();
+  }
+
+  /**
+   * Returns whether an item of the given COBOL type can be decoded by this class into the given schema.
+   */
+  static boolean isSupported(CobolPrimitiveType<?> cobolType, @Nullable Schema schema) {
+    if (!(cobolType instanceof CobolFloatType || cobolType instanceof CobolDoubleType) || cobolType.isOdoObject()) {
+      return false;
+    }
+    return schema == null || schema.getType() == Schema.Type.FLOAT || schema.getType() == Schema.Type.DOUBLE;
+  }
+
+  @Nullable
+  @Override
+  Object decode(DecodeState state) {
+    if (state.position >= state.limit) {
+      return null;
+    }
+    if (state.position + bytesLen > state.limit) {
+      throw new FromCobolException("Truncated value of " + bytesLen + " bytes at offset " + state.position,
+                                   cobolType.getCobolName(), cobolType);
+    }
+    int position = state.position;
+    state.position += bytesLen;
+    if (targetType == null) {
+      return null;
+    }
+    if (doublePrecision) {
+      double value = decodeDouble(state.data, position);
+      return targetType == Schema.Type.FLOAT ? (Object) (float) value : (Object) value;
+    }
+    float value = decodeFloat(state.data, position);
+    return targetType == Schema.Type.DOUBLE ? (Object) (double) value : (Object) value;
+  }
+
+  @Override
+  void skip(DecodeState state) {
+    advance(state, bytesLen);
+  }
+
+  @Override
+  int getFixedLength() {
+    return bytesLen;
+  }
+
+  /**
+   * Decodes a single precision IBM hexadecimal floating point number: a sign bit, a 7 bits base 16 exponent in
+   * excess 64 notation and a 24 bits fraction.
+   */
+  static float decodeFloat(byte[] data, int position) {
+    int bits = (int) BinaryFieldDecoder.decodeBinary(data, position, 4, true);
+    int fraction = bits & 0xFFFFFF;
+    if (fraction == 0) {
+      return 0f;
+    }
+    int exponent = (bits >>> 24) & 0x7F;
+    // value = fraction / 2^24 * 16^(exponent - 64)
+    float value = Math.scalb((float) fraction, 4 * (exponent - 64) - 24);
+    return bits < 0 ? -value : value;
+  }
+
+  /**
+   * Decodes a double precision IBM hexadecimal floating point number: a sign bit, a 7 bits base 16 exponent in
+   * excess 64 notation and a 56 bits fraction, of which the 3 low order bits are dropped.
+   */
+  static double decodeDouble(byte[] data, int position) {
+    long bits = BinaryFieldDecoder.decodeBinary(data, position, 8, true);
+    long fraction = (bits & 0xFFFFFFFFFFFFFFL) >>> 3;
+    if (fraction == 0) {
+      return 0d;
+    }
+    int exponent = (int) (bits >>> 56) & 0x7F;
+    // value = fraction / 2^53 * 16^(exponent - 64), exact since the fraction fits in the 53 bits of a double
+    double value = Math.scalb((double) fraction, 4 * (exponent - 64) - 53);
+    return bits < 0 ? -value : value;
+  }
+}
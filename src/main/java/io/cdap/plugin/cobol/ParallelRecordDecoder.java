@@ -0,0 +1,193 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.cdap.plugin.cobol;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.collect.AbstractIterator;
+import io.cdap.cdap.api.data.format.StructuredRecord;
+import io.cdap.cdap.api.data.schema.Schema;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Decodes the records of a single payload in parallel. The record boundaries are found first, either by walking
+ * the Record Descriptor Words or from the fixed record length, and the payload is cut into chunks of records that
+ * are decoded on a bounded {@link ForkJoinPool}. Records are returned in their original order.
+ * <p>
+ * Only payloads of records prefixed with a Record Descriptor Word or of fixed length records can be decoded in
+ * parallel, since the boundaries of other records are only known after decoding them.
+ * </p>
+ */
+public final class ParallelRecordDecoder implements Closeable {
+
+  private final boolean hasRecordDescriptorWord;
+  private final int recordLength;
+  private final int chunkSize;
+  private final int maxPendingChunks;
+  private final ForkJoinPool pool;
+  private final ThreadLocal<CobolRecordDecoder> decoders;
+
+  /**
+   * Creates a new instance.
+   *
+   * @param copybookReader the {@link CopybookReader} to create one {@link CobolRecordDecoder} per thread
+   * @param charset the charset used to create EBCDIC COBOL context
+   * @param schema the CDAP schema of the records
+   * @param options the {@link RecordDecoderOptions} of the decoders
+   * @param hasRecordDescriptorWord {@code true} for data that has the record descriptor word prefix for each record;
+   *                                {@code false} for fixed length records
+   * @param parallelism the number of threads to decode with
+   * @param chunkSize the number of records decoded by each task
+   * @throws IOException if failed to create the decoder
+   * @throws IllegalArgumentException if the records are neither prefixed with a Record Descriptor Word nor of
+   *                                  fixed length
+   */
+  public ParallelRecordDecoder(final CopybookReader copybookReader, final String charset, final Schema schema,
+                               final RecordDecoderOptions options, boolean hasRecordDescriptorWord,
+                               int parallelism, int chunkSize) throws IOException {
+    Preconditions.checkArgument(parallelism > 0, "Parallelism must be positive: %s", parallelism);
+    Preconditions.checkArgument(chunkSize > 0, "Chunk size must be positive: %s", chunkSize);
+
+    CobolRecordDecoder decoder = copybookReader.createRecordDecoder(charset, schema, options);
+    Preconditions.checkArgument(isSupported(decoder, hasRecordDescriptorWord),
+                                "Variable length records without Record Descriptor Word can't be decoded in parallel");
+
+    this.hasRecordDescriptorWord = hasRecordDescriptorWord;
+    this.recordLength = decoder.getMaxRecordLength();
+    this.chunkSize = chunkSize;
+    // Decode ahead of the consumer by a bounded number of chunks to limit memory usage
+    this.maxPendingChunks = parallelism * 2;
+    this.pool = new ForkJoinPool(parallelism);
+    this.decoders = new ThreadLocal<CobolRecordDecoder>() {
+      @Override
+      protected CobolRecordDecoder initialValue() {
+        try {
+          return copybookReader.createRecordDecoder(charset, schema, options);
+        } catch (IOException e) {
+          throw Throwables.propagate(e);
+        }
+      }
+    };
+  }
+
+  /**
+   * Returns whether the records decoded by the given decoder can be decoded in parallel.
+   */
+  public static boolean isSupported(CobolRecordDecoder decoder, boolean hasRecordDescriptorWord) {
+    return hasRecordDescriptorWord || decoder.getMinRecordLength() == decoder.getMaxRecordLength();
+  }
+
+  /**
+   * Decodes the remaining bytes of the given buffer. The position of the buffer is not modified.
+   *
+   * @param buffer the buffer to decode
+   * @return an {@link Iterator} of the decoded records, in the order of the buffer
+   */
+  public Iterator<StructuredRecord> decode(ByteBuffer buffer) {
+    final ByteBuffer data = buffer.duplicate();
+    return new AbstractIterator<StructuredRecord>() {
+
+      private final Deque<Future<List<StructuredRecord>>> pending = new ArrayDeque<>();
+      private Iterator<StructuredRecord> current = Collections.emptyIterator();
+      private int position = data.position();
+
+      @Override
+      protected StructuredRecord computeNext() {
+        while (!current.hasNext()) {
+          while (pending.size() < maxPendingChunks && position < data.limit()) {
+            int end = findChunkEnd(data, position);
+            pending.add(pool.submit(createTask(data, position, end)));
+            position = end;
+          }
+          if (pending.isEmpty()) {
+            return endOfData();
+          }
+          current = getResult(pending.poll()).iterator();
+        }
+        return current.next();
+      }
+    };
+  }
+
+  @Override
+  public void close() {
+    pool.shutdownNow();
+  }
+
+  /**
+   * Returns the end position of the chunk of records starting at the given position.
+   */
+  private int findChunkEnd(ByteBuffer data, int position) {
+    int limit = data.limit();
+    if (!hasRecordDescriptorWord) {
+      return (int) Math.min(limit, position + (long) chunkSize * recordLength);
+    }
+    for (int i = 0; i < chunkSize && position < limit; i++) {
+      if (position + CobolRecordReader.RDW_LEN > limit) {
+        // Truncated record, which will fail when decoded
+        return limit;
+      }
+      int length = ((data.get(position) & 0xFF) << 8) | (data.get(position + 1) & 0xFF);
+      if (length < CobolRecordReader.RDW_LEN) {
+        // Invalid Record Descriptor Word, which will fail when decoded
+        return limit;
+      }
+      position += length;
+    }
+    return Math.min(position, limit);
+  }
+
+  private Callable<List<StructuredRecord>> createTask(ByteBuffer data, int start, int end) {
+    final ByteBuffer chunk = data.duplicate();
+    chunk.limit(end).position(start);
+    return new Callable<List<StructuredRecord>>() {
+      @Override
+      public List<StructuredRecord> call() throws Exception {
+        List<StructuredRecord> records = new ArrayList<>(chunkSize);
+        try (CobolRecordReader reader = new CobolRecordReader(chunk, decoders.get(), hasRecordDescriptorWord)) {
+          for (StructuredRecord record : reader) {
+            records.add(record);
+          }
+        }
+        return records;
+      }
+    };
+  }
+
+  private static List<StructuredRecord> getResult(Future<List<StructuredRecord>> future) {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw Throwables.propagate(e);
+    } catch (ExecutionException e) {
+      throw Throwables.propagate(e.getCause());
+    }
+  }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.cdap.plugin.cobol;
+
+import com.google.common.base.Throwables;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Iterators;
+import io.cdap.cdap.api.data.format.StructuredRecord;
+import io.cdap.cdap.api.data.schema.Schema;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import javax.annotation.Nullable;
+
+/**
+ * {@link Iterator} of the records decoded from all the input records of a partition. A single decoder is created for
+ * the whole partition and records are decoded lazily, one input record at a time.
+ */
+final class PartitionRecordIterator extends AbstractIterator<StructuredRecord> {
+
+  private final Iterator<StructuredRecord> input;
+  private final String contentFieldName;
+  private final boolean hasRecordDescriptorWord;
+  private final boolean singleRecord;
+  private final CobolRecordDecoder decoder;
+  private final CobolRecordReader reader;
+  @Nullable
+  private final CobolAvroEncoder avroEncoder;
+  @Nullable
+  private final Schema avroOutputSchema;
+  @Nullable
+  private final String avroSchemaFieldName;
+  private Iterator<StructuredRecord> records;
+
+  PartitionRecordIterator(CobolRecordConverterConfig config, Iterator<StructuredRecord> input) throws IOException {
+    CopybookReader copybookReader = config.getCopybookReader();
+    this.input = input;
+    this.contentFieldName = config.getContentFieldName();
+    this.hasRecordDescriptorWord = config.hasRDW();
+    this.singleRecord = config.isSingleRecord();
+    this.decoder = config.createRecordDecoder(copybookReader, config.getOutputSchemaAndValidate(copybookReader));
+    this.reader = new CobolRecordReader(decoder, hasRecordDescriptorWord);
+    if (config.getOutputFormat() == CobolRecordConverterConfig.OutputFormat.AVRO) {
+      this.avroEncoder = new CobolAvroEncoder(decoder, hasRecordDescriptorWord);
+      this.avroOutputSchema = config.getAvroOutputSchema();
+      this.avroSchemaFieldName = config.getAvroSchemaFieldName();
+    } else {
+      this.avroEncoder = null;
+      this.avroOutputSchema = null;
+      this.avroSchemaFieldName = null;
+    }
+    this.records = Iterators.emptyIterator();
+  }
+
+  @Override
+  protected StructuredRecord computeNext() {
+    while (!records.hasNext()) {
+      if (!input.hasNext()) {
+        return endOfData();
+      }
+      Object body = input.next().get(contentFieldName);
+      if (body == null) {
+        continue;
+      }
+      ByteBuffer buffer = body instanceof ByteBuffer ? (ByteBuffer) body : ByteBuffer.wrap((byte[]) body);
+      try {
+        if (singleRecord) {
+          records = avroEncoder == null ? singleton(decoder.decodeExactly(buffer))
+            : toAvroRecords(singleton(avroEncoder.encodeExactly(buffer)));
+        } else {
+          records = avroEncoder == null ? reader.reset(buffer) : toAvroRecords(avroEncoder.encode(buffer).iterator());
+        }
+      } catch (IOException e) {
+        throw Throwables.propagate(e);
+      }
+    }
+    return records.next();
+  }
+
+  private static <T> Iterator<T> singleton(@Nullable T value) {
+    // The value is null if the record doesn't match the filter of the decoder
+    return value == null ? Iterators.<T>emptyIterator() : Iterators.singletonIterator(value);
+  }
+
+  private Iterator<StructuredRecord> toAvroRecords(final Iterator<ByteBuffer> iterator) {
+    final String writerSchema = avroEncoder.getSchema().toString();
+    return new AbstractIterator<StructuredRecord>() {
+      @Override
+      protected StructuredRecord computeNext() {
+        if (!iterator.hasNext()) {
+          return endOfData();
+        }
+        StructuredRecord.Builder builder = StructuredRecord.builder(avroOutputSchema)
+          .set(contentFieldName, iterator.next());
+        if (avroSchemaFieldName != null) {
+          builder.set(avroSchemaFieldName, writerSchema);
+        }
+        return builder.build();
+      }
+    };
+  }
+}
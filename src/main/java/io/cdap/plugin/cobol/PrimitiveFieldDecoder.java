@@ -0,0 +1,125 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.cobol;
+
+import com.legstar.base.type.primitive.CobolPrimitiveType;
+import com.legstar.base.type.primitive.FromHostPrimitiveResult;
+import com.legstar.base.visitor.FromCobolException;
+import io.cdap.cdap.api.data.schema.Schema;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import javax.annotation.Nullable;
+
+/**
+ * {@link FieldDecoder} for COBOL elementary items, decoded with the legstar {@link CobolPrimitiveType}.
+ */
+class PrimitiveFieldDecoder extends FieldDecoder {
+
+  private final String fieldName;
+  private final CobolPrimitiveType<?> cobolType;
+  @Nullable
+  private final Schema.Type targetType;
+  private final int bytesLen;
+  private final boolean blankAsNull;
+
+  /**
+   * Creates a decoder.
+   *
+   * @param fieldName the name of the field
+   * @param cobolType the COBOL type of the field
+   * @param schema the schema of the field or {@code null} if the field is only skipped
+   * @param blankAsNull {@code true} to decode strings made only of spaces or LOW-VALUES as {@code null}
+   */
+  PrimitiveFieldDecoder(String fieldName, CobolPrimitiveType<?> cobolType, @Nullable Schema schema,
+                        boolean blankAsNull) {
+    this.fieldName = fieldName;
+    this.cobolType = cobolType;
+    Schema nonNullable = schema != null && schema.isNullable() ? schema.getNonNullable() : schema;
+    this.targetType = nonNullable == null ? null : nonNullable.getType();
+    this.bytesLen = cobolType.getBytesLen();
+    this.blankAsNull = blankAsNull;
+  }
+
+  @Nullable
+  @Override
+  Object decode(DecodeState state) {
+    if (state.position >= state.limit) {
+      return null;
+    }
+    FromHostPrimitiveResult<?> result = cobolType.fromHost(state.getCobolContext(), state.data, state.position);
+    if (!result.isSuccess()) {
+      throw new FromCobolException(result.getErrorMessage(), cobolType.getCobolName(), cobolType);
+    }
+    state.position += bytesLen;
+
+    Object value = result.getValue();
+    if (cobolType.isOdoObject()) {
+      state.putVariable(fieldName, value);
+    }
+    return convert(value);
+  }
+
+  @Override
+  void skip(DecodeState state) {
+    if (cobolType.isOdoObject()) {
+      decode(state);
+    } else {
+      advance(state, bytesLen);
+    }
+  }
+
+  @Override
+  int getFixedLength() {
+    return cobolType.isOdoObject() ? -1 : bytesLen;
+  }
+
+  /**
+   * Converts a value produced by legstar into the representation expected by the CDAP schema.
+   */
+  @Nullable
+  private Object convert(@Nullable Object value) {
+    if (value == null || targetType == null) {
+      return value;
+    }
+    switch (targetType) {
+      case INT:
+        return ((Number) value).intValue();
+      case LONG:
+        return ((Number) value).longValue();
+      case FLOAT:
+        return ((Number) value).floatValue();
+      case DOUBLE:
+        return ((Number) value).doubleValue();
+      case STRING:
+        String str = value.toString();
+        // Strings of spaces are only trimmed to empty if the COBOL context truncates trailing spaces
+        return blankAsNull && str.trim().isEmpty() ? null : str;
+      case BYTES:
+        if (value instanceof BigDecimal) {
+          return ByteBuffer.wrap(((BigDecimal) value).unscaledValue().toByteArray());
+        }
+        if (value instanceof BigInteger) {
+          return ByteBuffer.wrap(((BigInteger) value).toByteArray());
+        }
+        return value;
+      default:
+        return value;
+    }
+  }
+}
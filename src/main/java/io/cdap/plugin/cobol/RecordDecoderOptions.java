@@ -0,0 +1,148 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.cdap.plugin.cobol;
+
+import javax.annotation.Nullable;
+
+/**
+ * Options of a {@link CobolRecordDecoder}. Instances are immutable and created with a {@link Builder}.
+ */
+public final class RecordDecoderOptions {
+
+  /**
+   * How alphanumeric (PIC X) fields are decoded.
+   */
+  public enum StringDecoding {
+    /**
+     * Decodes with a table of the 256 characters of a single byte charset. Falls back to {@link #CHARSET} for
+     * multi-byte charsets.
+     */
+    TABLE,
+
+    /**
+     * Decodes with the {@link java.nio.charset.Charset} decoder of the charset.
+     */
+    CHARSET
+  }
+
+  public static final int DEFAULT_STRING_CACHE_SIZE = 256;
+
+  private static final RecordDecoderOptions DEFAULT = builder().build();
+
+  private final String filter;
+  private final StringDecoding stringDecoding;
+  private final boolean blankStringsAsNull;
+  private final int stringCacheSize;
+  private final boolean trustedInput;
+
+  private RecordDecoderOptions(Builder builder) {
+    this.filter = builder.filter;
+    this.stringDecoding = builder.stringDecoding;
+    this.blankStringsAsNull = builder.blankStringsAsNull;
+    this.stringCacheSize = builder.stringCacheSize;
+    this.trustedInput = builder.trustedInput;
+  }
+
+  /**
+   * Returns the options that decode all records with the default settings.
+   */
+  public static RecordDecoderOptions defaults() {
+    return DEFAULT;
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * Returns the {@link RecordFilter} expression the records must match or {@code null} to decode all records.
+   */
+  @Nullable
+  public String getFilter() {
+    return filter;
+  }
+
+  public StringDecoding getStringDecoding() {
+    return stringDecoding;
+  }
+
+  /**
+   * Returns whether alphanumeric fields made only of spaces or LOW-VALUES are decoded as {@code null} rather than
+   * as an empty string. The schema of such fields must be nullable.
+   */
+  public boolean isBlankStringsAsNull() {
+    return blankStringsAsNull;
+  }
+
+  /**
+   * Returns the maximum number of distinct values cached per alphanumeric field, so that repeated values share the
+   * same {@link String} instance. Caching is disabled if {@code 0}.
+   */
+  public int getStringCacheSize() {
+    return stringCacheSize;
+  }
+
+  /**
+   * Returns whether the input is trusted to be valid, in which case numeric fields are decoded without validating
+   * their digits, sign and range. Invalid input then decodes to unspecified values instead of failing.
+   */
+  public boolean isTrustedInput() {
+    return trustedInput;
+  }
+
+  /**
+   * Builder for {@link RecordDecoderOptions}.
+   */
+  public static final class Builder {
+    private String filter;
+    private StringDecoding stringDecoding = StringDecoding.TABLE;
+    private boolean blankStringsAsNull;
+    private int stringCacheSize = DEFAULT_STRING_CACHE_SIZE;
+    private boolean trustedInput;
+
+    private Builder() {
+    }
+
+    public Builder setFilter(@Nullable String filter) {
+      this.filter = filter;
+      return this;
+    }
+
+    public Builder setStringDecoding(StringDecoding stringDecoding) {
+      this.stringDecoding = stringDecoding;
+      return this;
+    }
+
+    public Builder setBlankStringsAsNull(boolean blankStringsAsNull) {
+      this.blankStringsAsNull = blankStringsAsNull;
+      return this;
+    }
+
+    public Builder setStringCacheSize(int stringCacheSize) {
+      this.stringCacheSize = stringCacheSize;
+      return this;
+    }
+
+    public Builder setTrustedInput(boolean trustedInput) {
+      this.trustedInput = trustedInput;
+      return this;
+    }
+
+    public RecordDecoderOptions build() {
+      return new RecordDecoderOptions(this);
+    }
+  }
+}
@@ -0,0 +1,583 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.cdap.plugin.cobol;
+
+import com.legstar.base.context.CobolContext;
+import com.legstar.base.type.CobolOptionalType;
+import com.legstar.base.type.CobolType;
+import com.legstar.base.type.composite.CobolChoiceType;
+import com.legstar.base.type.composite.CobolComplexType;
+import com.legstar.base.type.primitive.CobolDecimalType;
+import com.legstar.base.type.primitive.CobolPackedDecimalType;
+import com.legstar.base.type.primitive.CobolPrimitiveType;
+import com.legstar.base.type.primitive.CobolStringType;
+import com.legstar.base.type.primitive.CobolZonedDecimalType;
+import com.legstar.base.type.primitive.FromHostPrimitiveResult;
+import com.legstar.base.visitor.FromCobolException;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Filter evaluated on the raw bytes of a COBOL record, before the record is decoded. The fields referenced by the
+ * filter must be elementary items at a fixed offset from the start of the record, which is the case for all items
+ * that precede the first variable length item of the copybook and are not part of an array.
+ * <p>
+ * A filter expression compares fields with literals and combines the comparisons with {@code AND}, {@code OR},
+ * {@code NOT} and parentheses, for example {@code RECORD-TYPE = 'D' AND REGION-CODE IN (10, 20)}. Fields are
+ * referenced either by their COBOL name or by their dotted path in the output schema. The supported comparison
+ * operators are {@code =}, {@code !=}, {@code <>}, {@code <}, {@code <=}, {@code >}, {@code >=}, {@code IN} and
+ * {@code NOT IN}.
+ * </p>
+ * <p>
+ * Alphanumeric fields are compared with quoted string literals, encoded with the host charset and padded with
+ * spaces, in the collating sequence of the host charset. Zoned and packed decimal fields of up to 18 digits are
+ * compared with numeric literals without creating any object; other numeric fields are decoded on their own.
+ * A comparison on a field that lies past the end of a shorter record is false. Instances of this class are
+ * immutable and thread safe.
+ * </p>
+ */
+public final class RecordFilter {
+
+  private final Condition condition;
+
+  private RecordFilter(Condition condition) {
+    this.condition = condition;
+  }
+
+  /**
+   * Compiles a filter expression.
+   *
+   * @param expression the filter expression
+   * @param cobolType the {@link CobolComplexType} of the records to filter
+   * @param cobolContext the {@link CobolContext} to interpret the bytes of the records
+   * @return the compiled {@link RecordFilter}
+   * @throws IllegalArgumentException if the expression is invalid or references a field that can't be filtered on
+   */
+  public static RecordFilter parse(String expression, CobolComplexType cobolType, CobolContext cobolContext) {
+    List<FilterField> fields = new ArrayList<>();
+    collectFields(cobolType.getFields(), "", 0L, fields);
+    return new RecordFilter(new Parser(expression, fields, cobolContext).parse());
+  }
+
+  /**
+   * Returns whether the record stored in the given range of bytes matches this filter.
+   *
+   * @param data the buffer containing the record
+   * @param offset offset of the first byte of the record
+   * @param limit offset one past the last byte of the record
+   */
+  public boolean matches(byte[] data, int offset, int limit) {
+    return condition.test(data, offset, limit);
+  }
+
+  /**
+   * Collects the elementary items at a fixed offset, in copybook order.
+   *
+   * @return the offset following the given fields or {@code -1} if it is not fixed
+   */
+  private static long collectFields(Map<String, CobolType> fields, String prefix, long offset,
+                                    List<FilterField> result) {
+    for (Map.Entry<String, CobolType> entry : fields.entrySet()) {
+      CobolType type = entry.getValue();
+      String path = prefix + entry.getKey();
+      if (offset < 0 || offset > Integer.MAX_VALUE
+        || (type instanceof CobolOptionalType && ((CobolOptionalType) type).getDependingOn() != null)) {
+        return -1L;
+      }
+      if (type instanceof CobolPrimitiveType) {
+        result.add(new FilterField(path, (CobolPrimitiveType<?>) type, (int) offset));
+      } else if (type instanceof CobolComplexType) {
+        collectFields(((CobolComplexType) type).getFields(), path + ".", offset, result);
+      } else if (type instanceof CobolChoiceType) {
+        // All alternatives redefine the same bytes
+        for (Map.Entry<String, CobolType> alternative : ((CobolChoiceType) type).getAlternatives().entrySet()) {
+          collectFields(Collections.singletonMap(alternative.getKey(), alternative.getValue()), prefix, offset, result);
+        }
+      }
+      offset = type.getMinBytesLen() == type.getMaxBytesLen() ? offset + type.getMaxBytesLen() : -1L;
+    }
+    return offset;
+  }
+
+  /**
+   * An elementary item that can be filtered on.
+   */
+  private static final class FilterField {
+    private final String path;
+    private final CobolPrimitiveType<?> type;
+    private final int offset;
+
+    FilterField(String path, CobolPrimitiveType<?> type, int offset) {
+      this.path = path;
+      this.type = type;
+      this.offset = offset;
+    }
+  }
+
+  /**
+   * A boolean condition on the bytes of a record.
+   */
+  private interface Condition {
+    boolean test(byte[] data, int offset, int limit);
+  }
+
+  private static final class And implements Condition {
+    private final Condition left;
+    private final Condition right;
+
+    And(Condition left, Condition right) {
+      this.left = left;
+      this.right = right;
+    }
+
+    @Override
+    public boolean test(byte[] data, int offset, int limit) {
+      return left.test(data, offset, limit) && right.test(data, offset, limit);
+    }
+  }
+
+  private static final class Or implements Condition {
+    private final Condition left;
+    private final Condition right;
+
+    Or(Condition left, Condition right) {
+      this.left = left;
+      this.right = right;
+    }
+
+    @Override
+    public boolean test(byte[] data, int offset, int limit) {
+      return left.test(data, offset, limit) || right.test(data, offset, limit);
+    }
+  }
+
+  private static final class Not implements Condition {
+    private final Condition condition;
+
+    Not(Condition condition) {
+      this.condition = condition;
+    }
+
+    @Override
+    public boolean test(byte[] data, int offset, int limit) {
+      return !condition.test(data, offset, limit);
+    }
+  }
+
+  /**
+   * Comparison operators.
+   */
+  private enum Operator {
+    EQ, NE, LT, LE, GT, GE;
+
+    boolean test(int comparison) {
+      switch (this) {
+        case EQ:
+          return comparison == 0;
+        case NE:
+          return comparison != 0;
+        case LT:
+          return comparison < 0;
+        case LE:
+          return comparison <= 0;
+        case GT:
+          return comparison > 0;
+        default:
+          return comparison >= 0;
+      }
+    }
+  }
+
+  /**
+   * Comparison of a field with a literal.
+   */
+  private static final class Comparison implements Condition {
+    private final int fieldOffset;
+    private final int fieldLength;
+    private final Operator operator;
+    private final Operand operand;
+
+    Comparison(FilterField field, Operator operator, Operand operand) {
+      this.fieldOffset = field.offset;
+      this.fieldLength = field.type.getBytesLen();
+      this.operator = operator;
+      this.operand = operand;
+    }
+
+    @Override
+    public boolean test(byte[] data, int offset, int limit) {
+      int position = offset + fieldOffset;
+      if (position + fieldLength > limit) {
+        return false;
+      }
+      return operator.test(operand.compare(data, position));
+    }
+  }
+
+  /**
+   * A literal compiled for the type of the field it is compared with.
+   */
+  private abstract static class Operand {
+
+    /**
+     * Compares the field stored at the given position with the literal.
+     *
+     * @return a negative value, zero or a positive value if the field is less than, equal to or greater than
+     *         the literal
+     */
+    abstract int compare(byte[] data, int position);
+  }
+
+  /**
+   * String literal compared with an alphanumeric field, byte by byte, as if both were padded with spaces.
+   */
+  private static final class StringOperand extends Operand {
+    private final byte[] literal;
+    private final int length;
+    private final int space;
+
+    StringOperand(String literal, int length, CobolContext cobolContext) {
+      this.literal = literal.getBytes(Charset.forName(cobolContext.getHostCharsetName()));
+      this.length = length;
+      this.space = cobolContext.getHostSpaceCharCode() & 0xFF;
+    }
+
+    @Override
+    int compare(byte[] data, int position) {
+      int max = Math.max(length, literal.length);
+      for (int i = 0; i < max; i++) {
+        int left = i < length ? data[position + i] & 0xFF : space;
+        int right = i < literal.length ? literal[i] & 0xFF : space;
+        if (left != right) {
+          return left - right;
+        }
+      }
+      return 0;
+    }
+  }
+
+  /**
+   * Numeric literal compared with a zoned or packed decimal field of at most 18 digits, decoded into its unscaled
+   * {@code long} value.
+   */
+  private static final class DecimalOperand extends Operand {
+    // The literal scaled to the field scale, rounded down, and whether the rounding was exact
+    private final long floor;
+    private final boolean exact;
+    private final CobolDecimalType<?> type;
+    private final int plusSign;
+    private final int minusSign;
+
+    DecimalOperand(BigDecimal literal, CobolDecimalType<?> type, CobolContext cobolContext) {
+      BigDecimal scaled = literal.movePointRight(type.getFractionDigits());
+      BigDecimal bound = BigDecimal.TEN.pow(DecimalFieldDecoder.MAX_DIGITS);
+      // Clamp the literal, which is out of range of all the field values anyway
+      if (scaled.compareTo(bound) >= 0) {
+        scaled = bound;
+      } else if (scaled.compareTo(bound.negate()) <= 0) {
+        scaled = bound.negate();
+      }
+      BigDecimal floor = scaled.setScale(0, RoundingMode.FLOOR);
+      this.floor = floor.longValueExact();
+      this.exact = floor.compareTo(scaled) == 0;
+      this.type = type;
+      this.plusSign = cobolContext.getHostPlusSign() & 0xFF;
+      this.minusSign = cobolContext.getHostMinusSign() & 0xFF;
+    }
+
+    @Override
+    int compare(byte[] data, int position) {
+      long value = type instanceof CobolPackedDecimalType
+        ? DecimalFieldDecoder.decodePacked(type, data, position)
+        : DecimalFieldDecoder.decodeZoned((CobolZonedDecimalType<?>) type, plusSign, minusSign, data, position);
+      if (value != floor) {
+        return value < floor ? -1 : 1;
+      }
+      return exact ? 0 : -1;
+    }
+  }
+
+  /**
+   * Numeric literal compared with any other numeric field, decoded with legstar.
+   */
+  private static final class NumberOperand extends Operand {
+    private final BigDecimal literal;
+    private final CobolPrimitiveType<?> type;
+    private final CobolContext cobolContext;
+
+    NumberOperand(BigDecimal literal, CobolPrimitiveType<?> type, CobolContext cobolContext) {
+      this.literal = literal;
+      this.type = type;
+      this.cobolContext = cobolContext;
+    }
+
+    @Override
+    int compare(byte[] data, int position) {
+      FromHostPrimitiveResult<?> result = type.fromHost(cobolContext, data, position);
+      if (!result.isSuccess()) {
+        throw new FromCobolException(result.getErrorMessage(), type.getCobolName(), type);
+      }
+      return toBigDecimal(result.getValue()).compareTo(literal);
+    }
+
+    private static BigDecimal toBigDecimal(Object value) {
+      if (value instanceof BigDecimal) {
+        return (BigDecimal) value;
+      }
+      if (value instanceof BigInteger) {
+        return new BigDecimal((BigInteger) value);
+      }
+      if (value instanceof Float || value instanceof Double) {
+        return BigDecimal.valueOf(((Number) value).doubleValue());
+      }
+      return BigDecimal.valueOf(((Number) value).longValue());
+    }
+  }
+
+  /**
+   * Recursive descent parser of filter expressions.
+   */
+  private static final class Parser {
+    private final String expression;
+    private final List<FilterField> fields;
+    private final CobolContext cobolContext;
+    private int position;
+
+    Parser(String expression, List<FilterField> fields, CobolContext cobolContext) {
+      this.expression = expression;
+      this.fields = fields;
+      this.cobolContext = cobolContext;
+    }
+
+    Condition parse() {
+      Condition condition = parseOr();
+      skipWhitespaces();
+      if (position < expression.length()) {
+        throw error("Unexpected '" + expression.charAt(position) + "'");
+      }
+      return condition;
+    }
+
+    private Condition parseOr() {
+      Condition condition = parseAnd();
+      while (acceptKeyword("OR")) {
+        condition = new Or(condition, parseAnd());
+      }
+      return condition;
+    }
+
+    private Condition parseAnd() {
+      Condition condition = parseNot();
+      while (acceptKeyword("AND")) {
+        condition = new And(condition, parseNot());
+      }
+      return condition;
+    }
+
+    private Condition parseNot() {
+      if (acceptKeyword("NOT")) {
+        return new Not(parseNot());
+      }
+      if (accept("(")) {
+        Condition condition = parseOr();
+        expect(")");
+        return condition;
+      }
+      return parseComparison();
+    }
+
+    private Condition parseComparison() {
+      FilterField field = resolveField(parseIdentifier());
+
+      boolean negate = acceptKeyword("NOT");
+      if (acceptKeyword("IN")) {
+        expect("(");
+        Condition condition = new Comparison(field, Operator.EQ, parseOperand(field));
+        while (accept(",")) {
+          condition = new Or(condition, new Comparison(field, Operator.EQ, parseOperand(field)));
+        }
+        expect(")");
+        return negate ? new Not(condition) : condition;
+      }
+      if (negate) {
+        throw error("Expected IN after NOT");
+      }
+
+      Operator operator;
+      if (accept("=")) {
+        operator = Operator.EQ;
+      } else if (accept("!=") || accept("<>")) {
+        operator = Operator.NE;
+      } else if (accept("<=")) {
+        operator = Operator.LE;
+      } else if (accept(">=")) {
+        operator = Operator.GE;
+      } else if (accept("<")) {
+        operator = Operator.LT;
+      } else if (accept(">")) {
+        operator = Operator.GT;
+      } else {
+        throw error("Expected a comparison operator");
+      }
+      return new Comparison(field, operator, parseOperand(field));
+    }
+
+    private Operand parseOperand(FilterField field) {
+      skipWhitespaces();
+      boolean isString = position < expression.length() && expression.charAt(position) == '\'';
+      CobolPrimitiveType<?> type = field.type;
+
+      if (type instanceof CobolStringType) {
+        if (!isString) {
+          throw error("Field '" + field.path + "' is alphanumeric and must be compared with a quoted string");
+        }
+        return new StringOperand(parseString(), type.getBytesLen(), cobolContext);
+      }
+      if (isString || !Number.class.isAssignableFrom(type.getJavaClass())) {
+        throw error("Field '" + field.path + "' is numeric and must be compared with a number");
+      }
+
+      BigDecimal literal = parseNumber();
+      if (type instanceof CobolDecimalType && DecimalFieldDecoder.isSupported((CobolDecimalType<?>) type, null)) {
+        return new DecimalOperand(literal, (CobolDecimalType<?>) type, cobolContext);
+      }
+      return new NumberOperand(literal, type, cobolContext);
+    }
+
+    private FilterField resolveField(String name) {
+      for (FilterField field : fields) {
+        if (field.path.equals(name)) {
+          return field;
+        }
+      }
+      FilterField result = null;
+      for (FilterField field : fields) {
+        if (name.equalsIgnoreCase(field.type.getCobolName())) {
+          if (result != null) {
+            throw error("Field '" + name + "' is ambiguous, use the path of the field instead");
+          }
+          result = field;
+        }
+      }
+      if (result == null) {
+        throw error("Field '" + name + "' does not exist or is not at a fixed offset in the record");
+      }
+      return result;
+    }
+
+    private String parseIdentifier() {
+      skipWhitespaces();
+      int start = position;
+      while (position < expression.length()) {
+        if (!isIdentifierPart(expression.charAt(position))) {
+          break;
+        }
+        position++;
+      }
+      if (start == position || !Character.isLetter(expression.charAt(start))) {
+        position = start;
+        throw error("Expected a field name");
+      }
+      return expression.substring(start, position);
+    }
+
+    private String parseString() {
+      // Opening quote already checked by the caller, quotes within the string are doubled
+      StringBuilder builder = new StringBuilder();
+      position++;
+      while (true) {
+        if (position >= expression.length()) {
+          throw error("Unterminated string");
+        }
+        char c = expression.charAt(position++);
+        if (c == '\'') {
+          if (position < expression.length() && expression.charAt(position) == '\'') {
+            position++;
+          } else {
+            return builder.toString();
+          }
+        }
+        builder.append(c);
+      }
+    }
+
+    private BigDecimal parseNumber() {
+      int start = position;
+      if (position < expression.length() && "+-".indexOf(expression.charAt(position)) >= 0) {
+        position++;
+      }
+      while (position < expression.length()
+        && (Character.isDigit(expression.charAt(position)) || expression.charAt(position) == '.')) {
+        position++;
+      }
+      try {
+        return new BigDecimal(expression.substring(start, position));
+      } catch (NumberFormatException e) {
+        position = start;
+        throw error("Expected a number");
+      }
+    }
+
+    private boolean acceptKeyword(String keyword) {
+      skipWhitespaces();
+      int end = position + keyword.length();
+      if (end > expression.length()
+        || !expression.substring(position, end).toUpperCase(Locale.ROOT).equals(keyword)
+        || (end < expression.length() && isIdentifierPart(expression.charAt(end)))) {
+        return false;
+      }
+      position = end;
+      return true;
+    }
+
+    private boolean accept(String token) {
+      skipWhitespaces();
+      if (!expression.startsWith(token, position)) {
+        return false;
+      }
+      position += token.length();
+      return true;
+    }
+
+    private void expect(String token) {
+      if (!accept(token)) {
+        throw error("Expected '" + token + "'");
+      }
+    }
+
+    private static boolean isIdentifierPart(char c) {
+      return Character.isLetterOrDigit(c) || c == '-' || c == '_' || c == '.';
+    }
+
+    private void skipWhitespaces() {
+      while (position < expression.length() && Character.isWhitespace(expression.charAt(position))) {
+        position++;
+      }
+    }
+
+    private IllegalArgumentException error(String message) {
+      return new IllegalArgumentException(message + " at position " + position + " of filter '" + expression + "'");
+    }
+  }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.cdap.plugin.cobol;
+
+import com.google.common.base.Preconditions;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Reassembles the records of files that are received as a sequence of chunks, where a record can span multiple
+ * chunks. The bytes of an incomplete record at the end of a chunk are kept per file and completed with the first bytes
+ * of the next chunk of the same file.
+ * <p>
+ * Records must either be prefixed with a Record Descriptor Word or be of fixed length, so that the end of a record
+ * is known without decoding it. At most one incomplete record is kept per file, until the last chunk of the file is
+ * added.
+ * </p>
+ * <p>
+ * All the chunks of a file must be added to the same instance, in order. Chunks of a file added to different
+ * instances, such as different tasks or partitions, leave incomplete records that can't be reassembled.
+ * </p>
+ */
+final class RecordReassembler {
+
+  private final boolean hasRecordDescriptorWord;
+  private final int maxRecordLength;
+  private final byte[] rdw;
+  private final Map<Object, byte[]> tails;
+
+  /**
+   * Creates a reassembler.
+   *
+   * @param decoder the {@link CobolRecordDecoder} for decoding the records
+   * @param hasRecordDescriptorWord {@code true} for data that has the record descriptor word prefix for each record;
+   *                                {@code false} otherwise
+   * @throws IllegalArgumentException if records are of variable length without Record Descriptor Word
+   */
+  RecordReassembler(CobolRecordDecoder decoder, boolean hasRecordDescriptorWord) {
+    Preconditions.checkArgument(hasRecordDescriptorWord || decoder.getMinRecordLength() == decoder.getMaxRecordLength(),
+                                "Variable length records without Record Descriptor Word can't be reassembled "
+                                  + "from chunks");
+    this.hasRecordDescriptorWord = hasRecordDescriptorWord;
+    this.maxRecordLength = decoder.getMaxRecordLength();
+    this.rdw = new byte[CobolRecordReader.RDW_LEN];
+    this.tails = new HashMap<>();
+  }
+
+  /**
+   * Adds the next chunk of a file, which is not its last chunk. The position of the chunk is not modified.
+   *
+   * @param fileId the identifier of the file the chunk belongs to
+   * @param chunk the chunk
+   * @return the buffers containing the complete records, in order, with the same framing as the file. The first
+   *         buffer contains the record completed by this chunk, if any, and the last one is a slice of the chunk
+   *         with its complete records.
+   * @throws IOException if a Record Descriptor Word is invalid
+   */
+  List<ByteBuffer> add(Object fileId, ByteBuffer chunk) throws IOException {
+    List<ByteBuffer> records = new ArrayList<>(2);
+    ByteBuffer data = chunk.duplicate();
+
+    byte[] tail = tails.remove(fileId);
+    if (tail != null) {
+      // Complete the record started in a previous chunk
+      if (hasRecordDescriptorWord && tail.length < CobolRecordReader.RDW_LEN) {
+        tail = append(tail, data, CobolRecordReader.RDW_LEN - tail.length);
+        if (tail.length < CobolRecordReader.RDW_LEN) {
+          tails.put(fileId, tail);
+          return records;
+        }
+      }
+      int frameLength = getFrameLength(tail, 0);
+      tail = append(tail, data, frameLength - tail.length);
+      if (tail.length < frameLength) {
+        tails.put(fileId, tail);
+        return records;
+      }
+      records.add(ByteBuffer.wrap(tail));
+    }
+
+    // Decode the complete records in place and keep the bytes of the last incomplete one
+    int start = data.position();
+    int end = start;
+    while (true) {
+      int remaining = data.limit() - end;
+      int frameLength = maxRecordLength;
+      if (hasRecordDescriptorWord) {
+        if (remaining < CobolRecordReader.RDW_LEN) {
+          break;
+        }
+        data.position(end);
+        data.get(rdw);
+        frameLength = getFrameLength(rdw, 0);
+      }
+      if (remaining < frameLength) {
+        break;
+      }
+      end += frameLength;
+    }
+    if (end > start) {
+      ByteBuffer complete = chunk.duplicate();
+      complete.limit(end).position(start);
+      records.add(complete.slice());
+    }
+    if (end < data.limit()) {
+      data.position(end);
+      tails.put(fileId, append(new byte[0], data, data.remaining()));
+    }
+    return records;
+  }
+
+  /**
+   * Adds the next chunk of a file. The position of the chunk is not modified. The incomplete record of a file is
+   * discarded once its last chunk is added, such that no memory is kept for files that were fully received.
+   *
+   * @param fileId the identifier of the file the chunk belongs to
+   * @param chunk the chunk
+   * @param lastChunk {@code true} if the chunk is the last one of the file
+   * @return the buffers containing the complete records, in order, as returned by {@link #add(Object, ByteBuffer)}.
+   *         For the last chunk of a file of fixed-length records, the last buffer contains the short last record,
+   *         if any.
+   * @throws IOException if a Record Descriptor Word is invalid or if the last chunk of a file of records prefixed
+   *                     with a Record Descriptor Word ends within a record
+   */
+  List<ByteBuffer> add(Object fileId, ByteBuffer chunk, boolean lastChunk) throws IOException {
+    List<ByteBuffer> records = add(fileId, chunk);
+    if (!lastChunk) {
+      return records;
+    }
+    byte[] tail = tails.remove(fileId);
+    if (tail != null) {
+      if (hasRecordDescriptorWord) {
+        throw new IOException("Truncated record: the last chunk of file '" + fileId + "' ends with "
+                                + tail.length + " bytes of an incomplete record");
+      }
+      // Same as a whole file, the short last record is decoded with its missing fields set to null
+      records.add(ByteBuffer.wrap(tail));
+    }
+    return records;
+  }
+
+  /**
+   * Returns the number of files with an incomplete record, waiting for their next chunk.
+   */
+  int getIncompleteFiles() {
+    return tails.size();
+  }
+
+  /**
+   * Returns the identifiers of the files with an incomplete record, waiting for their next chunk.
+   */
+  Set<Object> getIncompleteFileIds() {
+    return Collections.unmodifiableSet(tails.keySet());
+  }
+
+  /**
+   * Returns the length of the record at the given offset, including its Record Descriptor Word.
+   */
+  private int getFrameLength(byte[] data, int offset) throws IOException {
+    if (!hasRecordDescriptorWord) {
+      return maxRecordLength;
+    }
+    int recordLength = CobolRecordReader.getRecordLength(data, offset);
+    return CobolRecordReader.RDW_LEN + CobolRecordReader.checkRecordLength(recordLength, maxRecordLength);
+  }
+
+  /**
+   * Returns a copy of the given bytes followed by up to the given number of bytes read from the buffer.
+   */
+  private static byte[] append(byte[] bytes, ByteBuffer buffer, int length) {
+    int toRead = Math.min(length, buffer.remaining());
+    byte[] result = new byte[bytes.length + toRead];
+    System.arraycopy(bytes, 0, result, 0, bytes.length);
+    buffer.get(result, bytes.length, toRead);
+    return result;
+  }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.cdap.plugin.cobol;
+
+import com.google.common.base.Preconditions;
+
+import java.util.Arrays;
+import javax.annotation.Nullable;
+
+/**
+ * Bounded dictionary of the decoded values of one alphanumeric field, keyed on the raw bytes of the values, so that
+ * values repeated across records, such as state codes or status flags, share the same {@link String} instance.
+ * <p>
+ * The table starts small and grows with the number of entries, such that fields with few distinct values, or
+ * decoders that only read a few records, don't pay for the maximum size. The cache holds at most a fixed number of
+ * entries and never evicts. Once it is full, values that are not in the
+ * cache are counted as misses. When the misses outnumber both the hits and the maximum number of entries, the field
+ * is considered of high cardinality and the cache disables itself, releasing its entries.
+ * </p>
+ * <p>
+ * This class is not thread safe. Each {@link CobolRecordDecoder} has its own instances.
+ * </p>
+ */
+final class StringCache {
+
+  static final int MAX_ENTRIES = 1 << 12;
+
+  private static final int INITIAL_CAPACITY = 16;
+
+  private final int maxEntries;
+  private int mask;
+  private byte[][] keys;
+  private String[] values;
+  private int[] hashes;
+  private int size;
+  private long hits;
+  private long misses;
+
+  /**
+   * Creates a cache.
+   *
+   * @param maxEntries the maximum number of distinct values to cache
+   */
+  StringCache(int maxEntries) {
+    Preconditions.checkArgument(maxEntries > 0 && maxEntries <= MAX_ENTRIES,
+                                "Maximum number of entries must be between 1 and %s: %s", MAX_ENTRIES, maxEntries);
+    this.maxEntries = maxEntries;
+    allocate(Math.min(INITIAL_CAPACITY, getMaxCapacity(maxEntries)));
+  }
+
+  /**
+   * Returns whether the cache is still in use, that is it has not been disabled because of the field cardinality.
+   */
+  boolean isEnabled() {
+    return keys != null;
+  }
+
+  /**
+   * Returns the cached value for the given bytes.
+   *
+   * @param data the bytes of the records
+   * @param offset the offset of the value
+   * @param length the length of the value
+   * @return the cached value or {@code null} if the value is not in the cache or the cache is disabled
+   */
+  @Nullable
+  String get(byte[] data, int offset, int length) {
+    if (keys == null) {
+      return null;
+    }
+    int hash = hash(data, offset, length);
+    for (int i = hash & mask; keys[i] != null; i = (i + 1) & mask) {
+      if (hashes[i] == hash && equals(keys[i], data, offset, length)) {
+        hits++;
+        return values[i];
+      }
+    }
+    if (size == maxEntries && ++misses > maxEntries && misses > hits) {
+      keys = null;
+      values = null;
+      hashes = null;
+    }
+    return null;
+  }
+
+  /**
+   * Adds a value that is not in the cache, if the cache is neither full nor disabled.
+   *
+   * @param data the bytes of the records
+   * @param offset the offset of the value
+   * @param length the length of the value
+   * @param value the decoded value
+   */
+  void put(byte[] data, int offset, int length, String value) {
+    if (keys == null || size == maxEntries) {
+      return;
+    }
+    // Keep the load factor below 0.5 for short probe sequences
+    if ((size + 1) * 2 > keys.length) {
+      grow();
+    }
+    insert(Arrays.copyOfRange(data, offset, offset + length), value, hash(data, offset, length));
+    size++;
+  }
+
+  /**
+   * Returns the table capacity that keeps the load factor below 0.5 with the given number of entries.
+   */
+  private static int getMaxCapacity(int maxEntries) {
+    return Integer.highestOneBit(maxEntries) << 2;
+  }
+
+  private void allocate(int capacity) {
+    mask = capacity - 1;
+    keys = new byte[capacity][];
+    values = new String[capacity];
+    hashes = new int[capacity];
+  }
+
+  /**
+   * Doubles the capacity of the table and reinserts the entries.
+   */
+  private void grow() {
+    byte[][] oldKeys = keys;
+    String[] oldValues = values;
+    int[] oldHashes = hashes;
+    allocate(keys.length * 2);
+    for (int i = 0; i < oldKeys.length; i++) {
+      if (oldKeys[i] != null) {
+        insert(oldKeys[i], oldValues[i], oldHashes[i]);
+      }
+    }
+  }
+
+  private void insert(byte[] key, String value, int hash) {
+    int i = hash & mask;
+    while (keys[i] != null) {
+      i = (i + 1) & mask;
+    }
+    keys[i] = key;
+    values[i] = value;
+    hashes[i] = hash;
+  }
+
+  private static int hash(byte[] data, int offset, int length) {
+    int hash = 1;
+    for (int i = offset; i < offset + length; i++) {
+      hash = 31 * hash + data[i];
+    }
+    // Spread the high bits to the low bits used to index the table
+    return hash ^ (hash >>> 16);
+  }
+
+  private static boolean equals(byte[] key, byte[] data, int offset, int length) {
+    if (key.length != length) {
+      return false;
+    }
+    for (int i = 0; i < length; i++) {
+      if (key[i] != data[offset + i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
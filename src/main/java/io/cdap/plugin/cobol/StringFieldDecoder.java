@@ -0,0 +1,143 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.cdap.plugin.cobol;
+
+import com.legstar.base.context.CobolContext;
+import com.legstar.base.type.primitive.CobolStringType;
+
+import java.nio.charset.Charset;
+import javax.annotation.Nullable;
+
+/**
+ * {@link FieldDecoder} for alphanumeric (PIC X) items of a single byte charset, such as the EBCDIC code pages
+ * IBM037, IBM500, IBM273 or IBM01140. Bytes are mapped to characters with a precomputed table of the 256 characters
+ * of the charset, into a reusable buffer. Trailing spaces and LOW-VALUES are trimmed in the same pass, and
+ * LOW-VALUES within the value are replaced by spaces, as done by legstar when it truncates trailing spaces. Decoded
+ * values can be shared across records through a {@link StringCache}.
+ */
+final class StringFieldDecoder extends FieldDecoder {
+
+  private final char[] table;
+  private final int space;
+  private final boolean blankAsNull;
+  private final int bytesLen;
+  private final char[] buffer;
+  private final boolean output;
+  @Nullable
+  private StringCache cache;
+
+  /**
+   * Creates a decoder.
+   *
+   * @param cobolType the COBOL type of the field
+   * @param table the characters of the charset, as returned by {@link #createTable(Charset, int)}
+   * @param cobolContext the {@link CobolContext} to interpret the bytes of the records
+   * @param blankAsNull {@code true} to decode values made only of spaces or LOW-VALUES as {@code null}
+   * @param output {@code false} if the field is only skipped
+   * @param cache the {@link StringCache} of the decoded values or {@code null} to not cache values
+   */
+  StringFieldDecoder(CobolStringType<?> cobolType, char[] table, CobolContext cobolContext,
+                     boolean blankAsNull, boolean output, @Nullable StringCache cache) {
+    this.table = table;
+    this.space = cobolContext.getHostSpaceCharCode() & 0xFF;
+    this.blankAsNull = blankAsNull;
+    this.bytesLen = cobolType.getBytesLen();
+    this.buffer = new char[bytesLen];
+    this.output = output;
+    this.cache = cache;
+  }
+
+  /**
+   * Creates the table of the characters of a single byte charset, indexed by byte value. LOW-VALUES are mapped to
+   * the space character.
+   *
+   * @param charset the charset
+   * @param space the byte of the space character in the charset
+   * @return the table or {@code null} if the charset is not a single byte charset
+   */
+  @Nullable
+  static char[] createTable(Charset charset, int space) {
+    if (!charset.canEncode() || charset.newEncoder().maxBytesPerChar() != 1f) {
+      return null;
+    }
+    char[] table = new char[256];
+    byte[] bytes = new byte[1];
+    for (int i = 0; i < table.length; i++) {
+      bytes[0] = (byte) (i == 0 ? space : i);
+      String value = new String(bytes, charset);
+      if (value.length() != 1) {
+        return null;
+      }
+      table[i] = value.charAt(0);
+    }
+    return table;
+  }
+
+  @Nullable
+  @Override
+  Object decode(DecodeState state) {
+    int start = state.position;
+    if (start >= state.limit) {
+      return null;
+    }
+    // Same as legstar, a value truncated by the end of the record is decoded from the available bytes
+    int end = Math.min(start + bytesLen, state.limit);
+    state.position = start + bytesLen;
+    if (!output) {
+      return null;
+    }
+
+    byte[] data = state.data;
+    while (end > start) {
+      int b = data[end - 1] & 0xFF;
+      if (b != 0 && b != space) {
+        break;
+      }
+      end--;
+    }
+    if (end == start) {
+      return blankAsNull ? null : "";
+    }
+    int length = end - start;
+    if (cache != null) {
+      String value = cache.get(data, start, length);
+      if (value != null) {
+        return value;
+      }
+      if (!cache.isEnabled()) {
+        cache = null;
+      }
+    }
+    for (int i = 0; i < length; i++) {
+      buffer[i] = table[data[start + i] & 0xFF];
+    }
+    String value = new String(buffer, 0, length);
+    if (cache != null) {
+      cache.put(data, start, length, value);
+    }
+    return value;
+  }
+
+  @Override
+  void skip(DecodeState state) {
+    advance(state, bytesLen);
+  }
+
+  @Override
+  int getFixedLength() {
+    return bytesLen;
+  }
+}
@@ -17,22 +17,19 @@
 package io.cdap.plugin.common;
 
 import com.google.common.base.Function;
-import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.Iterables;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 import io.cdap.cdap.api.data.format.StructuredRecord;
 import io.cdap.cdap.api.data.schema.Schema;
-import org.apache.avro.generic.GenericArray;
-import org.apache.avro.generic.GenericEnumSymbol;
-import org.apache.avro.generic.GenericFixed;
 import org.apache.avro.generic.GenericRecord;
-import org.apache.commons.collections.map.HashedMap;
+import org.codehaus.jackson.JsonNode;
 
-import java.nio.ByteBuffer;
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.List;
-import java.util.Map;
-import javax.annotation.Nullable;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 
 /**
  * Helper class to convert Avro types into CDAP types
@@ -47,6 +44,11 @@ public final class AvroConverter {
       }
     };
 
+  // Converters hold their schemas, hence they are keyed by schema equality in a bounded cache instead of weak keys
+  private static final int MAX_RECORD_CONVERTERS = 64;
+  private static final Cache<SchemaPair, AvroRecordConverter> RECORD_CONVERTERS =
+    CacheBuilder.newBuilder().maximumSize(MAX_RECORD_CONVERTERS).build();
+
   private static final Function<org.apache.avro.Schema.Field, Schema.Field> FIELD_CONVERTER =
     new Function<org.apache.avro.Schema.Field, Schema.Field>() {
       @Override
@@ -76,6 +78,9 @@ public final class AvroConverter {
       case STRING:
         return Schema.of(Schema.Type.STRING);
       case BYTES:
+        if ("decimal".equals(avroSchema.getProp("logicalType"))) {
+          return Schema.decimalOf(getIntProp(avroSchema, "precision"), getIntProp(avroSchema, "scale"));
+        }
         return Schema.of(Schema.Type.BYTES);
       case FIXED:
         return Schema.of(Schema.Type.BYTES);
@@ -95,6 +100,19 @@ public final class AvroConverter {
     throw new IllegalArgumentException("Unsupported Avro schema type " + avroSchema.getType());
   }
 
+  /**
+   * Creates an avro {@link org.apache.avro.Schema} from a CDAP {@link Schema}. The JSON representation of CDAP
+   * schemas is the Avro one, including the {@code decimal} logical type.
+   */
+  public static org.apache.avro.Schema toAvroSchema(Schema schema) {
+    return new org.apache.avro.Schema.Parser().parse(schema.toString());
+  }
+
+  private static int getIntProp(org.apache.avro.Schema avroSchema, String name) {
+    JsonNode node = avroSchema.getJsonProp(name);
+    return node == null ? 0 : node.getIntValue();
+  }
+
   /**
    * Creates a {@link StructuredRecord} from a {@link GenericRecord}.
    *
@@ -103,158 +121,58 @@ public final class AvroConverter {
    * @return a new {@link StructuredRecord}
    */
   public static StructuredRecord fromAvroRecord(GenericRecord record, Schema schema) {
-    StructuredRecord.Builder builder = StructuredRecord.builder(schema);
-
-    org.apache.avro.Schema avroSchema = record.getSchema();
-    for (Schema.Field field : schema.getFields()) {
-      String name = field.getName();
-      builder.set(name, fromAvroValue(field.getSchema(), avroSchema.getField(name).schema(), record.get(name)));
-    }
-    return builder.build();
+    return getRecordConverter(schema, record.getSchema()).convert(record);
   }
 
-  @Nullable
-  private static Object fromAvroValue(Schema schema, org.apache.avro.Schema avroSchema, Object value) {
-    switch (schema.getType()) {
-      case NULL:
-        Preconditions.checkArgument(avroSchema.getType() == org.apache.avro.Schema.Type.NULL);
-        return null;
-      case BOOLEAN:
-        Preconditions.checkArgument(avroSchema.getType() == org.apache.avro.Schema.Type.BOOLEAN);
-        return value;
-      case INT:
-        Preconditions.checkArgument(avroSchema.getType() == org.apache.avro.Schema.Type.INT);
-        return value;
-      case LONG:
-        Preconditions.checkArgument(avroSchema.getType() == org.apache.avro.Schema.Type.LONG);
-        return value;
-      case FLOAT:
-        Preconditions.checkArgument(avroSchema.getType() == org.apache.avro.Schema.Type.FLOAT);
-        return value;
-      case DOUBLE:
-        Preconditions.checkArgument(avroSchema.getType() == org.apache.avro.Schema.Type.DOUBLE);
-        return value;
-      case BYTES:
-        Preconditions.checkArgument(avroSchema.getType() == org.apache.avro.Schema.Type.BYTES);
-        return value;
-      case STRING:
-        Preconditions.checkArgument(avroSchema.getType() == org.apache.avro.Schema.Type.STRING);
-        return value.toString();
-      case ENUM:
-        Preconditions.checkArgument(avroSchema.getType() == org.apache.avro.Schema.Type.ENUM);
-        return value.toString();
-      case ARRAY:
-        Preconditions.checkArgument(avroSchema.getType() == org.apache.avro.Schema.Type.ARRAY);
-        return convertAvroArray(schema.getComponentSchema(), avroSchema.getElementType(), (GenericArray) value);
-      case MAP:
-        Preconditions.checkArgument(avroSchema.getType() == org.apache.avro.Schema.Type.MAP);
-        Preconditions.checkArgument(schema.getMapSchema().getKey().getType() == Schema.Type.STRING);
-        return convertAvroMap(schema.getMapSchema().getValue(), avroSchema.getValueType(), (Map<String, Object>) value);
-      case RECORD:
-        Preconditions.checkArgument(avroSchema.getType() == org.apache.avro.Schema.Type.RECORD);
-        return fromAvroRecord((GenericRecord) value, schema);
-      case UNION:
-        Preconditions.checkArgument(avroSchema.getType() == org.apache.avro.Schema.Type.UNION);
-        return convertUnion(schema, avroSchema, value);
+  /**
+   * Returns the {@link AvroRecordConverter} for the given pair of schemas. Converters are compiled once and the
+   * {@value #MAX_RECORD_CONVERTERS} most recently used ones are cached, keyed by schema equality. Callers converting
+   * many records should keep the returned converter instead of looking it up for each record.
+   */
+  public static AvroRecordConverter getRecordConverter(final Schema schema, final org.apache.avro.Schema avroSchema) {
+    try {
+      return RECORD_CONVERTERS.get(new SchemaPair(schema, avroSchema), new Callable<AvroRecordConverter>() {
+        @Override
+        public AvroRecordConverter call() {
+          return new AvroRecordConverter(schema, avroSchema);
+        }
+      });
+    } catch (ExecutionException | UncheckedExecutionException e) {
+      throw Throwables.propagate(e.getCause());
     }
-    throw new IllegalArgumentException("Unsupported schema type " + schema.getType());
   }
 
-  private static Collection<?> convertAvroArray(Schema elementSchema,
-                                                org.apache.avro.Schema avroElementSchema, GenericArray<?> array) {
-    List<Object> result = new ArrayList<>(array.size());
-    for (Object obj : array) {
-      result.add(fromAvroValue(elementSchema, avroElementSchema, obj));
-    }
-    return result;
-  }
+  private AvroConverter() {
 
-  private static Map<String, ?> convertAvroMap(Schema valueSchema,
-                                               org.apache.avro.Schema avroValueSchema, Map<String, Object> map) {
-    Map<String, Object> result = new HashedMap(map.size());
-    for (Map.Entry<String, Object> entry : map.entrySet()) {
-      map.put(entry.getKey(), fromAvroValue(valueSchema, avroValueSchema, entry.getValue()));
-    }
-    return result;
   }
 
-  private static Object convertUnion(Schema unionSchema,
-                                    org.apache.avro.Schema avroUnionSchema, Object value) {
-    if (value == null) {
-      return null;
-    }
-    if (value instanceof GenericRecord) {
-      return fromAvroValue(findByType(unionSchema, Schema.Type.RECORD),
-                    findByType(avroUnionSchema, org.apache.avro.Schema.Type.RECORD), value);
-    }
-    if (value instanceof GenericEnumSymbol) {
-      return fromAvroValue(findByType(unionSchema, Schema.Type.RECORD),
-                           findByType(avroUnionSchema, org.apache.avro.Schema.Type.RECORD), value);
-    }
-    if (value instanceof GenericArray) {
-      return fromAvroValue(findByType(unionSchema, Schema.Type.ARRAY),
-                           findByType(avroUnionSchema, org.apache.avro.Schema.Type.ARRAY), value);
-    }
-    if (value instanceof Map) {
-      return fromAvroValue(findByType(unionSchema, Schema.Type.MAP),
-                           findByType(avroUnionSchema, org.apache.avro.Schema.Type.MAP), value);
-    }
-    if (value instanceof GenericFixed) {
-      return fromAvroValue(findByType(unionSchema, Schema.Type.BYTES),
-                           findByType(avroUnionSchema, org.apache.avro.Schema.Type.FIXED), value);
-    }
-    if (value instanceof CharSequence) {
-      return fromAvroValue(findByType(unionSchema, Schema.Type.STRING),
-                           findByType(avroUnionSchema, org.apache.avro.Schema.Type.STRING), value);
-    }
-    if (value instanceof ByteBuffer) {
-      return fromAvroValue(findByType(unionSchema, Schema.Type.BYTES),
-                           findByType(avroUnionSchema, org.apache.avro.Schema.Type.BYTES), value);
-    }
-    if (value instanceof Integer) {
-      return fromAvroValue(findByType(unionSchema, Schema.Type.INT),
-                           findByType(avroUnionSchema, org.apache.avro.Schema.Type.INT), value);
-    }
-    if (value instanceof Long) {
-      return fromAvroValue(findByType(unionSchema, Schema.Type.LONG),
-                           findByType(avroUnionSchema, org.apache.avro.Schema.Type.LONG), value);
-    }
-    if (value instanceof Float) {
-      return fromAvroValue(findByType(unionSchema, Schema.Type.FLOAT),
-                           findByType(avroUnionSchema, org.apache.avro.Schema.Type.FLOAT), value);
-    }
-    if (value instanceof Double) {
-      return fromAvroValue(findByType(unionSchema, Schema.Type.DOUBLE),
-                           findByType(avroUnionSchema, org.apache.avro.Schema.Type.DOUBLE), value);
-    }
-    if (value instanceof Boolean) {
-      return fromAvroValue(findByType(unionSchema, Schema.Type.BOOLEAN),
-                           findByType(avroUnionSchema, org.apache.avro.Schema.Type.BOOLEAN), value);
-    }
-
-    throw new IllegalArgumentException("Unsupported data type " + value.getClass());
-  }
+  /**
+   * Key of the converter cache, comparing both schemas by equality.
+   */
+  private static final class SchemaPair {
+    private final Schema schema;
+    private final org.apache.avro.Schema avroSchema;
 
-  private static Schema findByType(Schema unionSchema, Schema.Type type) {
-    for (Schema schema : unionSchema.getUnionSchemas()) {
-      if (schema.getType() == type) {
-        return schema;
-      }
+    SchemaPair(Schema schema, org.apache.avro.Schema avroSchema) {
+      this.schema = schema;
+      this.avroSchema = avroSchema;
     }
-    throw new IllegalArgumentException("Failed to find schema of type " + type + " in union schema");
-  }
 
-  private static org.apache.avro.Schema findByType(org.apache.avro.Schema unionSchema,
-                                                   org.apache.avro.Schema.Type type) {
-    for (org.apache.avro.Schema schema : unionSchema.getTypes()) {
-      if (schema.getType() == type) {
-        return schema;
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (o == null || getClass() != o.getClass()) {
+        return false;
       }
+      SchemaPair that = (SchemaPair) o;
+      return schema.equals(that.schema) && avroSchema.equals(that.avroSchema);
     }
-    throw new IllegalArgumentException("Failed to find avro schema of type " + type + " in union schema");
-  }
-
-  private AvroConverter() {
 
+    @Override
+    public int hashCode() {
+      return Objects.hash(schema, avroSchema);
+    }
   }
 }
@@ -0,0 +1,278 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.common;
+
+import io.cdap.cdap.api.data.format.StructuredRecord;
+import io.cdap.cdap.api.data.schema.Schema;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.Nullable;
+
+/**
+ * Converts Avro {@link GenericRecord} of a given Avro schema into {@link StructuredRecord} of a given CDAP schema.
+ * <p>
+ * The pair of schemas is compiled once into a tree of converters, with the Avro field positions resolved upfront,
+ * so that converting a record does not interpret any schema. Instances of this class are immutable and thread safe.
+ * </p>
+ */
+public final class AvroRecordConverter {
+
+  private final RecordConverter converter;
+
+  /**
+   * Creates a converter.
+   *
+   * @param schema the CDAP record {@link Schema} of the records to produce
+   * @param avroSchema the Avro record schema of the records to convert
+   * @throws IllegalArgumentException if the two schemas are not compatible
+   */
+  public AvroRecordConverter(Schema schema, org.apache.avro.Schema avroSchema) {
+    this.converter = new RecordConverter(schema, avroSchema);
+  }
+
+  /**
+   * Creates a {@link StructuredRecord} from a {@link GenericRecord}.
+   */
+  public StructuredRecord convert(GenericRecord record) {
+    return converter.convert(record);
+  }
+
+  /**
+   * Converts one Avro value into the corresponding CDAP value.
+   */
+  private interface ValueConverter {
+    @Nullable
+    Object convert(@Nullable Object value);
+  }
+
+  private static final ValueConverter IDENTITY = new ValueConverter() {
+    @Override
+    public Object convert(@Nullable Object value) {
+      return value;
+    }
+  };
+
+  private static final ValueConverter TO_STRING = new ValueConverter() {
+    @Override
+    public Object convert(@Nullable Object value) {
+      return value == null ? null : value.toString();
+    }
+  };
+
+  private static ValueConverter create(Schema schema, org.apache.avro.Schema avroSchema) {
+    switch (schema.getType()) {
+      case NULL:
+        checkType(avroSchema, org.apache.avro.Schema.Type.NULL);
+        return IDENTITY;
+      case BOOLEAN:
+        checkType(avroSchema, org.apache.avro.Schema.Type.BOOLEAN);
+        return IDENTITY;
+      case INT:
+        checkType(avroSchema, org.apache.avro.Schema.Type.INT);
+        return IDENTITY;
+      case LONG:
+        checkType(avroSchema, org.apache.avro.Schema.Type.LONG);
+        return IDENTITY;
+      case FLOAT:
+        checkType(avroSchema, org.apache.avro.Schema.Type.FLOAT);
+        return IDENTITY;
+      case DOUBLE:
+        checkType(avroSchema, org.apache.avro.Schema.Type.DOUBLE);
+        return IDENTITY;
+      case BYTES:
+        checkType(avroSchema, org.apache.avro.Schema.Type.BYTES);
+        return IDENTITY;
+      case STRING:
+        checkType(avroSchema, org.apache.avro.Schema.Type.STRING);
+        return TO_STRING;
+      case ENUM:
+        checkType(avroSchema, org.apache.avro.Schema.Type.ENUM);
+        return TO_STRING;
+      case ARRAY:
+        checkType(avroSchema, org.apache.avro.Schema.Type.ARRAY);
+        return new ArrayConverter(create(schema.getComponentSchema(), avroSchema.getElementType()));
+      case MAP:
+        checkType(avroSchema, org.apache.avro.Schema.Type.MAP);
+        if (schema.getMapSchema().getKey().getType() != Schema.Type.STRING) {
+          throw new IllegalArgumentException("Map key must be of type string");
+        }
+        return new MapConverter(create(schema.getMapSchema().getValue(), avroSchema.getValueType()));
+      case RECORD:
+        checkType(avroSchema, org.apache.avro.Schema.Type.RECORD);
+        return new RecordConverter(schema, avroSchema);
+      case UNION:
+        checkType(avroSchema, org.apache.avro.Schema.Type.UNION);
+        return new UnionConverter(schema, avroSchema);
+    }
+    throw new IllegalArgumentException("Unsupported schema type " + schema.getType());
+  }
+
+  private static void checkType(org.apache.avro.Schema avroSchema, org.apache.avro.Schema.Type expected) {
+    if (avroSchema.getType() != expected) {
+      throw new IllegalArgumentException("Expected avro schema of type " + expected
+                                           + " but got " + avroSchema.getType());
+    }
+  }
+
+  /**
+   * Converter for records, reading Avro fields by position.
+   */
+  private static final class RecordConverter implements ValueConverter {
+
+    private final Schema schema;
+    private final String[] names;
+    private final int[] positions;
+    private final ValueConverter[] converters;
+
+    RecordConverter(Schema schema, org.apache.avro.Schema avroSchema) {
+      List<Schema.Field> fields = schema.getFields();
+
+      this.schema = schema;
+      this.names = new String[fields.size()];
+      this.positions = new int[fields.size()];
+      this.converters = new ValueConverter[fields.size()];
+
+      for (int i = 0; i < names.length; i++) {
+        Schema.Field field = fields.get(i);
+        org.apache.avro.Schema.Field avroField = avroSchema.getField(field.getName());
+        if (avroField == null) {
+          throw new IllegalArgumentException("Field '" + field.getName() + "' is not present in avro schema "
+                                               + avroSchema.getFullName());
+        }
+        names[i] = field.getName();
+        positions[i] = avroField.pos();
+        converters[i] = create(field.getSchema(), avroField.schema());
+      }
+    }
+
+    @Override
+    public StructuredRecord convert(@Nullable Object value) {
+      if (value == null) {
+        return null;
+      }
+      GenericRecord record = (GenericRecord) value;
+      StructuredRecord.Builder builder = StructuredRecord.builder(schema);
+      for (int i = 0; i < names.length; i++) {
+        builder.set(names[i], converters[i].convert(record.get(positions[i])));
+      }
+      return builder.build();
+    }
+  }
+
+  /**
+   * Converter for arrays.
+   */
+  private static final class ArrayConverter implements ValueConverter {
+
+    private final ValueConverter elementConverter;
+
+    ArrayConverter(ValueConverter elementConverter) {
+      this.elementConverter = elementConverter;
+    }
+
+    @Override
+    public Object convert(@Nullable Object value) {
+      if (value == null) {
+        return null;
+      }
+      Collection<?> array = (Collection<?>) value;
+      List<Object> result = new ArrayList<>(array.size());
+      for (Object element : array) {
+        result.add(elementConverter.convert(element));
+      }
+      return result;
+    }
+  }
+
+  /**
+   * Converter for maps with string keys.
+   */
+  private static final class MapConverter implements ValueConverter {
+
+    private final ValueConverter valueConverter;
+
+    MapConverter(ValueConverter valueConverter) {
+      this.valueConverter = valueConverter;
+    }
+
+    @Override
+    public Object convert(@Nullable Object value) {
+      if (value == null) {
+        return null;
+      }
+      Map<?, ?> map = (Map<?, ?>) value;
+      Map<String, Object> result = new HashMap<>(map.size());
+      for (Map.Entry<?, ?> entry : map.entrySet()) {
+        result.put(entry.getKey().toString(), valueConverter.convert(entry.getValue()));
+      }
+      return result;
+    }
+  }
+
+  /**
+   * Converter for unions. The converter of each Avro branch is resolved upfront, hence only the branch of
+   * the value needs to be resolved at conversion time.
+   */
+  private static final class UnionConverter implements ValueConverter {
+
+    private final org.apache.avro.Schema avroSchema;
+    private final ValueConverter[] converters;
+
+    UnionConverter(Schema schema, org.apache.avro.Schema avroSchema) {
+      List<Schema> unionSchemas = schema.getUnionSchemas();
+      List<org.apache.avro.Schema> avroUnionSchemas = avroSchema.getTypes();
+
+      this.avroSchema = avroSchema;
+      this.converters = new ValueConverter[avroUnionSchemas.size()];
+      for (int i = 0; i < converters.length; i++) {
+        org.apache.avro.Schema avroBranch = avroUnionSchemas.get(i);
+        converters[i] = create(findBranch(unionSchemas, i, avroBranch), avroBranch);
+      }
+    }
+
+    @Override
+    public Object convert(@Nullable Object value) {
+      if (value == null) {
+        return null;
+      }
+      return converters[GenericData.get().resolveUnion(avroSchema, value)].convert(value);
+    }
+
+    /**
+     * Finds the CDAP union branch for the given Avro union branch. The branch at the same position is preferred,
+     * which is the case for CDAP schema converted with {@link AvroConverter#fromAvroSchema(org.apache.avro.Schema)}.
+     */
+    private static Schema findBranch(List<Schema> unionSchemas, int index, org.apache.avro.Schema avroBranch) {
+      Schema.Type type = AvroConverter.fromAvroSchema(avroBranch).getType();
+      if (index < unionSchemas.size() && unionSchemas.get(index).getType() == type) {
+        return unionSchemas.get(index);
+      }
+      for (Schema schema : unionSchemas) {
+        if (schema.getType() == type) {
+          return schema;
+        }
+      }
+      throw new IllegalArgumentException("Failed to find schema of type " + type + " in union schema");
+    }
+  }
+}
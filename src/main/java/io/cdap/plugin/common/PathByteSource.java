@@ -0,0 +1,47 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.cdap.plugin.common;
+
+import com.google.common.io.ByteSource;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A {@link ByteSource} for Hadoop {@link Path}.
+ */
+public class PathByteSource extends ByteSource {
+
+  private final Path path;
+  private final Configuration conf;
+
+  public PathByteSource(Path path, Configuration conf) {
+    this.path = path;
+    this.conf = conf;
+  }
+
+  @Override
+  public InputStream openStream() throws IOException {
+    return path.getFileSystem(conf).open(path);
+  }
+
+  @Override
+  public long size() throws IOException {
+    return path.getFileSystem(conf).getFileStatus(path).getLen();
+  }
+}
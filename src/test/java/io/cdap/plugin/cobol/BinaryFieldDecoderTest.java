@@ -0,0 +1,141 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.cdap.plugin.cobol;
+
+import com.google.common.io.ByteSource;
+import com.google.common.io.CharSource;
+import com.legstar.avro.cob2avro.io.AbstractZosDatumReader;
+import io.cdap.cdap.api.data.format.StructuredRecord;
+import io.cdap.cdap.api.data.schema.Schema;
+import io.cdap.plugin.common.AvroConverter;
+import org.apache.avro.generic.GenericRecord;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+
+/**
+ * Tests for {@link BinaryFieldDecoder} and {@link FloatFieldDecoder}.
+ */
+public class BinaryFieldDecoderTest {
+
+  private static final String COPYBOOK = "       01  BINARY-DATA.\n" +
+    "           05 SHORT-SIGNED                   PIC S9(4) COMP.\n" +
+    "           05 SHORT-UNSIGNED                 PIC 9(4) COMP-4.\n" +
+    "           05 INT-SIGNED                     PIC S9(9) BINARY.\n" +
+    "           05 INT-UNSIGNED                   PIC 9(9) COMP.\n" +
+    "           05 LONG-SIGNED                    PIC S9(18) COMP-5.\n" +
+    "           05 LONG-UNSIGNED                  PIC 9(18) COMP.\n" +
+    "           05 DECIMAL-SIGNED                 PIC S9(7)V99 COMP.\n" +
+    "           05 SINGLE-FLOAT                   COMP-1.\n" +
+    "           05 DOUBLE-FLOAT                   COMP-2.";
+
+  @Test
+  public void testSameAsAvroConversion() throws Exception {
+    CopybookReader copybookReader = new CopybookReader(CharSource.wrap(COPYBOOK), new Properties());
+    Schema schema = AvroConverter.fromAvroSchema(copybookReader.getSchema());
+
+    Random random = new Random(0);
+    ByteArrayOutputStream os = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(os);
+    for (int i = 0; i < 1000; i++) {
+      out.writeShort((int) CobolTestData.randomValue(random, 4, true));
+      out.writeShort((int) CobolTestData.randomValue(random, 4, false));
+      out.writeInt((int) CobolTestData.randomValue(random, 9, true));
+      out.writeInt((int) CobolTestData.randomValue(random, 9, false));
+      out.writeLong(CobolTestData.randomValue(random, 18, true));
+      out.writeLong(CobolTestData.randomValue(random, 18, false));
+      out.writeInt((int) CobolTestData.randomValue(random, 9, true));
+      // Normalized hexadecimal floats, with exponents within the range of the Java types
+      out.writeInt((random.nextBoolean() ? 0x80000000 : 0) | (random.nextInt(40) + 44) << 24
+                     | (random.nextInt(0xF00000) + 0x100000));
+      out.writeLong((random.nextBoolean() ? Long.MIN_VALUE : 0) | (long) (random.nextInt(120) + 4) << 56
+                      | (random.nextLong() & 0xFFFFFFFFFFFFFFL | 0x10000000000000L));
+    }
+    // Zero, and zero fraction with a non zero exponent
+    for (int exponent : new int[] { 0, 0x41 }) {
+      out.write(new byte[32]);
+      out.writeInt(exponent << 24);
+      out.writeLong((long) exponent << 56);
+    }
+    byte[] data = os.toByteArray();
+
+    List<StructuredRecord> expected = new ArrayList<>();
+    try (AbstractZosDatumReader<GenericRecord> reader =
+           copybookReader.createRecordReader(ByteSource.wrap(data), "IBM01140", false)) {
+      for (GenericRecord record : reader) {
+        expected.add(AvroConverter.fromAvroRecord(record, schema));
+      }
+    }
+
+    List<StructuredRecord> actual = new ArrayList<>();
+    CobolRecordDecoder decoder = copybookReader.createRecordDecoder("IBM01140", schema);
+    for (StructuredRecord record : new CobolRecordReader(data, 0, data.length, decoder, false)) {
+      actual.add(record);
+    }
+    Assert.assertEquals(1002, actual.size());
+    Assert.assertEquals(expected.subList(0, 1001), actual.subList(0, 1001));
+
+    // Legstar decodes a zero fraction as a power of two, rather than zero
+    Assert.assertEquals(0f, actual.get(1001).<Float>get("singleFloat"), 0f);
+    Assert.assertEquals(0d, actual.get(1001).<Double>get("doubleFloat"), 0d);
+  }
+
+  @Test
+  public void testDecodeFloat() {
+    // Examples from the IBM z/Architecture Principles of Operation
+    Assert.assertEquals(1f, FloatFieldDecoder.decodeFloat(new byte[] { 0x41, 0x10, 0x00, 0x00 }, 0), 0f);
+    Assert.assertEquals(-0.15625f,
+                        FloatFieldDecoder.decodeFloat(new byte[] { (byte) 0xC0, 0x28, 0x00, 0x00 }, 0), 0f);
+    Assert.assertEquals(1d, FloatFieldDecoder.decodeDouble(new byte[] { 0x41, 0x10, 0, 0, 0, 0, 0, 0 }, 0), 0d);
+    Assert.assertEquals(-118.625d, FloatFieldDecoder.decodeDouble(
+      new byte[] { (byte) 0xC2, 0x76, (byte) 0xA0, 0, 0, 0, 0, 0 }, 0), 0d);
+    // Beyond the range of a float
+    Assert.assertEquals(Float.POSITIVE_INFINITY,
+                        FloatFieldDecoder.decodeFloat(new byte[] { 0x7F, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF }, 0),
+                        0f);
+  }
+
+  @Test(expected = RuntimeException.class)
+  public void testOutOfRange() throws Exception {
+    CopybookReader copybookReader = new CopybookReader(CharSource.wrap(COPYBOOK), new Properties());
+    Schema schema = AvroConverter.fromAvroSchema(copybookReader.getSchema());
+    byte[] data = new byte[(int) copybookReader.createRecordDecoder("IBM01140", schema).getMaxRecordLength()];
+    // 10000 doesn't fit in PIC S9(4)
+    data[0] = 0x27;
+    data[1] = 0x10;
+    copybookReader.createRecordDecoder("IBM01140", schema).decode(data, 0, data.length);
+  }
+
+  @Test
+  public void testTrustedOutOfRange() throws Exception {
+    CopybookReader copybookReader = new CopybookReader(CharSource.wrap(COPYBOOK), new Properties());
+    Schema schema = AvroConverter.fromAvroSchema(copybookReader.getSchema());
+    RecordDecoderOptions options = RecordDecoderOptions.builder().setTrustedInput(true).build();
+    byte[] data = new byte[(int) copybookReader.createRecordDecoder("IBM01140", schema).getMaxRecordLength()];
+    data[0] = 0x27;
+    data[1] = 0x10;
+    StructuredRecord record = copybookReader.createRecordDecoder("IBM01140", schema, options)
+      .decode(data, 0, data.length);
+    Assert.assertNotNull(record);
+    Assert.assertEquals(10000, (int) record.get("shortSigned"));
+  }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.cdap.plugin.cobol;
+
+import com.google.common.io.Resources;
+import io.cdap.cdap.api.data.format.StructuredRecord;
+import io.cdap.cdap.api.data.schema.Schema;
+import io.cdap.plugin.common.AvroConverter;
+import org.apache.avro.file.CodecFactory;
+import org.apache.avro.file.DataFileStream;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.DecoderFactory;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Tests for {@link CobolAvroEncoder}.
+ */
+public class CobolAvroEncoderTest {
+
+  private static CopybookReader copybookReader;
+  private static Schema schema;
+  private static byte[] data;
+
+  @BeforeClass
+  public static void init() throws Exception {
+    URL copyBookURL = CobolAvroEncoderTest.class.getClassLoader().getResource("custdat.cpbk");
+    URL dataURL = CobolAvroEncoderTest.class.getClassLoader().getResource("custdat.bin");
+    Assert.assertNotNull(copyBookURL);
+    Assert.assertNotNull(dataURL);
+
+    copybookReader = new CopybookReader(Resources.asCharSource(copyBookURL, StandardCharsets.UTF_8),
+                                        new Properties());
+    schema = AvroConverter.fromAvroSchema(copybookReader.getSchema());
+    data = Resources.toByteArray(dataURL);
+  }
+
+  @Test
+  public void testEncode() throws Exception {
+    CobolRecordDecoder decoder = copybookReader.createRecordDecoder("IBM01140", schema);
+    List<StructuredRecord> expected = decodeAll(decoder);
+    Assert.assertFalse(expected.isEmpty());
+
+    CobolAvroEncoder encoder = new CobolAvroEncoder(decoder, true);
+    Assert.assertEquals(schema, AvroConverter.fromAvroSchema(encoder.getSchema()));
+    List<ByteBuffer> records = encoder.encode(ByteBuffer.wrap(data));
+    Assert.assertEquals(expected, readAll(encoder.getSchema(), records, schema));
+
+    // Direct buffers are supported too
+    ByteBuffer directBuffer = ByteBuffer.allocateDirect(data.length);
+    directBuffer.put(data).flip();
+    Assert.assertEquals(records, encoder.encode(directBuffer));
+    Assert.assertEquals(0, directBuffer.position());
+  }
+
+  @Test
+  public void testProjectionAndFilter() throws Exception {
+    CopybookConfig config = new CopybookConfig("", null, null, false, "customerId, transactions.transaction", null);
+    Schema projected = config.getOutputSchemaAndValidate(copybookReader);
+    RecordDecoderOptions options = RecordDecoderOptions.builder().setFilter("customerId > 5").build();
+    CobolRecordDecoder decoder = copybookReader.createRecordDecoder("IBM01140", projected, options);
+    List<StructuredRecord> expected = decodeAll(decoder);
+    Assert.assertFalse(expected.isEmpty());
+
+    CobolAvroEncoder encoder = new CobolAvroEncoder(decoder, true);
+    List<ByteBuffer> records = encoder.encode(ByteBuffer.wrap(data));
+    Assert.assertEquals(expected, readAll(encoder.getSchema(), records, projected));
+  }
+
+  @Test
+  public void testDataFile() throws Exception {
+    CobolRecordDecoder decoder = copybookReader.createRecordDecoder("IBM01140", schema);
+    List<StructuredRecord> expected = decodeAll(decoder);
+    CobolAvroEncoder encoder = new CobolAvroEncoder(decoder, true);
+
+    for (CodecFactory codec : new CodecFactory[] { CodecFactory.nullCodec(), CodecFactory.deflateCodec(6) }) {
+      ByteArrayOutputStream os = new ByteArrayOutputStream();
+      Assert.assertEquals(expected.size(), encoder.writeDataFile(ByteBuffer.wrap(data), os, codec));
+
+      List<StructuredRecord> actual = new ArrayList<>();
+      try (DataFileStream<GenericRecord> stream = new DataFileStream<>(new ByteArrayInputStream(os.toByteArray()),
+                                                                       new GenericDatumReader<GenericRecord>())) {
+        Assert.assertEquals(encoder.getSchema(), stream.getSchema());
+        for (GenericRecord record : stream) {
+          actual.add(AvroConverter.fromAvroRecord(record, schema));
+        }
+      }
+      Assert.assertEquals(expected, actual);
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testUnorderedSchema() throws Exception {
+    List<Schema.Field> fields = new ArrayList<>(schema.getFields());
+    Collections.reverse(fields);
+    Schema reversed = Schema.recordOf(schema.getRecordName(), fields);
+    // Rejected once, before encoding any record
+    new CobolAvroEncoder(copybookReader.createRecordDecoder("IBM01140", reversed), true);
+  }
+
+  private static List<StructuredRecord> decodeAll(CobolRecordDecoder decoder) throws Exception {
+    List<StructuredRecord> records = new ArrayList<>();
+    try (CobolRecordReader reader = new CobolRecordReader(data, 0, data.length, decoder, true)) {
+      for (StructuredRecord record : reader) {
+        records.add(record);
+      }
+    }
+    return records;
+  }
+
+  private static List<StructuredRecord> readAll(org.apache.avro.Schema avroSchema, List<ByteBuffer> encoded,
+                                                Schema schema) throws Exception {
+    GenericDatumReader<GenericRecord> datumReader = new GenericDatumReader<>(avroSchema);
+    List<StructuredRecord> records = new ArrayList<>();
+    for (ByteBuffer buffer : encoded) {
+      GenericRecord record = datumReader.read(null, DecoderFactory.get().binaryDecoder(
+        buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining(), null));
+      records.add(AvroConverter.fromAvroRecord(record, schema));
+    }
+    return records;
+  }
+}
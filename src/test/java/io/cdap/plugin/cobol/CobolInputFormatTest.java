@@ -0,0 +1,232 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.cdap.plugin.cobol;
+
+import com.google.common.io.Files;
+import com.google.common.io.Resources;
+import io.cdap.cdap.api.data.schema.Schema;
+import io.cdap.plugin.common.AvroConverter;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.apache.hadoop.mapreduce.task.TaskAttemptContextImpl;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Tests for {@link CobolInputFormat}.
+ */
+public class CobolInputFormatTest {
+
+  @ClassRule
+  public static final TemporaryFolder TEMP_FOLDER = new TemporaryFolder();
+
+  private static byte[] data;
+  private static int maxRecordLength;
+
+  @BeforeClass
+  public static void init() throws Exception {
+    data = Resources.toByteArray(CobolInputFormatTest.class.getClassLoader().getResource("custdat.bin"));
+    CopybookReader copybookReader = new CopybookReader(
+      Resources.asCharSource(CobolInputFormatTest.class.getClassLoader().getResource("custdat.cpbk"),
+                             StandardCharsets.UTF_8), new Properties());
+    Schema schema = AvroConverter.fromAvroSchema(copybookReader.getSchema());
+    maxRecordLength = copybookReader.createRecordDecoder("IBM01140", schema).getMaxRecordLength();
+  }
+
+  @Test
+  public void testRdwSplits() throws Exception {
+    File file = new File(TEMP_FOLDER.newFolder(), "custdat.bin");
+    Files.write(data, file);
+    List<ByteBuffer> expected = readRdwRecords(data);
+
+    // Splits at arbitrary offsets resynchronize to the next record, such that every record is read exactly once
+    for (long maxSplitSize : new long[] { 1000L, 4096L, 65536L, 300000L }) {
+      for (int chainLength : new int[] { 1, 8 }) {
+        Configuration conf = createConf(0, maxRecordLength);
+        conf.setInt(CobolInputFormat.RDW_CHAIN_LENGTH, chainLength);
+        List<InputSplit> splits = getSplits(file, maxSplitSize, 0);
+        Assert.assertTrue(splits.size() > 1);
+        Assert.assertEquals("Split size " + maxSplitSize + ", chain length " + chainLength,
+                            expected, read(splits, conf));
+      }
+    }
+  }
+
+  @Test
+  public void testRdwSplitBoundaries() throws Exception {
+    File file = new File(TEMP_FOLDER.newFolder(), "custdat.bin");
+    Files.write(data, file);
+    List<ByteBuffer> expected = readRdwRecords(data);
+    List<Integer> recordStarts = new ArrayList<>();
+    for (ByteBuffer record : expected) {
+      recordStarts.add(record.position() - CobolRecordReader.RDW_LEN);
+    }
+    int lastRecordStart = recordStarts.get(recordStarts.size() - 1);
+
+    // Splits starting exactly at a record, within a Record Descriptor Word, within the data of a record,
+    // and a last split that only holds the tail of the last record
+    long[] offsets = {
+      0, recordStarts.get(1), recordStarts.get(5) + 1, recordStarts.get(10) + 2, recordStarts.get(100) + 50,
+      recordStarts.get(101), lastRecordStart + 10, data.length
+    };
+    List<InputSplit> splits = new ArrayList<>();
+    for (int i = 0; i < offsets.length - 1; i++) {
+      splits.add(new FileSplit(new Path(file.toURI()), offsets[i], offsets[i + 1] - offsets[i], new String[0]));
+    }
+    Assert.assertEquals(expected, read(splits, createConf(0, maxRecordLength)));
+
+    // The split holding the tail of the last record is empty
+    Assert.assertTrue(read(splits.subList(splits.size() - 1, splits.size()),
+                           createConf(0, maxRecordLength)).isEmpty());
+  }
+
+  @Test
+  public void testFixedLengthSplits() throws Exception {
+    int recordLength = 10;
+    for (int lastRecordLength : new int[] { 0, 4 }) {
+      byte[] fixedData = createFixedLengthData(recordLength, 1000, lastRecordLength);
+      File file = new File(TEMP_FOLDER.newFolder(), "fixed.bin");
+      Files.write(fixedData, file);
+      List<ByteBuffer> expected = new ArrayList<>();
+      for (int offset = 0; offset < fixedData.length; offset += recordLength) {
+        expected.add(ByteBuffer.wrap(fixedData, offset, Math.min(recordLength, fixedData.length - offset)));
+      }
+
+      // Splits are aligned to record boundaries, even if the split size is not a multiple of the record length
+      for (long maxSplitSize : new long[] { 15L, 64L, 1000L, 4096L }) {
+        List<InputSplit> splits = getSplits(file, maxSplitSize, recordLength);
+        Assert.assertTrue(splits.size() > 1);
+        for (InputSplit split : splits) {
+          Assert.assertEquals(0L, ((FileSplit) split).getStart() % recordLength);
+        }
+        Assert.assertEquals("Split size " + maxSplitSize, expected,
+                            read(splits, createConf(recordLength, recordLength)));
+      }
+    }
+  }
+
+  @Test
+  public void testCompressedFile() throws Exception {
+    File file = new File(TEMP_FOLDER.newFolder(), "custdat.bin.gz");
+    try (OutputStream os = new GZIPOutputStream(new FileOutputStream(file))) {
+      os.write(data);
+    }
+    List<ByteBuffer> expected = readRdwRecords(data);
+
+    // Compressed files are read as a whole whatever the split size
+    for (long maxSplitSize : new long[] { 100L, 1000L, Long.MAX_VALUE }) {
+      List<InputSplit> splits = getSplits(file, maxSplitSize, 0);
+      Assert.assertEquals(1, splits.size());
+      Assert.assertEquals(expected, read(splits, createConf(0, maxRecordLength)));
+    }
+  }
+
+  @Test
+  public void testShortLastRecord() throws Exception {
+    int recordLength = 10;
+    byte[] fixedData = createFixedLengthData(recordLength, 20, 4);
+    File file = new File(TEMP_FOLDER.newFolder(), "fixed.bin");
+    Files.write(fixedData, file);
+
+    // The short last record is emitted with the available bytes, as the converter decodes it
+    List<ByteBuffer> records = read(getSplits(file, Long.MAX_VALUE, recordLength),
+                                   createConf(recordLength, recordLength));
+    Assert.assertEquals(21, records.size());
+    Assert.assertEquals(ByteBuffer.wrap(fixedData, 20 * recordLength, 4), records.get(20));
+  }
+
+  /**
+   * Creates fixed length records of distinct content, followed by a short record of the given length.
+   */
+  static byte[] createFixedLengthData(int recordLength, int records, int lastRecordLength) {
+    byte[] fixedData = new byte[records * recordLength + lastRecordLength];
+    for (int i = 0; i < fixedData.length; i++) {
+      fixedData[i] = (byte) (i / recordLength + i % recordLength);
+    }
+    return fixedData;
+  }
+
+  /**
+   * Returns the records of data prefixed with Record Descriptor Words, without the Record Descriptor Words.
+   */
+  static List<ByteBuffer> readRdwRecords(byte[] rdwData) throws Exception {
+    List<ByteBuffer> records = new ArrayList<>();
+    int offset = 0;
+    while (offset < rdwData.length) {
+      int length = CobolRecordReader.getRecordLength(rdwData, offset);
+      records.add(ByteBuffer.wrap(rdwData, offset + CobolRecordReader.RDW_LEN, length));
+      offset += CobolRecordReader.RDW_LEN + length;
+    }
+    return records;
+  }
+
+  static Configuration createConf(int recordLength, int maxRecordLength) {
+    Configuration conf = new Configuration();
+    conf.setInt(CobolInputFormat.RECORD_LENGTH, recordLength);
+    conf.setInt(CobolInputFormat.MAX_RECORD_LENGTH, maxRecordLength);
+    return conf;
+  }
+
+  static List<InputSplit> getSplits(File file, long maxSplitSize, int recordLength) throws Exception {
+    Configuration conf = createConf(recordLength, 0);
+    conf.set(FileInputFormat.INPUT_DIR, new Path(file.toURI()).toString());
+    conf.setLong(FileInputFormat.SPLIT_MAXSIZE, maxSplitSize);
+    return new CobolInputFormat().getSplits(Job.getInstance(conf));
+  }
+
+  /**
+   * Reads the records of all the splits, in order.
+   */
+  static List<ByteBuffer> read(List<InputSplit> splits, Configuration conf) throws Exception {
+    TaskAttemptContext context = new TaskAttemptContextImpl(conf, new TaskAttemptID());
+
+    List<ByteBuffer> records = new ArrayList<>();
+    for (InputSplit split : splits) {
+      try (RecordReader<LongWritable, BytesWritable> reader
+             = new CobolInputFormat().createRecordReader(split, context)) {
+        reader.initialize(split, context);
+        while (reader.nextKeyValue()) {
+          BytesWritable value = reader.getCurrentValue();
+          records.add(ByteBuffer.wrap(Arrays.copyOf(value.getBytes(), value.getLength())));
+        }
+      }
+    }
+    return records;
+  }
+}
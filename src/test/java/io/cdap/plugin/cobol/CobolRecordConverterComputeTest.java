@@ -0,0 +1,90 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.cdap.plugin.cobol;
+
+import com.google.common.collect.Lists;
+import com.google.common.io.Resources;
+import io.cdap.cdap.api.data.format.StructuredRecord;
+import io.cdap.cdap.api.data.schema.Schema;
+import org.apache.spark.SparkConf;
+import org.apache.spark.api.java.JavaSparkContext;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Tests for {@link CobolRecordConverterCompute}, running the plugin on a local Spark context.
+ */
+public class CobolRecordConverterComputeTest {
+
+  private static final Schema INPUT_SCHEMA = Schema.recordOf(
+    "input", Schema.Field.of("body", Schema.nullableOf(Schema.of(Schema.Type.BYTES))));
+
+  private static String copybook;
+  private static byte[] data;
+  private static JavaSparkContext sparkContext;
+
+  @BeforeClass
+  public static void init() throws Exception {
+    URL copyBookURL = CobolRecordConverterComputeTest.class.getClassLoader().getResource("custdat.cpbk");
+    URL dataURL = CobolRecordConverterComputeTest.class.getClassLoader().getResource("custdat.bin");
+    Assert.assertNotNull(copyBookURL);
+    Assert.assertNotNull(dataURL);
+    copybook = Resources.toString(copyBookURL, StandardCharsets.UTF_8);
+    data = Resources.toByteArray(dataURL);
+    sparkContext = new JavaSparkContext(new SparkConf().setMaster("local[2]").setAppName("cobol"));
+  }
+
+  @AfterClass
+  public static void finish() {
+    sparkContext.stop();
+  }
+
+  @Test
+  public void testTransform() throws Exception {
+    CobolRecordConverterConfig config = CobolRecordConverterConfig.builder()
+      .setCopybook(copybook)
+      .setContentFieldName("body")
+      .build();
+    CopybookReader copybookReader = config.getCopybookReader();
+    CobolRecordDecoder decoder = config.createRecordDecoder(copybookReader,
+                                                            config.getOutputSchemaAndValidate(copybookReader));
+    List<StructuredRecord> expected = Lists.newArrayList(
+      (Iterator<StructuredRecord>) new CobolRecordReader(data, 0, data.length, decoder, true));
+
+    // Three payloads over two partitions, so that one partition decodes several payloads
+    List<StructuredRecord> input = new ArrayList<>();
+    for (int i = 0; i < 3; i++) {
+      input.add(StructuredRecord.builder(INPUT_SCHEMA).set("body", data).build());
+    }
+    // The context is not used by the plugin
+    List<StructuredRecord> actual = new CobolRecordConverterCompute(config)
+      .transform(null, sparkContext.parallelize(input, 2))
+      .collect();
+
+    Assert.assertEquals(3 * expected.size(), actual.size());
+    for (int i = 0; i < 3; i++) {
+      Assert.assertEquals(expected, actual.subList(i * expected.size(), (i + 1) * expected.size()));
+    }
+  }
+}
@@ -0,0 +1,242 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.cobol;
+
+import com.google.common.io.Resources;
+import com.legstar.avro.cob2avro.io.AbstractZosDatumReader;
+import io.cdap.cdap.api.data.format.StructuredRecord;
+import io.cdap.cdap.api.data.schema.Schema;
+import io.cdap.plugin.common.AvroConverter;
+import org.apache.avro.generic.GenericRecord;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.Properties;
+import java.util.TreeSet;
+
+/**
+ * Tests for {@link CobolRecordDecoder} and {@link CobolRecordReader}.
+ */
+public class CobolRecordDecoderTest {
+
+  private static CopybookReader copybookReader;
+  private static Schema schema;
+  private static byte[] data;
+
+  @BeforeClass
+  public static void init() throws Exception {
+    URL copyBookURL = CobolRecordDecoderTest.class.getClassLoader().getResource("custdat.cpbk");
+    URL dataURL = CobolRecordDecoderTest.class.getClassLoader().getResource("custdat.bin");
+    Assert.assertNotNull(copyBookURL);
+    Assert.assertNotNull(dataURL);
+
+    copybookReader = new CopybookReader(Resources.asCharSource(copyBookURL, StandardCharsets.UTF_8),
+                                        new Properties());
+    schema = AvroConverter.fromAvroSchema(copybookReader.getSchema());
+    data = Resources.toByteArray(dataURL);
+  }
+
+  @Test
+  public void testSameAsAvroConversion() throws Exception {
+    List<StructuredRecord> expected = readWithAvro();
+    Assert.assertFalse(expected.isEmpty());
+
+    List<StructuredRecord> actual = new ArrayList<>();
+    CobolRecordDecoder decoder = copybookReader.createRecordDecoder("IBM01140", schema);
+    try (CobolRecordReader reader = new CobolRecordReader(new ByteArrayInputStream(data), data.length, decoder, true)) {
+      for (StructuredRecord record : reader) {
+        actual.add(record);
+      }
+    }
+    Assert.assertEquals(expected, actual);
+  }
+
+  @Test
+  public void testWithoutRecordDescriptorWord() throws Exception {
+    byte[] noRdwData = CobolTestData.stripRecordDescriptorWords(data);
+
+    List<StructuredRecord> actual = new ArrayList<>();
+    CobolRecordDecoder decoder = copybookReader.createRecordDecoder("IBM01140", schema);
+    try (CobolRecordReader reader = new CobolRecordReader(new ByteArrayInputStream(noRdwData), noRdwData.length,
+                                                          decoder, false)) {
+      for (StructuredRecord record : reader) {
+        actual.add(record);
+      }
+    }
+    Assert.assertEquals(readWithAvro(), actual);
+  }
+
+  @Test
+  public void testByteBuffer() throws Exception {
+    List<StructuredRecord> expected = readWithAvro();
+    byte[] noRdwData = CobolTestData.stripRecordDescriptorWords(data);
+    CobolRecordDecoder decoder = copybookReader.createRecordDecoder("IBM01140", schema);
+
+    // Heap buffer that doesn't start at the beginning of the array
+    byte[] padded = new byte[data.length + 10];
+    System.arraycopy(data, 0, padded, 5, data.length);
+    ByteBuffer heapBuffer = ByteBuffer.wrap(padded, 5, data.length).slice();
+    Assert.assertEquals(expected, readAll(new CobolRecordReader(heapBuffer, decoder, true)));
+    Assert.assertEquals(0, heapBuffer.position());
+
+    ByteBuffer directBuffer = ByteBuffer.allocateDirect(data.length);
+    directBuffer.put(data).flip();
+    Assert.assertEquals(expected, readAll(new CobolRecordReader(directBuffer, decoder, true)));
+    Assert.assertEquals(0, directBuffer.position());
+
+    directBuffer = ByteBuffer.allocateDirect(noRdwData.length);
+    directBuffer.put(noRdwData).flip();
+    Assert.assertEquals(expected, readAll(new CobolRecordReader(directBuffer, decoder, false)));
+    Assert.assertEquals(expected, readAll(new CobolRecordReader(noRdwData, 0, noRdwData.length, decoder, false)));
+  }
+
+  @Test
+  public void testReset() throws Exception {
+    List<StructuredRecord> expected = readWithAvro();
+    CobolRecordReader reader = copybookReader.createRecordReader("IBM01140", schema,
+                                                                 RecordDecoderOptions.defaults(), true);
+    Assert.assertFalse(reader.hasNext());
+
+    // Records not read from the previous data are discarded
+    Assert.assertTrue(reader.reset(data, 0, data.length).hasNext());
+    Assert.assertEquals(expected, readAll(reader.reset(ByteBuffer.wrap(data))));
+
+    ByteBuffer directBuffer = ByteBuffer.allocateDirect(data.length);
+    directBuffer.put(data).flip();
+    for (int i = 0; i < 2; i++) {
+      Assert.assertEquals(expected, readAll(reader.reset(directBuffer)));
+      Assert.assertEquals(0, directBuffer.position());
+      Assert.assertEquals(expected, readAll(reader.reset(data, 0, data.length)));
+    }
+  }
+
+  @Test
+  public void testProjection() throws Exception {
+    // The transaction amounts are selected without the transaction count they depend on
+    CopybookConfig config = new CopybookConfig("", null, null, true,
+                                               "personalData.customerName, customerId, transactions.transaction",
+                                               null);
+    Schema projected = config.getOutputSchemaAndValidate(copybookReader);
+    Assert.assertEquals(3, projected.getFields().size());
+    Assert.assertEquals("customerId", projected.getFields().get(0).getName());
+    Assert.assertEquals(1, projected.getField("personalData").getSchema().getFields().size());
+    Assert.assertEquals(1, projected.getField("transactions").getSchema().getFields().size());
+
+    List<StructuredRecord> expected = readWithAvro();
+    CobolRecordDecoder decoder = copybookReader.createRecordDecoder("IBM01140", projected);
+    List<StructuredRecord> actual = readAll(new CobolRecordReader(data, 0, data.length, decoder, true));
+    // Without RDW, the decoder must still consume the exact length of the skipped fields
+    byte[] noRdwData = CobolTestData.stripRecordDescriptorWords(data);
+    Assert.assertEquals(actual, readAll(new CobolRecordReader(noRdwData, 0, noRdwData.length, decoder, false)));
+
+    Assert.assertEquals(expected.size(), actual.size());
+    for (int i = 0; i < expected.size(); i++) {
+      StructuredRecord full = expected.get(i);
+      StructuredRecord record = actual.get(i);
+      Assert.assertEquals(projected, record.getSchema());
+      Assert.assertEquals(full.<Object>get("customerId"), record.get("customerId"));
+      Assert.assertEquals(full.<StructuredRecord>get("personalData").<Object>get("customerName"),
+                          record.<StructuredRecord>get("personalData").get("customerName"));
+      Assert.assertEquals(full.<StructuredRecord>get("transactions").<Object>get("transaction"),
+                          record.<StructuredRecord>get("transactions").get("transaction"));
+    }
+  }
+
+  @Test
+  public void testProjectionSkipsVariableLengthFields() throws Exception {
+    CopybookConfig config = new CopybookConfig("", null, null, false, "customerId", null);
+    Schema projected = config.getOutputSchemaAndValidate(copybookReader);
+    CobolRecordDecoder decoder = copybookReader.createRecordDecoder("IBM01140", projected);
+
+    // The trailing OCCURS DEPENDING ON group is skipped, but its length still has to be known to find the next record
+    byte[] noRdwData = CobolTestData.stripRecordDescriptorWords(data);
+    List<StructuredRecord> actual = readAll(new CobolRecordReader(noRdwData, 0, noRdwData.length, decoder, false));
+    List<StructuredRecord> expected = readWithAvro();
+    Assert.assertEquals(expected.size(), actual.size());
+    for (int i = 0; i < expected.size(); i++) {
+      Assert.assertEquals(expected.get(i).<Object>get("customerId"), actual.get(i).get("customerId"));
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testProjectionUnknownField() throws Exception {
+    new CopybookConfig("", null, null, true, "personalData.unknown", null).getOutputSchemaAndValidate(copybookReader);
+  }
+
+  @Test(expected = RuntimeException.class)
+  public void testTruncatedRecord() throws Exception {
+    CobolRecordDecoder decoder = copybookReader.createRecordDecoder("IBM01140", schema);
+    int length = CobolRecordReader.RDW_LEN + CobolRecordReader.getRecordLength(data, 0) - 1;
+    readAll(new CobolRecordReader(data, 0, length, decoder, true));
+  }
+
+  @Test
+  public void testFindRecordStart() throws Exception {
+    // Collects the offsets of all records
+    NavigableSet<Integer> recordStarts = new TreeSet<>();
+    int offset = 0;
+    while (offset < data.length) {
+      recordStarts.add(offset);
+      offset += CobolRecordReader.RDW_LEN + CobolRecordReader.getRecordLength(data, offset);
+    }
+
+    int maxRecordLength = copybookReader.createRecordDecoder("IBM01140", schema).getMaxRecordLength();
+    for (int start = 0; start < data.length; start += 7) {
+      Integer expected = recordStarts.ceiling(start);
+      int actual = CobolRecordReader.findRecordStart(data, start, data.length, true, maxRecordLength, 8);
+      Assert.assertEquals("Start offset " + start, expected == null ? -1 : (int) expected, actual);
+    }
+
+    // Not at the end of the data
+    int start = data.length / 2 + 1;
+    int limit = start + 9 * (maxRecordLength + CobolRecordReader.RDW_LEN);
+    Assert.assertEquals((int) recordStarts.ceiling(start),
+                        CobolRecordReader.findRecordStart(data, start, limit, false, maxRecordLength, 8));
+  }
+
+  private static List<StructuredRecord> readAll(CobolRecordReader reader) throws Exception {
+    List<StructuredRecord> records = new ArrayList<>();
+    try {
+      for (StructuredRecord record : reader) {
+        records.add(record);
+      }
+    } finally {
+      reader.close();
+    }
+    return records;
+  }
+
+  private List<StructuredRecord> readWithAvro() throws Exception {
+    List<StructuredRecord> records = new ArrayList<>();
+    try (AbstractZosDatumReader<GenericRecord> reader =
+           copybookReader.createRecordReader(Resources.asByteSource(
+             CobolRecordDecoderTest.class.getClassLoader().getResource("custdat.bin")), "IBM01140", true)) {
+      for (GenericRecord record : reader) {
+        records.add(AvroConverter.fromAvroRecord(record, schema));
+      }
+    }
+    return records;
+  }
+}
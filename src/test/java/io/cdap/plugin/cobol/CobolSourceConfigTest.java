@@ -0,0 +1,59 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.cdap.plugin.cobol;
+
+import com.google.common.io.Resources;
+import io.cdap.cdap.api.data.schema.Schema;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Tests for {@link CobolSourceConfig}.
+ */
+public class CobolSourceConfigTest {
+
+  @Test
+  public void testFixedLengthRecord() throws Exception {
+    CobolSourceConfig config = new CobolSourceConfig("ref", "/data", CobolTestData.FIXED_COPYBOOK, null, null, false,
+                                                     null, null, null);
+    CobolRecordDecoder decoder = createDecoder(config);
+    Assert.assertEquals(6 + 20, config.getRecordLength(decoder));
+  }
+
+  @Test
+  public void testRecordDescriptorWord() throws Exception {
+    String copybook = Resources.toString(getClass().getClassLoader().getResource("custdat.cpbk"),
+                                         StandardCharsets.UTF_8);
+    CobolSourceConfig config = new CobolSourceConfig("ref", "/data", copybook, null, null, true, null, null, null);
+    Assert.assertEquals(0, config.getRecordLength(createDecoder(config)));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testVariableLengthWithoutRecordDescriptorWord() throws Exception {
+    String copybook = Resources.toString(getClass().getClassLoader().getResource("custdat.cpbk"),
+                                         StandardCharsets.UTF_8);
+    CobolSourceConfig config = new CobolSourceConfig("ref", "/data", copybook, null, null, false, null, null, null);
+    config.getRecordLength(createDecoder(config));
+  }
+
+  private CobolRecordDecoder createDecoder(CobolSourceConfig config) throws Exception {
+    CopybookReader copybookReader = config.getCopybookReader();
+    Schema schema = config.getOutputSchemaAndValidate(copybookReader);
+    return copybookReader.createRecordDecoder(config.getCharset(), schema);
+  }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.cdap.plugin.cobol;
+
+import com.google.common.base.Strings;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.Random;
+
+/**
+ * Copybooks and encoders of COBOL data shared by the tests.
+ */
+final class CobolTestData {
+
+  /**
+   * Copybook of fixed length records of 26 bytes.
+   */
+  static final String FIXED_COPYBOOK = "       01  CUSTOMER-DATA.\n" +
+    "           05 CUSTOMER-ID                    PIC 9(6).\n" +
+    "           05 CUSTOMER-NAME                  PIC X(20).";
+
+  private CobolTestData() {
+    // no-op
+  }
+
+  /**
+   * Returns a random value of at most the given number of digits, negative half of the time if signed.
+   */
+  static long randomValue(Random random, int digits, boolean signed) {
+    long value = (random.nextLong() & Long.MAX_VALUE) % BigInteger.TEN.pow(digits).longValue();
+    return signed && random.nextBoolean() ? -value : value;
+  }
+
+  /**
+   * Encodes an unscaled value as a packed decimal of the given number of digits.
+   */
+  static byte[] packed(long value, int digits, boolean signed) {
+    byte[] bytes = new byte[digits / 2 + 1];
+    String nibbles = Strings.padStart(Long.toString(Math.abs(value)), bytes.length * 2 - 1, '0');
+    for (int i = 0; i < bytes.length; i++) {
+      int high = nibbles.charAt(i * 2) - '0';
+      int sign = signed ? (value < 0 ? 0x0D : 0x0C) : 0x0F;
+      int low = i == bytes.length - 1 ? sign : nibbles.charAt(i * 2 + 1) - '0';
+      bytes[i] = (byte) (high << 4 | low);
+    }
+    return bytes;
+  }
+
+  /**
+   * Encodes an unscaled value as a zoned decimal with a trailing overpunched sign.
+   */
+  static byte[] zoned(long value, int digits) {
+    byte[] bytes = new byte[digits];
+    String text = Strings.padStart(Long.toString(Math.abs(value)), digits, '0');
+    for (int i = 0; i < digits; i++) {
+      int zone = i < digits - 1 ? 0xF0 : (value < 0 ? 0xD0 : 0xC0);
+      bytes[i] = (byte) (zone | (text.charAt(i) - '0'));
+    }
+    return bytes;
+  }
+
+  /**
+   * Strips the RDW from every record of variable length records, to get the records laid out back to back.
+   */
+  static byte[] stripRecordDescriptorWords(byte[] data) throws IOException {
+    ByteArrayOutputStream os = new ByteArrayOutputStream();
+    int offset = 0;
+    while (offset < data.length) {
+      int length = CobolRecordReader.getRecordLength(data, offset);
+      os.write(data, offset + CobolRecordReader.RDW_LEN, length);
+      offset += CobolRecordReader.RDW_LEN + length;
+    }
+    return os.toByteArray();
+  }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.cdap.plugin.cobol;
+
+import com.google.common.base.Joiner;
+import com.google.common.io.CharSource;
+import com.legstar.base.type.CobolType;
+import com.legstar.base.type.composite.CobolArrayType;
+import com.legstar.base.type.composite.CobolChoiceType;
+import com.legstar.base.type.composite.CobolComplexType;
+import com.legstar.base.type.primitive.CobolBinaryType;
+import com.legstar.base.type.primitive.CobolDoubleType;
+import com.legstar.base.type.primitive.CobolFloatType;
+import com.legstar.base.type.primitive.CobolPackedDecimalType;
+import com.legstar.base.type.primitive.CobolStringType;
+import com.legstar.base.type.primitive.CobolZonedDecimalType;
+import io.cdap.cdap.api.data.format.StructuredRecord;
+import io.cdap.cdap.api.data.schema.Schema;
+import io.cdap.plugin.common.AvroConverter;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Tests for {@link CobolTypeBuilder}.
+ */
+public class CobolTypeBuilderTest {
+
+  private static final String COPYBOOK = Joiner.on('\n').join(
+    "       01  REC.",
+    "           05 CNT            PIC 9(2) COMP.",
+    "           05 AMOUNT         PIC S9(13)V99 COMP-3.",
+    "           05 BALANCE        PIC S9(5)V99 SIGN LEADING SEPARATE.",
+    "           05 RATE           COMP-1.",
+    "           05 TOTAL          COMP-2.",
+    "           05 CODES          PIC X(3) OCCURS 2.",
+    "           05 GRP.",
+    "              10 NAME        PIC X(4).",
+    "           05 NUM REDEFINES GRP PIC 9(4).",
+    "           05 OPT OCCURS 0 TO 1 DEPENDING ON CNT.",
+    "              10 FLAG        PIC X.",
+    "           05 ITEMS OCCURS 0 TO 5 DEPENDING ON CNT.",
+    "              10 ITEM        PIC X(2).");
+
+  @Test
+  public void testBuild() throws Exception {
+    CopybookReader reader = new CopybookReader(CharSource.wrap(COPYBOOK), new Properties());
+    Schema schema = AvroConverter.fromAvroSchema(reader.getSchema());
+    CobolComplexType type = reader.createCobolType();
+    Assert.assertSame(type, reader.createCobolType());
+
+    Assert.assertEquals("REC", type.getCobolName());
+    Map<String, CobolType> fields = type.getFields();
+    Assert.assertEquals(schema.getFields().size(), fields.size());
+
+    CobolBinaryType<?> count = (CobolBinaryType<?>) fields.get("cnt");
+    Assert.assertEquals(Integer.class, count.getJavaClass());
+    Assert.assertTrue(count.isOdoObject());
+    Assert.assertEquals(5, count.getMaxInclusive().intValue());
+
+    CobolPackedDecimalType<?> amount = (CobolPackedDecimalType<?>) fields.get("amount");
+    Assert.assertEquals(BigDecimal.class, amount.getJavaClass());
+    Assert.assertTrue(amount.isSigned());
+    Assert.assertEquals(15, amount.getTotalDigits());
+    Assert.assertEquals(2, amount.getFractionDigits());
+
+    CobolZonedDecimalType<?> balance = (CobolZonedDecimalType<?>) fields.get("balance");
+    Assert.assertTrue(balance.isSignLeading());
+    Assert.assertTrue(balance.isSignSeparate());
+    Assert.assertEquals(8, balance.getBytesLen());
+
+    Assert.assertTrue(fields.get("rate") instanceof CobolFloatType);
+    Assert.assertTrue(fields.get("total") instanceof CobolDoubleType);
+
+    CobolArrayType codes = (CobolArrayType) fields.get("codes");
+    Assert.assertEquals(2, codes.getMaxOccurs());
+    Assert.assertEquals(3, ((CobolStringType<?>) codes.getItemType()).getBytesLen());
+
+    CobolChoiceType choice = (CobolChoiceType) fields.get("grpChoice");
+    Assert.assertEquals(2, choice.getAlternatives().size());
+    Assert.assertTrue(choice.getAlternatives().get("grp") instanceof CobolComplexType);
+    Assert.assertTrue(choice.getAlternatives().get("num") instanceof CobolZonedDecimalType);
+
+    CobolComplexType optional = (CobolComplexType) fields.get("opt");
+    Assert.assertEquals("cnt", optional.getDependingOn());
+
+    CobolArrayType items = (CobolArrayType) fields.get("items");
+    Assert.assertEquals(0, items.getMinOccurs());
+    Assert.assertEquals(5, items.getMaxOccurs());
+    Assert.assertEquals("cnt", items.getDependingOn());
+    Assert.assertEquals(2 + 8 + 8 + 4 + 8 + 6 + 4 + 1, type.getMinBytesLen());
+    Assert.assertEquals(type.getMinBytesLen() + 5 * 2, type.getMaxBytesLen());
+  }
+
+  @Test
+  public void testWideGroup() throws Exception {
+    // A wide top level group and a wide group repeated by an OCCURS
+    int width = 2000;
+    StringBuilder copybook = new StringBuilder("       01  WIDE.\n");
+    for (int i = 0; i < width; i++) {
+      copybook.append(String.format("           05 F%d PIC X(2).%n", i));
+    }
+    copybook.append(String.format("           05 ITEMS OCCURS 10.%n"));
+    for (int i = 0; i < width / 10; i++) {
+      copybook.append(String.format("              10 G%d PIC 9(3).%n", i));
+    }
+
+    CopybookReader reader = new CopybookReader(CharSource.wrap(copybook), new Properties());
+    CobolComplexType type = reader.createCobolType();
+    Assert.assertEquals(width + 1, type.getFields().size());
+    int length = width * 2 + 10 * (width / 10) * 3;
+    Assert.assertEquals(length, type.getMaxBytesLen());
+
+    byte[] data = new byte[length];
+    for (int i = 0; i < width; i++) {
+      System.arraycopy(String.format("%02d", i % 100).getBytes("IBM01140"), 0, data, i * 2, 2);
+    }
+    for (int i = width * 2; i < length; i += 3) {
+      System.arraycopy("123".getBytes("IBM01140"), 0, data, i, 3);
+    }
+
+    Schema schema = AvroConverter.fromAvroSchema(reader.getSchema());
+    CobolRecordDecoder decoder = reader.createRecordDecoder("IBM01140", schema);
+    StructuredRecord record = decoder.decode(data, 0, data.length);
+    Assert.assertEquals(length, decoder.getLastRecordLength());
+    Assert.assertEquals("99", record.get("f1999"));
+    List<StructuredRecord> items = record.get("items");
+    Assert.assertEquals(10, items.size());
+    Assert.assertEquals(123, ((Number) items.get(9).get("g199")).intValue());
+  }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.cdap.plugin.cobol;
+
+import com.google.common.io.Resources;
+import com.legstar.cob2xsd.Cob2XsdConfig;
+import io.cdap.cdap.api.data.format.StructuredRecord;
+import io.cdap.cdap.api.data.schema.Schema;
+import io.cdap.plugin.common.AvroConverter;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Tests for {@link CopybookArtifactStore}.
+ */
+public class CopybookArtifactStoreTest {
+
+  @ClassRule
+  public static final TemporaryFolder TEMP_FOLDER = new TemporaryFolder();
+
+  private String copybook;
+  private byte[] data;
+  private Configuration conf;
+  private FileSystem fs;
+  private Path directory;
+
+  @Before
+  public void init() throws Exception {
+    copybook = Resources.toString(getClass().getClassLoader().getResource("custdat.cpbk"), StandardCharsets.UTF_8);
+    data = Resources.toByteArray(getClass().getClassLoader().getResource("custdat.bin"));
+    conf = new Configuration();
+    fs = FileSystem.getLocal(conf);
+    directory = new Path(TEMP_FOLDER.newFolder().toURI().toString(), "artifacts");
+  }
+
+  @Test
+  public void testStoreAndLoad() throws Exception {
+    CopybookArtifactStore store = new CopybookArtifactStore(directory, conf);
+    Properties properties = new Properties();
+    CopybookReader parsed = store.get(copybook, properties);
+    Path path = store.getPath(copybook, properties);
+    Assert.assertTrue(fs.exists(path));
+    Assert.assertEquals(1, fs.listStatus(directory).length);
+
+    // The artifact is a JSON document
+    try (InputStream is = fs.open(path)) {
+      JsonNode artifact = new ObjectMapper().readTree(is);
+      Assert.assertEquals(parsed.getSchema().toString(), artifact.get("avroSchema").getTextValue());
+      Assert.assertTrue(artifact.get("complexTypes").isObject());
+    }
+
+    // The second reader is loaded from the artifact and decodes the same records
+    CopybookReader loaded = store.get(copybook, properties);
+    Assert.assertNotSame(parsed, loaded);
+    Assert.assertEquals(parsed.getSchema(), loaded.getSchema());
+    Assert.assertEquals(decode(parsed), decode(loaded));
+
+    // Different parsing configurations have different artifacts
+    Properties freeFormat = new Properties();
+    freeFormat.setProperty("codeFormat", "FREE_FORMAT");
+    Assert.assertNotEquals(path, store.getPath(copybook, freeFormat));
+  }
+
+  @Test
+  public void testInvalidArtifact() throws Exception {
+    CopybookArtifactStore store = new CopybookArtifactStore(directory, conf);
+    Properties properties = new Properties();
+    Path path = store.getPath(copybook, properties);
+    try (OutputStream os = fs.create(path)) {
+      os.write("invalid".getBytes(StandardCharsets.UTF_8));
+    }
+
+    // The invalid artifact is ignored and replaced
+    CopybookReader reader = store.get(copybook, properties);
+    Assert.assertFalse(decode(reader).isEmpty());
+    Assert.assertTrue(fs.getFileStatus(path).getLen() > "invalid".length());
+    Assert.assertEquals(decode(reader), decode(store.get(copybook, properties)));
+  }
+
+  @Test
+  public void testConfigArtifactDirectory() throws Exception {
+    CobolRecordConverterConfig config = CobolRecordConverterConfig.builder()
+      .setCopybook(copybook)
+      .setContentFieldName("body")
+      .setCopybookArtifactDirectory(directory.toString())
+      .build();
+    // Stored when preparing the run even if the reader is already cached in this JVM
+    config.getCopybookReader();
+    config.storeCopybookArtifact();
+    Properties properties = new Properties();
+    properties.setProperty(Cob2XsdConfig.CODE_FORMAT, config.getCodeFormat());
+    Assert.assertTrue(fs.exists(new CopybookArtifactStore(directory, conf).getPath(copybook, properties)));
+
+    // On cache miss, the reader is loaded from the artifact
+    CopybookReaderCache.invalidateAll();
+    Assert.assertFalse(decode(config.getCopybookReader()).isEmpty());
+  }
+
+  private List<StructuredRecord> decode(CopybookReader reader) throws Exception {
+    Schema schema = AvroConverter.fromAvroSchema(reader.getSchema());
+    CobolRecordDecoder decoder = reader.createRecordDecoder("IBM01140", schema);
+    List<StructuredRecord> records = new ArrayList<>();
+    try (CobolRecordReader recordReader = new CobolRecordReader(data, 0, data.length, decoder, true)) {
+      for (StructuredRecord record : recordReader) {
+        records.add(record);
+      }
+    }
+    return records;
+  }
+}
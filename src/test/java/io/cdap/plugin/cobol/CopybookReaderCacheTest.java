@@ -0,0 +1,88 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.cobol;
+
+import com.google.common.cache.CacheStats;
+import com.google.common.io.Resources;
+import com.legstar.cob2xsd.Cob2XsdConfig;
+import io.cdap.cdap.api.data.schema.Schema;
+import io.cdap.cdap.etl.mock.validation.MockFailureCollector;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Tests for {@link CopybookReaderCache}.
+ */
+public class CopybookReaderCacheTest {
+
+  private String copybook;
+
+  @Before
+  public void init() throws IOException {
+    copybook = Resources.toString(getClass().getClassLoader().getResource("custdat.cpbk"), StandardCharsets.UTF_8);
+    CopybookReaderCache.invalidateAll();
+  }
+
+  @Test
+  public void testSameCopybook() throws IOException {
+    CacheStats before = CopybookReaderCache.getStats();
+
+    CopybookReader reader = createConfig(copybook, "FIXED_FORMAT").getCopybookReader();
+    Assert.assertSame(reader, createConfig(copybook, "FIXED_FORMAT").getCopybookReader());
+    Assert.assertSame(reader, createConfig(new String(copybook), "FIXED_FORMAT").getCopybookReader());
+
+    CacheStats stats = CopybookReaderCache.getStats().minus(before);
+    Assert.assertEquals(1L, stats.missCount());
+    Assert.assertEquals(2L, stats.hitCount());
+  }
+
+  @Test
+  public void testDifferentConfig() throws IOException {
+    CopybookReader reader = createConfig(copybook, "FIXED_FORMAT").getCopybookReader();
+    Assert.assertNotSame(reader, createConfig(copybook, "FREE_FORMAT").getCopybookReader());
+  }
+
+  @Test
+  public void testSchemaOnly() throws IOException {
+    CobolRecordConverterConfig config = createConfig(copybook, "FIXED_FORMAT");
+    Schema inputSchema = Schema.recordOf("input", Schema.Field.of("body", Schema.of(Schema.Type.BYTES)));
+    Schema schema = config.getOutputSchemaAndValidate(new MockFailureCollector(), inputSchema);
+
+    // Validating the configuration only computes the schema, the decoding classes are generated when decoding
+    CopybookReader reader = config.getCopybookReader();
+    Assert.assertFalse(reader.isCobolTypesCreated());
+    Assert.assertEquals(schema, config.createRecordDecoder(reader, schema).getSchema());
+    Assert.assertTrue(reader.isCobolTypesCreated());
+  }
+
+  @Test(expected = IOException.class)
+  public void testInvalidCopybook() throws IOException {
+    createConfig("01 INVALID PIC.", Cob2XsdConfig.CodeFormat.FREE_FORMAT.name()).getCopybookReader();
+  }
+
+  private CobolRecordConverterConfig createConfig(String copybook, String codeFormat) {
+    return CobolRecordConverterConfig.builder()
+      .setCopybook(copybook)
+      .setCodeFormat(codeFormat)
+      .setContentFieldName("body")
+      .build();
+  }
+}
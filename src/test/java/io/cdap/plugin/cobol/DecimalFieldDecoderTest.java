@@ -0,0 +1,171 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.cdap.plugin.cobol;
+
+import com.google.common.io.ByteSource;
+import com.google.common.io.CharSource;
+import com.legstar.avro.cob2avro.io.AbstractZosDatumReader;
+import io.cdap.cdap.api.data.format.StructuredRecord;
+import io.cdap.cdap.api.data.schema.Schema;
+import io.cdap.plugin.common.AvroConverter;
+import org.apache.avro.generic.GenericRecord;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+
+/**
+ * Tests for {@link DecimalFieldDecoder}.
+ */
+public class DecimalFieldDecoderTest {
+
+  private static final String COPYBOOK = "       01  DECIMAL-DATA.\n" +
+    "           05 PACKED-EVEN                    PIC S9(16)V99 COMP-3.\n" +
+    "           05 PACKED-ODD                     PIC S9(15)V99 COMP-3.\n" +
+    "           05 PACKED-UNSIGNED                PIC 9(5) COMP-3.\n" +
+    "           05 ZONED-TRAILING                 PIC S9(7)V99.\n" +
+    "           05 ZONED-UNSIGNED                 PIC 9(4).\n" +
+    "           05 ZONED-LEADING PIC S9(3) SIGN LEADING SEPARATE.";
+
+  @Test
+  public void testUnscaledBytes() {
+    long[] values = { 0, 1, -1, 127, 128, -128, -129, 255, 256, 32767, -32768, 999999999999999999L,
+      -999999999999999999L, Long.MAX_VALUE, Long.MIN_VALUE };
+    for (long value : values) {
+      Assert.assertArrayEquals(String.valueOf(value), BigInteger.valueOf(value).toByteArray(),
+                               DecimalFieldDecoder.toUnscaledBytes(value));
+    }
+  }
+
+  @Test
+  public void testSameAsAvroConversion() throws Exception {
+    CopybookReader copybookReader = new CopybookReader(CharSource.wrap(COPYBOOK), new Properties());
+    Schema schema = AvroConverter.fromAvroSchema(copybookReader.getSchema());
+
+    Schema packedSchema = schema.getField("packedEven").getSchema();
+    Assert.assertEquals(Schema.LogicalType.DECIMAL, packedSchema.getLogicalType());
+    Assert.assertEquals(18, packedSchema.getPrecision());
+    Assert.assertEquals(2, packedSchema.getScale());
+
+    Random random = new Random(0);
+    ByteArrayOutputStream os = new ByteArrayOutputStream();
+    for (int i = 0; i < 1000; i++) {
+      os.write(CobolTestData.packed(CobolTestData.randomValue(random, 18, true), 18, true));
+      os.write(CobolTestData.packed(CobolTestData.randomValue(random, 17, true), 17, true));
+      os.write(CobolTestData.packed(CobolTestData.randomValue(random, 5, false), 5, false));
+      os.write(CobolTestData.zoned(CobolTestData.randomValue(random, 9, true), 9));
+      os.write(CobolTestData.zoned(CobolTestData.randomValue(random, 4, false), 4));
+      long value = CobolTestData.randomValue(random, 3, true);
+      os.write(value < 0 ? 0x60 : 0x4E);
+      os.write(CobolTestData.zoned(Math.abs(value), 3));
+    }
+    byte[] data = os.toByteArray();
+
+    List<StructuredRecord> expected = new ArrayList<>();
+    try (AbstractZosDatumReader<GenericRecord> reader =
+           copybookReader.createRecordReader(ByteSource.wrap(data), "IBM01140", false)) {
+      for (GenericRecord record : reader) {
+        expected.add(AvroConverter.fromAvroRecord(record, schema));
+      }
+    }
+
+    List<StructuredRecord> actual = new ArrayList<>();
+    CobolRecordDecoder decoder = copybookReader.createRecordDecoder("IBM01140", schema);
+    for (StructuredRecord record : new CobolRecordReader(data, 0, data.length, decoder, false)) {
+      actual.add(record);
+    }
+    Assert.assertEquals(expected, actual);
+    Assert.assertEquals(1000, actual.size());
+    Assert.assertTrue(actual.get(0).getDecimal("packedOdd") instanceof BigDecimal);
+
+    // Valid input decodes the same without validation
+    actual.clear();
+    decoder = copybookReader.createRecordDecoder("IBM01140", schema,
+                                                 RecordDecoderOptions.builder().setTrustedInput(true).build());
+    for (StructuredRecord record : new CobolRecordReader(data, 0, data.length, decoder, false)) {
+      actual.add(record);
+    }
+    Assert.assertEquals(expected, actual);
+  }
+
+  @Test(expected = RuntimeException.class)
+  public void testInvalidDigit() throws Exception {
+    CopybookReader copybookReader = new CopybookReader(CharSource.wrap(COPYBOOK), new Properties());
+    Schema schema = AvroConverter.fromAvroSchema(copybookReader.getSchema());
+    byte[] data = new byte[(int) copybookReader.createRecordDecoder("IBM01140", schema).getMaxRecordLength()];
+    // The first digit of the first packed decimal is not a digit
+    data[0] = (byte) 0x0A;
+    copybookReader.createRecordDecoder("IBM01140", schema).decode(data, 0, data.length);
+  }
+
+  @Test
+  public void testTrustedInvalidDigit() throws Exception {
+    CopybookReader copybookReader = new CopybookReader(CharSource.wrap(COPYBOOK), new Properties());
+    Schema schema = AvroConverter.fromAvroSchema(copybookReader.getSchema());
+    RecordDecoderOptions options = RecordDecoderOptions.builder().setTrustedInput(true).build();
+    byte[] data = new byte[(int) copybookReader.createRecordDecoder("IBM01140", schema).getMaxRecordLength()];
+    data[0] = (byte) 0x0A;
+    // Not validated, hence doesn't fail
+    Assert.assertNotNull(copybookReader.createRecordDecoder("IBM01140", schema, options).decode(data, 0, data.length));
+  }
+
+  @Test
+  public void testInvalidZone() throws Exception {
+    CopybookReader copybookReader = new CopybookReader(CharSource.wrap(COPYBOOK), new Properties());
+    Schema schema = AvroConverter.fromAvroSchema(copybookReader.getSchema());
+    CobolRecordDecoder decoder = copybookReader.createRecordDecoder("IBM01140", schema);
+    byte[] valid = validRecord();
+    Assert.assertNotNull(decoder.decode(valid, 0, valid.length));
+
+    // A space in the middle of a zoned decimal, a letter in place of a digit, a space in place of the
+    // overpunched sign and a separate sign that is neither plus nor minus
+    int[][] corruptions = { { 33, 0x40 }, { 31, 0xC1 }, { 30, 0x40 }, { 35, 0x40 } };
+    for (int[] corruption : corruptions) {
+      byte[] data = valid.clone();
+      data[corruption[0]] = (byte) corruption[1];
+      try {
+        decoder.decode(data, 0, data.length);
+        Assert.fail("Expected failure for byte 0x" + Integer.toHexString(corruption[1]) + " at " + corruption[0]);
+      } catch (RuntimeException e) {
+        // expected
+      }
+      // Not validated with trusted input
+      Assert.assertNotNull(copybookReader.createRecordDecoder(
+        "IBM01140", schema, RecordDecoderOptions.builder().setTrustedInput(true).build()).decode(data, 0, data.length));
+    }
+  }
+
+  /**
+   * Returns a record of the test copybook with valid values.
+   */
+  private static byte[] validRecord() throws Exception {
+    ByteArrayOutputStream os = new ByteArrayOutputStream();
+    os.write(CobolTestData.packed(1, 18, true));
+    os.write(CobolTestData.packed(-1, 17, true));
+    os.write(CobolTestData.packed(1, 5, false));
+    os.write(CobolTestData.zoned(-1234, 9));
+    os.write(CobolTestData.zoned(1234, 4));
+    os.write(0x4E);
+    os.write(CobolTestData.zoned(123, 3));
+    return os.toByteArray();
+  }
+}
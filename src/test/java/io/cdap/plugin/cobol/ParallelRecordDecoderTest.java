@@ -0,0 +1,134 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.cdap.plugin.cobol;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.CharSource;
+import com.google.common.io.Resources;
+import io.cdap.cdap.api.data.format.StructuredRecord;
+import io.cdap.cdap.api.data.schema.Schema;
+import io.cdap.plugin.common.AvroConverter;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Tests for {@link ParallelRecordDecoder}.
+ */
+public class ParallelRecordDecoderTest {
+
+  @Test
+  public void testRecordDescriptorWord() throws Exception {
+    CopybookReader copybookReader = new CopybookReader(
+      Resources.asCharSource(getClass().getClassLoader().getResource("custdat.cpbk"), StandardCharsets.UTF_8),
+      new Properties());
+    Schema schema = AvroConverter.fromAvroSchema(copybookReader.getSchema());
+    byte[] data = Resources.toByteArray(getClass().getClassLoader().getResource("custdat.bin"));
+
+    List<StructuredRecord> expected = new ArrayList<>();
+    CobolRecordDecoder decoder = copybookReader.createRecordDecoder("IBM01140", schema);
+    for (StructuredRecord record : new CobolRecordReader(data, 0, data.length, decoder, true)) {
+      expected.add(record);
+    }
+
+    RecordDecoderOptions options = RecordDecoderOptions.defaults();
+    for (int chunkSize : Arrays.asList(1, 7, 1000, 20000)) {
+      try (ParallelRecordDecoder parallelDecoder = new ParallelRecordDecoder(copybookReader, "IBM01140", schema,
+                                                                             options, true, 4, chunkSize)) {
+        Assert.assertEquals(expected, toList(parallelDecoder.decode(ByteBuffer.wrap(data))));
+
+        ByteBuffer directBuffer = ByteBuffer.allocateDirect(data.length);
+        directBuffer.put(data).flip();
+        Assert.assertEquals(expected, toList(parallelDecoder.decode(directBuffer)));
+      }
+    }
+  }
+
+  @Test
+  public void testFixedLength() throws Exception {
+    CopybookReader copybookReader = new CopybookReader(CharSource.wrap(CobolTestData.FIXED_COPYBOOK),
+                                                       new Properties());
+    Schema schema = AvroConverter.fromAvroSchema(copybookReader.getSchema());
+
+    Charset charset = Charset.forName("IBM01140");
+    ByteArrayOutputStream os = new ByteArrayOutputStream();
+    List<String> names = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      String name = "name" + i;
+      os.write(String.format("%06d%-20s", i, name).getBytes(charset));
+      names.add(name);
+    }
+    byte[] data = os.toByteArray();
+
+    RecordDecoderOptions options = RecordDecoderOptions.defaults();
+    try (ParallelRecordDecoder parallelDecoder = new ParallelRecordDecoder(copybookReader, "IBM01140", schema,
+                                                                           options, false, 3, 16)) {
+      List<StructuredRecord> records = toList(parallelDecoder.decode(ByteBuffer.wrap(data)));
+      Assert.assertEquals(names.size(), records.size());
+      for (int i = 0; i < records.size(); i++) {
+        Assert.assertEquals(i, (long) records.get(i).get("customerId"));
+        Assert.assertEquals(names.get(i), records.get(i).get("customerName"));
+      }
+    }
+  }
+
+  @Test
+  public void testFilter() throws Exception {
+    CopybookReader copybookReader = new CopybookReader(CharSource.wrap(CobolTestData.FIXED_COPYBOOK),
+                                                       new Properties());
+    Schema schema = AvroConverter.fromAvroSchema(copybookReader.getSchema());
+
+    ByteArrayOutputStream os = new ByteArrayOutputStream();
+    for (int i = 0; i < 1000; i++) {
+      os.write(String.format("%06d%-20s", i, "name" + i).getBytes(Charset.forName("IBM01140")));
+    }
+    byte[] data = os.toByteArray();
+
+    RecordDecoderOptions options = RecordDecoderOptions.builder()
+      .setFilter("CUSTOMER-ID >= 500 AND CUSTOMER-NAME <> 'name600'")
+      .build();
+    try (ParallelRecordDecoder parallelDecoder = new ParallelRecordDecoder(copybookReader, "IBM01140", schema,
+                                                                           options, false, 3, 16)) {
+      List<StructuredRecord> records = toList(parallelDecoder.decode(ByteBuffer.wrap(data)));
+      Assert.assertEquals(499, records.size());
+      Assert.assertEquals(500L, (long) records.get(0).get("customerId"));
+      Assert.assertEquals(601L, (long) records.get(100).get("customerId"));
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testVariableLengthWithoutRecordDescriptorWord() throws Exception {
+    CopybookReader copybookReader = new CopybookReader(
+      Resources.asCharSource(getClass().getClassLoader().getResource("custdat.cpbk"), StandardCharsets.UTF_8),
+      new Properties());
+    Schema schema = AvroConverter.fromAvroSchema(copybookReader.getSchema());
+    new ParallelRecordDecoder(copybookReader, "IBM01140", schema, RecordDecoderOptions.defaults(), false, 2, 10)
+      .close();
+  }
+
+  private static List<StructuredRecord> toList(Iterator<StructuredRecord> iterator) {
+    return ImmutableList.copyOf(iterator);
+  }
+}
@@ -0,0 +1,231 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.cdap.plugin.cobol;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
+import com.google.common.io.Resources;
+import io.cdap.cdap.api.data.format.StructuredRecord;
+import io.cdap.cdap.api.data.schema.Schema;
+import io.cdap.plugin.common.AvroConverter;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.DecoderFactory;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Tests for {@link PartitionRecordIterator}.
+ */
+public class PartitionRecordIteratorTest {
+
+  private static final Schema INPUT_SCHEMA = Schema.recordOf(
+    "input", Schema.Field.of("body", Schema.nullableOf(Schema.of(Schema.Type.BYTES))));
+
+  private static String copybook;
+  private static byte[] data;
+
+  @BeforeClass
+  public static void init() throws Exception {
+    URL copyBookURL = PartitionRecordIteratorTest.class.getClassLoader().getResource("custdat.cpbk");
+    URL dataURL = PartitionRecordIteratorTest.class.getClassLoader().getResource("custdat.bin");
+    Assert.assertNotNull(copyBookURL);
+    Assert.assertNotNull(dataURL);
+    copybook = Resources.toString(copyBookURL, StandardCharsets.UTF_8);
+    data = Resources.toByteArray(dataURL);
+  }
+
+  @Test
+  public void testPartition() throws Exception {
+    CobolRecordConverterConfig config = CobolRecordConverterConfig.builder()
+      .setCopybook(copybook)
+      .setContentFieldName("body")
+      .build();
+    List<StructuredRecord> expected = decode(config);
+    Assert.assertFalse(expected.isEmpty());
+
+    // Records of all the payloads are emitted in order, skipping the ones without content
+    Iterator<StructuredRecord> input = ImmutableList.of(
+      createInput(data), StructuredRecord.builder(INPUT_SCHEMA).build(), createInput(ByteBuffer.wrap(data))).iterator();
+    List<StructuredRecord> actual = Lists.newArrayList(new PartitionRecordIterator(config, input));
+    Assert.assertEquals(2 * expected.size(), actual.size());
+    Assert.assertEquals(expected, actual.subList(0, expected.size()));
+    Assert.assertEquals(expected, actual.subList(expected.size(), actual.size()));
+
+    Assert.assertFalse(new PartitionRecordIterator(config, Iterators.<StructuredRecord>emptyIterator()).hasNext());
+  }
+
+  @Test
+  public void testAvroOutput() throws Exception {
+    CobolRecordConverterConfig config = CobolRecordConverterConfig.builder()
+      .setCopybook(copybook)
+      .setContentFieldName("body")
+      .setOutputFormat("avro")
+      .build();
+    CopybookReader copybookReader = config.getCopybookReader();
+    CobolRecordDecoder decoder = config.createRecordDecoder(copybookReader,
+                                                            config.getOutputSchemaAndValidate(copybookReader));
+    List<ByteBuffer> expected = new CobolAvroEncoder(decoder, true).encode(ByteBuffer.wrap(data));
+
+    List<ByteBuffer> actual = new ArrayList<>();
+    Iterator<StructuredRecord> records = new PartitionRecordIterator(config, ImmutableList.of(createInput(data))
+      .iterator());
+    while (records.hasNext()) {
+      StructuredRecord record = records.next();
+      Assert.assertEquals(config.getAvroOutputSchema(), record.getSchema());
+      actual.add(record.<ByteBuffer>get("body"));
+    }
+    Assert.assertEquals(expected, actual);
+  }
+
+  @Test
+  public void testAvroSchemaField() throws Exception {
+    CobolRecordConverterConfig config = CobolRecordConverterConfig.builder()
+      .setCopybook(copybook)
+      .setContentFieldName("body")
+      .setOutputFormat("avro")
+      .setAvroSchemaFieldName("schema")
+      .build();
+    CopybookReader copybookReader = config.getCopybookReader();
+    Schema schema = config.getOutputSchemaAndValidate(copybookReader);
+    CobolRecordDecoder decoder = config.createRecordDecoder(copybookReader, schema);
+    List<StructuredRecord> expected = new ArrayList<>();
+    for (StructuredRecord record : new CobolRecordReader(data, 0, data.length, decoder, true)) {
+      expected.add(record);
+    }
+
+    // Each record carries the writer schema needed to read its encoding
+    List<StructuredRecord> actual = new ArrayList<>();
+    Iterator<StructuredRecord> records = new PartitionRecordIterator(config, ImmutableList.of(createInput(data))
+      .iterator());
+    while (records.hasNext()) {
+      StructuredRecord record = records.next();
+      Assert.assertEquals(config.getAvroOutputSchema(), record.getSchema());
+      org.apache.avro.Schema writerSchema = new org.apache.avro.Schema.Parser().parse(record.<String>get("schema"));
+      ByteBuffer body = record.get("body");
+      GenericRecord avroRecord = new GenericDatumReader<GenericRecord>(writerSchema).read(
+        null, DecoderFactory.get().binaryDecoder(body.array(), body.arrayOffset() + body.position(),
+                                                 body.remaining(), null));
+      actual.add(AvroConverter.fromAvroRecord(avroRecord, schema));
+    }
+    Assert.assertEquals(expected, actual);
+  }
+
+  @Test
+  public void testSingleRecord() throws Exception {
+    CobolRecordConverterConfig config = CobolRecordConverterConfig.builder()
+      .setCopybook(copybook)
+      .setContentFieldName("body")
+      .build();
+    List<StructuredRecord> expected = decode(config);
+    CobolRecordConverterConfig singleConfig = CobolRecordConverterConfig.builder(config).setSingleRecord(true).build();
+
+    // One message per record, without the Record Descriptor Word, alternating heap and direct buffers
+    List<StructuredRecord> input = new ArrayList<>();
+    int offset = 0;
+    while (offset < data.length) {
+      int length = CobolRecordReader.getRecordLength(data, offset);
+      ByteBuffer message = ByteBuffer.wrap(data, offset + CobolRecordReader.RDW_LEN, length);
+      if (input.size() % 2 == 1) {
+        ByteBuffer direct = ByteBuffer.allocateDirect(length);
+        direct.put(message).flip();
+        message = direct;
+      }
+      input.add(createInput(message.slice()));
+      offset += CobolRecordReader.RDW_LEN + length;
+    }
+    Assert.assertEquals(expected, Lists.newArrayList(new PartitionRecordIterator(singleConfig, input.iterator())));
+
+    CobolRecordConverterConfig avroConfig = CobolRecordConverterConfig.builder(singleConfig)
+      .setOutputFormat("avro")
+      .build();
+    CobolRecordDecoder decoder = config.createRecordDecoder(config.getCopybookReader(), expected.get(0).getSchema());
+    List<ByteBuffer> expectedAvro = new CobolAvroEncoder(decoder, true).encode(ByteBuffer.wrap(data));
+    List<ByteBuffer> actualAvro = new ArrayList<>();
+    for (StructuredRecord record : Lists.newArrayList(new PartitionRecordIterator(avroConfig, input.iterator()))) {
+      actualAvro.add(record.<ByteBuffer>get("body"));
+    }
+    Assert.assertEquals(expectedAvro, actualAvro);
+  }
+
+  @Test
+  public void testSingleRecordTrailingBytes() throws Exception {
+    CobolRecordConverterConfig config = CobolRecordConverterConfig.builder()
+      .setCopybook(copybook)
+      .setContentFieldName("body")
+      .setSingleRecord(true)
+      .build();
+    // A message with two records has the second one as trailing bytes
+    int length = CobolRecordReader.getRecordLength(data, 0);
+    byte[] message = new byte[2 * length];
+    System.arraycopy(data, CobolRecordReader.RDW_LEN, message, 0, length);
+    System.arraycopy(data, CobolRecordReader.RDW_LEN, message, length, length);
+    for (Object body : ImmutableList.of(message, ByteBuffer.allocateDirect(message.length).put(message).flip())) {
+      try {
+        new PartitionRecordIterator(config, ImmutableList.of(createInput(body)).iterator()).next();
+        Assert.fail("Expected failure on trailing bytes");
+      } catch (RuntimeException e) {
+        Assert.assertTrue(e.getMessage(), e.getMessage().contains(length + " trailing bytes"));
+      }
+    }
+  }
+
+  @Test
+  public void testSingleRecordTooShort() throws Exception {
+    CobolRecordConverterConfig config = CobolRecordConverterConfig.builder()
+      .setCopybook(copybook)
+      .setContentFieldName("body")
+      .setSingleRecord(true)
+      .build();
+    CopybookReader copybookReader = config.getCopybookReader();
+    int minRecordLength = config.createRecordDecoder(copybookReader, config.getOutputSchemaAndValidate(copybookReader))
+      .getMinRecordLength();
+    // A message shorter than any record of the copybook is rejected instead of decoded with missing fields
+    byte[] message = new byte[minRecordLength - 1];
+    System.arraycopy(data, CobolRecordReader.RDW_LEN, message, 0, message.length);
+    CobolRecordConverterConfig avroConfig = CobolRecordConverterConfig.builder(config).setOutputFormat("avro").build();
+    for (CobolRecordConverterConfig recordConfig : ImmutableList.of(config, avroConfig)) {
+      for (Object body : ImmutableList.of(message, ByteBuffer.allocateDirect(message.length).put(message).flip())) {
+        try {
+          new PartitionRecordIterator(recordConfig, ImmutableList.of(createInput(body)).iterator()).next();
+          Assert.fail("Expected failure on a short record");
+        } catch (RuntimeException e) {
+          Assert.assertTrue(e.getMessage(), e.getMessage().contains("at least " + minRecordLength + " bytes"));
+        }
+      }
+    }
+  }
+
+  private static List<StructuredRecord> decode(CobolRecordConverterConfig config) throws Exception {
+    CopybookReader copybookReader = config.getCopybookReader();
+    CobolRecordDecoder decoder = config.createRecordDecoder(copybookReader,
+                                                            config.getOutputSchemaAndValidate(copybookReader));
+    return Lists.newArrayList((Iterator<StructuredRecord>) new CobolRecordReader(data, 0, data.length, decoder, true));
+  }
+
+  private static StructuredRecord createInput(Object body) {
+    return StructuredRecord.builder(INPUT_SCHEMA).set("body", body).build();
+  }
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.cdap.plugin.cobol;
+
+import com.google.common.base.Predicate;
+import com.google.common.base.Strings;
+import com.google.common.io.CharSource;
+import com.google.common.io.Resources;
+import io.cdap.cdap.api.common.Bytes;
+import io.cdap.cdap.api.data.format.StructuredRecord;
+import io.cdap.cdap.api.data.schema.Schema;
+import io.cdap.plugin.common.AvroConverter;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Tests for {@link RecordFilter}.
+ */
+public class RecordFilterTest {
+
+  private static final String DECIMAL_COPYBOOK = "       01  DECIMAL-DATA.\n" +
+    "           05 PACKED-ODD                     PIC S9(5)V99 COMP-3.\n" +
+    "           05 PACKED-EVEN                    PIC S9(4) COMP-3.\n" +
+    "           05 ZONED-TRAILING                 PIC S9(3)V9.\n" +
+    "           05 ZONED-LEADING PIC S9(3) SIGN LEADING SEPARATE.";
+
+  private static CopybookReader copybookReader;
+  private static Schema schema;
+  private static byte[] data;
+
+  @BeforeClass
+  public static void init() throws Exception {
+    copybookReader = new CopybookReader(
+      Resources.asCharSource(RecordFilterTest.class.getClassLoader().getResource("custdat.cpbk"),
+                             StandardCharsets.UTF_8), new Properties());
+    schema = AvroConverter.fromAvroSchema(copybookReader.getSchema());
+    data = Resources.toByteArray(RecordFilterTest.class.getClassLoader().getResource("custdat.bin"));
+  }
+
+  @Test
+  public void testCustomerData() throws Exception {
+    List<StructuredRecord> all = decode(null, data, true);
+    final String name = all.get(5).<StructuredRecord>get("personalData").get("customerName");
+    final String otherName = all.get(7).<StructuredRecord>get("personalData").get("customerName");
+    String quotedNames = String.format("'%s', '%s'", name.replace("'", "''"), otherName.replace("'", "''"));
+
+    assertFilter(all, "CUSTOMER-ID < 100", new Predicate<StructuredRecord>() {
+      @Override
+      public boolean apply(StructuredRecord record) {
+        return getId(record) < 100;
+      }
+    });
+    assertFilter(all, "customerId >= 200 and customerId <= 300.5", new Predicate<StructuredRecord>() {
+      @Override
+      public boolean apply(StructuredRecord record) {
+        return getId(record) >= 200 && getId(record) <= 300;
+      }
+    });
+    assertFilter(all, "personalData.customerName IN (" + quotedNames + ")", new Predicate<StructuredRecord>() {
+      @Override
+      public boolean apply(StructuredRecord record) {
+        String customerName = record.<StructuredRecord>get("personalData").get("customerName");
+        return customerName.equals(name) || customerName.equals(otherName);
+      }
+    });
+    assertFilter(all, "CUSTOMER-NAME NOT IN (" + quotedNames + ")", new Predicate<StructuredRecord>() {
+      @Override
+      public boolean apply(StructuredRecord record) {
+        String customerName = record.<StructuredRecord>get("personalData").get("customerName");
+        return !customerName.equals(name) && !customerName.equals(otherName);
+      }
+    });
+    assertFilter(all, "TRANSACTION-NBR > 2 OR NOT (CUSTOMER-ID > 50)", new Predicate<StructuredRecord>() {
+      @Override
+      public boolean apply(StructuredRecord record) {
+        long count = record.<StructuredRecord>get("transactions").<Number>get("transactionNbr").longValue();
+        return count > 2 || getId(record) <= 50;
+      }
+    });
+  }
+
+  @Test
+  public void testDecimalTypes() throws Exception {
+    CopybookReader decimalReader = new CopybookReader(CharSource.wrap(DECIMAL_COPYBOOK), new Properties());
+    Schema decimalSchema = AvroConverter.fromAvroSchema(decimalReader.getSchema());
+
+    ByteArrayOutputStream os = new ByteArrayOutputStream();
+    long[] values = { -9999, -1001, -10, -1, 0, 1, 9, 10, 999, 1000, 4321, 9999 };
+    for (long value : values) {
+      os.write(CobolTestData.packed(value * 7, 7, true));
+      os.write(CobolTestData.packed(value, 4, true));
+      os.write(CobolTestData.zoned(value % 10000, 4));
+      os.write(value < 0 ? 0x60 : 0x4E);
+      for (char c : Strings.padStart(Long.toString(Math.abs(value) % 1000), 3, '0').toCharArray()) {
+        os.write(0xF0 | (c - '0'));
+      }
+    }
+    byte[] decimalData = os.toByteArray();
+
+    CobolRecordDecoder decoder = decimalReader.createRecordDecoder("IBM01140", decimalSchema);
+    List<StructuredRecord> all = readAll(new CobolRecordReader(decimalData, 0, decimalData.length, decoder, false));
+    Assert.assertEquals(values.length, all.size());
+
+    String[] fields = { "PACKED-ODD", "PACKED-EVEN", "ZONED-TRAILING", "ZONED-LEADING" };
+    String[] operators = { "=", "<>", "<", "<=", ">", ">=" };
+    String[] literals = { "-123.45", "-100.1", "-1", "-0.07", "0", "0.1", "0.14", "1", "99.9", "432.1", "1000", "1e3" };
+    for (String field : fields) {
+      for (String operator : operators) {
+        for (String literal : literals) {
+          String filter = field + " " + operator + " " + literal.replace("1e3", "1000.000");
+          decoder = decimalReader.createRecordDecoder("IBM01140", decimalSchema, filter);
+          List<StructuredRecord> actual = readAll(new CobolRecordReader(decimalData, 0, decimalData.length,
+                                                                        decoder, false));
+          List<StructuredRecord> expected = new ArrayList<>();
+          for (StructuredRecord record : all) {
+            int comparison = toBigDecimal(record, field).compareTo(new BigDecimal(literal));
+            if (matches(operator, comparison)) {
+              expected.add(record);
+            }
+          }
+          Assert.assertEquals(filter, expected, actual);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testInvalidFilters() throws Exception {
+    for (String filter : Arrays.asList("UNKNOWN = 1", "CUSTOMER-ID = 'A'", "CUSTOMER-NAME = 1",
+                                       "TRANSACTION-AMOUNT > 0", "CUSTOMER-ID", "CUSTOMER-ID = 1 AND",
+                                       "(CUSTOMER-ID = 1", "CUSTOMER-NAME = 'A", "CUSTOMER-ID NOT = 1",
+                                       "CUSTOMER-ID IN ()")) {
+      try {
+        copybookReader.createRecordDecoder("IBM01140", schema, filter);
+        Assert.fail("Expected failure for filter " + filter);
+      } catch (IllegalArgumentException e) {
+        // expected
+      }
+    }
+  }
+
+  private void assertFilter(List<StructuredRecord> all, String filter,
+                            Predicate<StructuredRecord> predicate) throws Exception {
+    List<StructuredRecord> expected = new ArrayList<>();
+    for (StructuredRecord record : all) {
+      if (predicate.apply(record)) {
+        expected.add(record);
+      }
+    }
+    Assert.assertFalse(filter, expected.isEmpty());
+    Assert.assertNotEquals(filter, all.size(), expected.size());
+    Assert.assertEquals(filter, expected, decode(filter, data, true));
+    // Without RDW, skipped records must be walked to find the next record
+    Assert.assertEquals(filter, expected, decode(filter, CobolTestData.stripRecordDescriptorWords(data), false));
+  }
+
+  private static List<StructuredRecord> decode(String filter, byte[] data, boolean rdw) throws Exception {
+    CobolRecordDecoder decoder = copybookReader.createRecordDecoder("IBM01140", schema, filter);
+    return readAll(new CobolRecordReader(data, 0, data.length, decoder, rdw));
+  }
+
+  private static List<StructuredRecord> readAll(CobolRecordReader reader) {
+    List<StructuredRecord> records = new ArrayList<>();
+    for (StructuredRecord record : reader) {
+      records.add(record);
+    }
+    return records;
+  }
+
+  private static long getId(StructuredRecord record) {
+    return record.<Number>get("customerId").longValue();
+  }
+
+  private static BigDecimal toBigDecimal(StructuredRecord record, String cobolName) {
+    for (Schema.Field field : record.getSchema().getFields()) {
+      if (field.getName().equalsIgnoreCase(cobolName.replace("-", ""))) {
+        Object value = record.get(field.getName());
+        if (value instanceof ByteBuffer) {
+          // Decimals with fraction digits are emitted as their unscaled bytes
+          byte[] bytes = Bytes.getBytes((ByteBuffer) value);
+          return new BigDecimal(new BigInteger(bytes), cobolName.startsWith("PACKED") ? 2 : 1);
+        }
+        return new BigDecimal(value.toString());
+      }
+    }
+    throw new IllegalArgumentException("Unknown field " + cobolName);
+  }
+
+  private static boolean matches(String operator, int comparison) {
+    switch (operator) {
+      case "=":
+        return comparison == 0;
+      case "<>":
+        return comparison != 0;
+      case "<":
+        return comparison < 0;
+      case "<=":
+        return comparison <= 0;
+      case ">":
+        return comparison > 0;
+      default:
+        return comparison >= 0;
+    }
+  }
+}
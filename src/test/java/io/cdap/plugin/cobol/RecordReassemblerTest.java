@@ -0,0 +1,134 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.cdap.plugin.cobol;
+
+import com.google.common.io.CharSource;
+import com.google.common.io.Resources;
+import io.cdap.cdap.api.data.format.StructuredRecord;
+import io.cdap.cdap.api.data.schema.Schema;
+import io.cdap.plugin.common.AvroConverter;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Tests for {@link RecordReassembler}.
+ */
+public class RecordReassemblerTest {
+
+  @Test
+  public void testRecordDescriptorWord() throws Exception {
+    CopybookReader copybookReader = new CopybookReader(
+      Resources.asCharSource(getClass().getClassLoader().getResource("custdat.cpbk"), StandardCharsets.UTF_8),
+      new Properties());
+    byte[] data = Resources.toByteArray(getClass().getClassLoader().getResource("custdat.bin"));
+    testChunks(copybookReader, data, true);
+  }
+
+  @Test
+  public void testFixedLength() throws Exception {
+    CopybookReader copybookReader = new CopybookReader(CharSource.wrap(CobolTestData.FIXED_COPYBOOK),
+                                                       new Properties());
+    ByteArrayOutputStream os = new ByteArrayOutputStream();
+    for (int i = 0; i < 100; i++) {
+      os.write(String.format("%06d%-20s", i, "name" + i).getBytes(Charset.forName("IBM01140")));
+    }
+    testChunks(copybookReader, os.toByteArray(), false);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testVariableLengthWithoutRecordDescriptorWord() throws Exception {
+    CopybookReader copybookReader = new CopybookReader(
+      Resources.asCharSource(getClass().getClassLoader().getResource("custdat.cpbk"), StandardCharsets.UTF_8),
+      new Properties());
+    Schema schema = AvroConverter.fromAvroSchema(copybookReader.getSchema());
+    new RecordReassembler(copybookReader.createRecordDecoder("IBM01140", schema), false);
+  }
+
+  private void testChunks(CopybookReader copybookReader, byte[] data, boolean rdw) throws IOException {
+    Schema schema = AvroConverter.fromAvroSchema(copybookReader.getSchema());
+    CobolRecordDecoder decoder = copybookReader.createRecordDecoder("IBM01140", schema);
+    List<StructuredRecord> expected = decode(new CobolRecordReader(data, 0, data.length, decoder, rdw));
+
+    for (int chunkSize : Arrays.asList(1, 3, 7, 100, 1000, data.length)) {
+      // Interleave the chunks of two files, one of them in direct buffers
+      RecordReassembler reassembler = new RecordReassembler(decoder, rdw);
+      CobolRecordReader reader = new CobolRecordReader(decoder, rdw);
+      List<StructuredRecord> heapRecords = new ArrayList<>();
+      List<StructuredRecord> directRecords = new ArrayList<>();
+      for (int offset = 0; offset < data.length; offset += chunkSize) {
+        int length = Math.min(chunkSize, data.length - offset);
+        boolean lastChunk = offset + length == data.length;
+        for (ByteBuffer records : reassembler.add("heap", ByteBuffer.wrap(data, offset, length).slice(), lastChunk)) {
+          heapRecords.addAll(decode(reader.reset(records)));
+        }
+        ByteBuffer chunk = ByteBuffer.allocateDirect(length);
+        chunk.put(data, offset, length).flip();
+        for (ByteBuffer records : reassembler.add(1L, chunk, lastChunk)) {
+          directRecords.addAll(decode(reader.reset(records)));
+        }
+        Assert.assertEquals(0, chunk.position());
+      }
+      Assert.assertEquals("Chunk size " + chunkSize, expected, heapRecords);
+      Assert.assertEquals("Chunk size " + chunkSize, expected, directRecords);
+      Assert.assertEquals(0, reassembler.getIncompleteFiles());
+    }
+
+    // The tail of a file that ends within a record is kept until its next chunk
+    RecordReassembler reassembler = new RecordReassembler(decoder, rdw);
+    List<StructuredRecord> records = new ArrayList<>();
+    for (ByteBuffer buffer : reassembler.add("file", ByteBuffer.wrap(data, 0, data.length - 1))) {
+      records.addAll(decode(new CobolRecordReader(buffer, decoder, rdw)));
+    }
+    Assert.assertEquals(expected.subList(0, expected.size() - 1), records);
+    Assert.assertEquals(1, reassembler.getIncompleteFiles());
+
+    // The tail is released with the last chunk of the file, which is empty here
+    try {
+      for (ByteBuffer buffer : reassembler.add("file", ByteBuffer.allocate(0), true)) {
+        records.addAll(decode(new CobolRecordReader(buffer, decoder, rdw)));
+      }
+      // The short last record of fixed-length records is decoded as from the whole file
+      Assert.assertFalse(rdw);
+      Assert.assertEquals(decode(new CobolRecordReader(data, 0, data.length - 1, decoder, rdw)), records);
+    } catch (IOException e) {
+      // A last record prefixed with a Record Descriptor Word can't be short
+      Assert.assertTrue(rdw);
+    }
+    Assert.assertEquals(0, reassembler.getIncompleteFiles());
+  }
+
+  private static List<StructuredRecord> decode(CobolRecordReader reader) throws IOException {
+    List<StructuredRecord> records = new ArrayList<>();
+    try {
+      for (StructuredRecord record : reader) {
+        records.add(record);
+      }
+    } finally {
+      reader.close();
+    }
+    return records;
+  }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.cdap.plugin.cobol;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Tests for {@link StringCache}.
+ */
+public class StringCacheTest {
+
+  @Test
+  public void testLowCardinality() {
+    StringCache cache = new StringCache(4);
+    byte[] data = "xxNYCAxxNYTXCATX".getBytes(StandardCharsets.US_ASCII);
+
+    for (int i = 0; i < 1000; i++) {
+      for (int offset = 2; offset < data.length; offset += 2) {
+        String value = cache.get(data, offset, 2);
+        if (value == null) {
+          cache.put(data, offset, 2, new String(data, offset, 2, StandardCharsets.US_ASCII));
+        } else {
+          Assert.assertEquals(new String(data, offset, 2, StandardCharsets.US_ASCII), value);
+        }
+      }
+    }
+    Assert.assertTrue(cache.isEnabled());
+    Assert.assertSame(cache.get(data, 2, 2), cache.get(data, 8, 2));
+    // Same bytes with a different length are a different value
+    Assert.assertNull(cache.get(data, 2, 1));
+  }
+
+  @Test
+  public void testHighCardinality() {
+    StringCache cache = new StringCache(16);
+    for (int i = 0; i < 1000 && cache.isEnabled(); i++) {
+      byte[] data = String.format("%06d", i).getBytes(StandardCharsets.US_ASCII);
+      Assert.assertNull(cache.get(data, 0, data.length));
+      cache.put(data, 0, data.length, String.valueOf(i));
+    }
+    Assert.assertFalse(cache.isEnabled());
+    byte[] data = "000000".getBytes(StandardCharsets.US_ASCII);
+    Assert.assertNull(cache.get(data, 0, data.length));
+  }
+
+  @Test
+  public void testGrowth() {
+    // The table grows from its initial capacity up to the maximum number of entries
+    StringCache cache = new StringCache(StringCache.MAX_ENTRIES);
+    for (int i = 0; i < StringCache.MAX_ENTRIES; i++) {
+      byte[] data = String.format("%06d", i).getBytes(StandardCharsets.US_ASCII);
+      Assert.assertNull(cache.get(data, 0, data.length));
+      cache.put(data, 0, data.length, String.valueOf(i));
+    }
+    for (int i = 0; i < StringCache.MAX_ENTRIES; i++) {
+      byte[] data = String.format("%06d", i).getBytes(StandardCharsets.US_ASCII);
+      Assert.assertEquals(String.valueOf(i), cache.get(data, 0, data.length));
+    }
+    Assert.assertTrue(cache.isEnabled());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidSize() {
+    new StringCache(0);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testSizeAboveMaximum() {
+    new StringCache(StringCache.MAX_ENTRIES + 1);
+  }
+}
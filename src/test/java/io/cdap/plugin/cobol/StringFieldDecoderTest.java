@@ -0,0 +1,165 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.cdap.plugin.cobol;
+
+import com.google.common.io.CharSource;
+import com.google.common.io.Resources;
+import io.cdap.cdap.api.data.format.StructuredRecord;
+import io.cdap.cdap.api.data.schema.Schema;
+import io.cdap.plugin.common.AvroConverter;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+
+/**
+ * Tests for {@link StringFieldDecoder}.
+ */
+public class StringFieldDecoderTest {
+
+  private static final String COPYBOOK = "       01  CUSTOMER-DATA.\n" +
+    "           05 CUSTOMER-ID                    PIC 9(6).\n" +
+    "           05 CUSTOMER-NAME                  PIC X(20).";
+
+  private static final RecordDecoderOptions CHARSET_OPTIONS = RecordDecoderOptions.builder()
+    .setStringDecoding(RecordDecoderOptions.StringDecoding.CHARSET)
+    .build();
+
+  @Test
+  public void testSameAsCharsetDecoding() throws Exception {
+    CopybookReader copybookReader = new CopybookReader(
+      Resources.asCharSource(getClass().getClassLoader().getResource("custdat.cpbk"), StandardCharsets.UTF_8),
+      new Properties());
+    Schema schema = AvroConverter.fromAvroSchema(copybookReader.getSchema());
+    byte[] data = Resources.toByteArray(getClass().getClassLoader().getResource("custdat.bin"));
+
+    List<StructuredRecord> expected = readAll(copybookReader.createRecordDecoder("IBM01140", schema, CHARSET_OPTIONS),
+                                              data, true);
+    Assert.assertFalse(expected.isEmpty());
+    Assert.assertEquals(expected, readAll(copybookReader.createRecordDecoder("IBM01140", schema), data, true));
+  }
+
+  @Test
+  public void testRandomBytes() throws Exception {
+    CopybookReader copybookReader = new CopybookReader(CharSource.wrap(COPYBOOK), new Properties());
+    Schema schema = AvroConverter.fromAvroSchema(copybookReader.getSchema());
+
+    // Any byte value, including LOW-VALUES and spaces, must decode the same as with the charset decoder
+    Random random = new Random(0);
+    ByteArrayOutputStream os = new ByteArrayOutputStream();
+    for (int i = 0; i < 2000; i++) {
+      byte[] name = new byte[20];
+      random.nextBytes(name);
+      for (int j = 0; j < name.length; j++) {
+        if (random.nextInt(4) == 0) {
+          name[j] = (byte) (random.nextBoolean() ? 0x00 : 0x40);
+        }
+      }
+      os.write(new byte[] { (byte) 0xF0, (byte) 0xF0, (byte) 0xF0, (byte) 0xF0, (byte) 0xF0, (byte) 0xF1 });
+      os.write(name);
+    }
+    byte[] data = os.toByteArray();
+
+    for (String charset : new String[] { "IBM01140", "IBM037", "IBM500", "IBM273" }) {
+      Assert.assertEquals(charset, readAll(copybookReader.createRecordDecoder(charset, schema, CHARSET_OPTIONS),
+                                           data, false),
+                          readAll(copybookReader.createRecordDecoder(charset, schema), data, false));
+    }
+  }
+
+  @Test
+  public void testBlankStringsAsNull() throws Exception {
+    CopybookConfig config = new CopybookConfig(COPYBOOK, null, null, false, null, null, null, true, null, null);
+    CopybookReader copybookReader = config.getCopybookReader();
+    Schema schema = config.getOutputSchemaAndValidate(copybookReader);
+    Assert.assertTrue(schema.getField("customerName").getSchema().isNullable());
+    Assert.assertFalse(schema.getField("customerId").getSchema().isNullable());
+
+    Charset charset = Charset.forName("IBM01140");
+    ByteArrayOutputStream os = new ByteArrayOutputStream();
+    os.write(String.format("%06d%-20s", 1, "").getBytes(charset));
+    os.write(String.format("%06d", 2).getBytes(charset));
+    os.write(new byte[20]);
+    os.write(String.format("%06d%-20s", 3, "a\u0000b").getBytes(charset));
+    byte[] data = os.toByteArray();
+
+    for (RecordDecoderOptions.StringDecoding stringDecoding : RecordDecoderOptions.StringDecoding.values()) {
+      RecordDecoderOptions options = RecordDecoderOptions.builder()
+        .setStringDecoding(stringDecoding)
+        .setBlankStringsAsNull(true)
+        .build();
+      List<StructuredRecord> records = readAll(copybookReader.createRecordDecoder("IBM01140", schema, options),
+                                               data, false);
+      Assert.assertEquals(3, records.size());
+      Assert.assertNull(records.get(0).get("customerName"));
+      Assert.assertNull(records.get(1).get("customerName"));
+      // LOW-VALUES within the value are decoded as spaces
+      Assert.assertEquals("a b", records.get(2).get("customerName"));
+    }
+  }
+
+  @Test
+  public void testStringCache() throws Exception {
+    CopybookReader copybookReader = new CopybookReader(CharSource.wrap(COPYBOOK), new Properties());
+    Schema schema = AvroConverter.fromAvroSchema(copybookReader.getSchema());
+
+    Charset charset = Charset.forName("IBM01140");
+    ByteArrayOutputStream os = new ByteArrayOutputStream();
+    for (int i = 0; i < 100; i++) {
+      os.write(String.format("%06d%-20s", i, i % 2 == 0 ? "even" : "odd").getBytes(charset));
+    }
+    byte[] data = os.toByteArray();
+
+    List<StructuredRecord> records = readAll(copybookReader.createRecordDecoder("IBM01140", schema), data, false);
+    Assert.assertEquals("even", records.get(0).get("customerName"));
+    Assert.assertEquals("odd", records.get(1).get("customerName"));
+    Assert.assertSame(records.get(0).get("customerName"), records.get(98).get("customerName"));
+    Assert.assertSame(records.get(1).get("customerName"), records.get(99).get("customerName"));
+
+    RecordDecoderOptions options = RecordDecoderOptions.builder().setStringCacheSize(0).build();
+    records = readAll(copybookReader.createRecordDecoder("IBM01140", schema, options), data, false);
+    Assert.assertEquals(records.get(0).<Object>get("customerName"), records.get(98).get("customerName"));
+    Assert.assertNotSame(records.get(0).get("customerName"), records.get(98).get("customerName"));
+  }
+
+  @Test
+  public void testCreateTable() {
+    char[] table = StringFieldDecoder.createTable(Charset.forName("IBM01140"), 0x40);
+    Assert.assertNotNull(table);
+    Assert.assertEquals(' ', table[0]);
+    Assert.assertEquals(' ', table[0x40]);
+    Assert.assertEquals('A', table[0xC1]);
+    Assert.assertEquals('€', table[0x9F]);
+
+    Assert.assertNull(StringFieldDecoder.createTable(StandardCharsets.UTF_8, 0x20));
+    Assert.assertNull(StringFieldDecoder.createTable(Charset.forName("IBM939"), 0x40));
+  }
+
+  private static List<StructuredRecord> readAll(CobolRecordDecoder decoder, byte[] data,
+                                                boolean hasRecordDescriptorWord) {
+    List<StructuredRecord> records = new ArrayList<>();
+    for (StructuredRecord record : new CobolRecordReader(data, 0, data.length, decoder, hasRecordDescriptorWord)) {
+      records.add(record);
+    }
+    return records;
+  }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.common;
+
+import com.google.common.collect.ImmutableMap;
+import io.cdap.cdap.api.data.format.StructuredRecord;
+import io.cdap.cdap.api.data.schema.Schema;
+import org.apache.avro.SchemaBuilder;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.util.Utf8;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Tests for {@link AvroConverter}.
+ */
+public class AvroConverterTest {
+
+  private static final org.apache.avro.Schema AVRO_SCHEMA = SchemaBuilder.record("test").fields()
+    .requiredLong("id")
+    .name("name").type().unionOf().stringType().and().nullType().endUnion().noDefault()
+    .name("tags").type().array().items().stringType().noDefault()
+    .name("props").type().map().values().intType().noDefault()
+    .name("choice").type().unionOf().stringType().and().longType().endUnion().noDefault()
+    .endRecord();
+
+  @Test
+  public void testFromAvroRecord() {
+    Schema schema = AvroConverter.fromAvroSchema(AVRO_SCHEMA);
+
+    GenericRecord record = new GenericData.Record(AVRO_SCHEMA);
+    record.put("id", 1L);
+    record.put("name", new Utf8("name"));
+    record.put("tags", Arrays.asList(new Utf8("a"), new Utf8("b")));
+    record.put("props", ImmutableMap.of(new Utf8("k"), 2));
+    record.put("choice", 3L);
+
+    StructuredRecord result = AvroConverter.fromAvroRecord(record, schema);
+    Assert.assertEquals(1L, (long) result.get("id"));
+    Assert.assertEquals("name", result.get("name"));
+    Assert.assertEquals(Arrays.asList("a", "b"), result.get("tags"));
+    Assert.assertEquals(ImmutableMap.of("k", 2), result.<Map<String, Integer>>get("props"));
+    Assert.assertEquals(3L, (long) result.get("choice"));
+
+    record.put("name", null);
+    record.put("choice", "choice");
+    result = AvroConverter.fromAvroRecord(record, schema);
+    Assert.assertNull(result.get("name"));
+    Assert.assertEquals("choice", result.get("choice"));
+  }
+
+  @Test
+  public void testConverterIsCached() {
+    Schema schema = AvroConverter.fromAvroSchema(AVRO_SCHEMA);
+    Assert.assertSame(AvroConverter.getRecordConverter(schema, AVRO_SCHEMA),
+                      AvroConverter.getRecordConverter(schema, AVRO_SCHEMA));
+    // Equal schemas share the converter, such that new schema instances don't grow the cache
+    org.apache.avro.Schema avroSchema = new org.apache.avro.Schema.Parser().parse(AVRO_SCHEMA.toString());
+    Assert.assertSame(AvroConverter.getRecordConverter(schema, AVRO_SCHEMA),
+                      AvroConverter.getRecordConverter(AvroConverter.fromAvroSchema(avroSchema), avroSchema));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testIncompatibleSchema() {
+    Schema schema = Schema.recordOf("test", Schema.Field.of("id", Schema.of(Schema.Type.STRING)));
+    AvroConverter.getRecordConverter(schema, AVRO_SCHEMA);
+  }
+}